@@ -0,0 +1,94 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Lote grande de un cliente que vuelve tras una pausa, con y sin compresión
+ * - Bytes del lote sin comprimir, con deflate y con deflate + diccionario
+ *   (el incluido, o el de -Dchat.compress.dictionary si se indica)
+ * - Lotes por segundo al serializar y al leer (lo que cuesta comprimir)
+ * Tamaño del lote con -Dbench.messages (por defecto 2000)
+ */
+public class BatchCompressionBenchmark {
+    
+    private static final String[] WORDS = {
+        "hola", "a", "todos", "gracias", "por", "favor", "la", "reunión", "del", "proyecto", "es", "mañana",
+        "ya", "está", "listo", "el", "servidor", "no", "funciona", "alguien", "sabe", "cómo", "que", "tal",
+        "bien", "y", "tú", "de", "acuerdo", "perfecto", "nos", "vemos", "después", "sala", "mensaje", "usuarios"
+    };
+    
+    public static void main(String[] args) throws Exception {
+        BenchmarkHarness harness = new BenchmarkHarness();
+        int count = Integer.getInteger("bench.messages", 2000);
+        List<ChatMessage> messages = sampleMessages(count);
+        
+        List<BatchCompression.Codec> codecs = new ArrayList<>();
+        codecs.add(null);
+        codecs.add(BatchCompression.choose(Collections.singletonList(BatchCompression.DEFLATE)));
+        // El preferido: el diccionario entrenado si se indicó, si no el incluido
+        codecs.add(BatchCompression.choose(BatchCompression.supportedCodecs()));
+        
+        BenchmarkHarness.report("== Lote de " + count + " mensajes ==");
+        for (BatchCompression.Codec codec : codecs) {
+            String name = codec != null ? codec.getId() : "sin comprimir";
+            byte[] encoded = serialize(batch(messages, codec));
+            BenchmarkHarness.report(String.format("%-28s %,10d bytes", name, encoded.length));
+        }
+        for (BatchCompression.Codec codec : codecs) {
+            String name = codec != null ? codec.getId() : "sin comprimir";
+            byte[] encoded = serialize(batch(messages, codec));
+            harness.measure("write/" + name, 1, t -> serialize(batch(messages, codec)));
+            harness.measure("read/" + name, 1, t -> {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded))) {
+                    return in.readObject();
+                }
+            });
+        }
+        System.exit(harness.finish());
+    }
+    
+    private static MessageBatch batch(List<ChatMessage> messages, BatchCompression.Codec codec) {
+        return new MessageBatch(messages).compressWith(codec, 0, null);
+    }
+    
+    private static byte[] serialize(MessageBatch batch) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(batch);
+        }
+        return bytes.toByteArray();
+    }
+    
+    // Mensajes de 3 a 15 palabras de 50 usuarios, con algunos directos y de salas
+    private static List<ChatMessage> sampleMessages(int count) {
+        Random random = new Random(42);
+        List<ChatMessage> messages = new ArrayList<>(count);
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 3 + random.nextInt(13);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    text.append(' ');
+                }
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            String sender = "usuario" + random.nextInt(50);
+            int kind = random.nextInt(10);
+            ChatMessage.Type type = kind == 0 ? ChatMessage.Type.DIRECT
+                    : (kind == 1 ? ChatMessage.Type.ROOM : ChatMessage.Type.BROADCAST);
+            String recipient = type == ChatMessage.Type.DIRECT ? "yo"
+                    : (type == ChatMessage.Type.ROOM ? "general" : null);
+            timestamp += random.nextInt(2000);
+            messages.add(new ChatMessage(i, type, sender, recipient, timestamp,
+                    text.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arnés mínimo de microbenchmarks sin dependencias externas
+ * Igual que JMH: iteraciones de calentamiento, iteraciones de medición de
+ * duración fija y N hilos en paralelo. Reporta ops/s (media y desviación)
+ * y bytes asignados por operación (equivalente a -prof gc). El resultado
+ * de cada operación va a un sumidero como el Blackhole de JMH, así el JIT
+ * no descarta su cálculo ni su asignación.
+ *
+ * No es JMH: el proyecto se compila con javac desde scripts, sin gestor de
+ * dependencias. A diferencia de JMH, todas las mediciones corren en la misma
+ * JVM (sin forks), así que el perfil del JIT de una medición puede afectar a
+ * las siguientes; los números sirven para comparar variantes en la misma
+ * corrida y contra un CSV de referencia, no como valores absolutos.
+ */
+public class BenchmarkHarness {
+    
+    /**
+     * Operación a medir; recibe el índice del hilo que la ejecuta
+     * y devuelve su resultado (null si no tiene), que se consume en un sumidero
+     */
+    @FunctionalInterface
+    public interface Operation {
+        Object run(int threadIndex) throws Exception;
+    }
+    
+    /**
+     * Sumidero de resultados (como el Blackhole de JMH)
+     * De vez en cuando guarda el resultado en un campo: el JIT no puede probar
+     * que no escapa, así que debe calcularlo y asignarlo en cada operación
+     */
+    private static final class Sink {
+        // Crece con cada guardado: después de unos pocos casi nunca se guarda
+        private volatile int mask = 1;
+        private int state = (int) System.nanoTime();
+        private Object kept;
+        
+        void consume(Object value) {
+            int currentMask = mask;
+            state = state * 1664525 + 1013904223;
+            if ((state & currentMask) == 0) {
+                kept = value;
+                mask = (currentMask << 1) + 1;
+            }
+        }
+    }
+    
+    /**
+     * Resultado de una medición
+     */
+    public static class Result {
+        public final String name;
+        public final int threads;
+        public final double opsPerSecond;
+        public final double opsPerSecondError;
+        public final double bytesPerOp;
+        
+        /**
+         * Tasa de asignación en MB/s (gc.alloc.rate de JMH)
+         */
+        public double allocationRateMBps() {
+            return bytesPerOp * opsPerSecond / (1024.0 * 1024.0);
+        }
+        
+        Result(String name, int threads, double opsPerSecond, double opsPerSecondError, double bytesPerOp) {
+            this.name = name;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+            this.opsPerSecondError = opsPerSecondError;
+            this.bytesPerOp = bytesPerOp;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%-45s %3d hilos %,14.0f ± %,10.0f ops/s %,10.1f B/op %,9.1f MB/s",
+                    name, threads, opsPerSecond, opsPerSecondError, bytesPerOp, allocationRateMBps());
+        }
+    }
+    
+    // Salida original (el servidor escribe en System.out y se silencia al medir)
+    private static final PrintStream REPORT = System.out;
+    
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationMillis;
+    
+    // Resultados medidos, en orden
+    private final List<Result> results = new ArrayList<>();
+    
+    /**
+     * Configuración tomada de -Dbench.warmup, -Dbench.iterations y -Dbench.time (ms)
+     */
+    public BenchmarkHarness() {
+        this(Integer.getInteger("bench.warmup", 3),
+             Integer.getInteger("bench.iterations", 5),
+             Long.getLong("bench.time", 1000L));
+    }
+    
+    public BenchmarkHarness(int warmupIterations, int measureIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationMillis = iterationMillis;
+    }
+    
+    /**
+     * Mide una operación con el número de hilos indicado e imprime el resultado
+     */
+    public Result measure(String name, int threads, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(threads, operation);
+        }
+        
+        double[] rates = new double[measureIterations];
+        long totalOps = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < measureIterations; i++) {
+            long[] opsAndBytes = runIteration(threads, operation);
+            rates[i] = opsAndBytes[0] * 1000.0 / iterationMillis;
+            totalOps += opsAndBytes[0];
+            totalBytes += opsAndBytes[1];
+        }
+        
+        double mean = 0;
+        for (double rate : rates) {
+            mean += rate;
+        }
+        mean /= rates.length;
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - mean) * (rate - mean);
+        }
+        double error = rates.length > 1 ? Math.sqrt(variance / (rates.length - 1)) : 0;
+        
+        Result result = new Result(name, threads, mean, error,
+                totalOps > 0 ? (double) totalBytes / totalOps : 0);
+        REPORT.println(result);
+        results.add(result);
+        return result;
+    }
+    
+    /**
+     * Ejecuta una iteración: todos los hilos arrancan juntos y corren iterationMillis
+     * @return {operaciones, bytes asignados}
+     */
+    private long[] runIteration(int threads, Operation operation) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads);
+        AtomicLong ops = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        // Los sumideros quedan en el heap, visibles fuera de cada hilo
+        Sink[] sinks = new Sink[threads];
+        
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    Sink sink = new Sink();
+                    sinks[index] = sink;
+                    start.await();
+                    long threadId = Thread.currentThread().getId();
+                    long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+                    long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+                    long count = 0;
+                    while (System.nanoTime() < deadline) {
+                        sink.consume(operation.run(index));
+                        count++;
+                    }
+                    bytes.addAndGet(THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore);
+                    ops.addAndGet(count);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    e.printStackTrace(REPORT);
+                }
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " hilos fallaron durante la medición");
+        }
+        return new long[] {ops.get(), bytes.get()};
+    }
+    
+    /**
+     * Escribe los resultados en CSV (nombre,hilos,ops/s,error,B/op,MB/s)
+     */
+    public void writeCsv(String file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,threads,ops_per_s,error,bytes_per_op,alloc_mb_per_s");
+        for (Result r : results) {
+            lines.add(String.format(Locale.ROOT, "%s,%d,%.1f,%.1f,%.1f,%.1f",
+                    r.name, r.threads, r.opsPerSecond, r.opsPerSecondError, r.bytesPerOp, r.allocationRateMBps()));
+        }
+        Files.write(Paths.get(file), lines, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Compara con un CSV de referencia y reporta las regresiones
+     * @param tolerance Caída relativa de ops/s permitida (0.2 = 20%)
+     * @return Número de benchmarks que empeoraron más que la tolerancia
+     */
+    public int checkBaseline(String file, double tolerance) throws IOException {
+        Path path = Paths.get(file);
+        Map<String, Double> baseline = new HashMap<>();
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            baseline.put(fields[0] + "@" + fields[1], Double.parseDouble(fields[2]));
+        }
+        
+        int regressions = 0;
+        for (Result r : results) {
+            Double reference = baseline.get(r.name + "@" + r.threads);
+            if (reference != null && r.opsPerSecond < reference * (1 - tolerance)) {
+                REPORT.println(String.format("[REGRESION] %s (%d hilos): %,.0f ops/s, referencia %,.0f ops/s",
+                        r.name, r.threads, r.opsPerSecond, reference));
+                regressions++;
+            }
+        }
+        return regressions;
+    }
+    
+    /**
+     * Guarda resultados y compara con la referencia según -Dbench.csv y
+     * -Dbench.baseline (con -Dbench.tolerance, por defecto 0.2)
+     * @return Código de salida: 0 si no hay regresiones, 1 si las hay
+     */
+    public int finish() throws IOException {
+        String csv = System.getProperty("bench.csv");
+        if (csv != null) {
+            writeCsv(csv);
+            REPORT.println("[INFO] Resultados guardados en " + csv);
+        }
+        String baseline = System.getProperty("bench.baseline");
+        if (baseline != null) {
+            double tolerance = Double.parseDouble(System.getProperty("bench.tolerance", "0.2"));
+            int regressions = checkBaseline(baseline, tolerance);
+            REPORT.println("[INFO] Regresiones respecto a " + baseline + ": " + regressions);
+            return regressions > 0 ? 1 : 0;
+        }
+        return 0;
+    }
+    
+    /**
+     * Descarta la salida estándar (los println del servidor distorsionan la medición)
+     */
+    public static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+    
+    /**
+     * Imprime una línea en la salida del reporte
+     */
+    public static void report(String line) {
+        REPORT.println(line);
+    }
+}
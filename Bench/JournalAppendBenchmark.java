@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark de escritura del journal de mensajes
+ * Mensajes agregados por segundo con cada durabilidad (none, batch, every)
+ * y varios hilos, para ver cuánto agrupa el fsync compartido (group commit).
+ * Directorio con -Dbench.dir (por defecto uno temporal), hilos con
+ * -Dbench.threads=1,8 y tamaño del texto con -Dbench.size (bytes)
+ */
+public class JournalAppendBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        BenchmarkHarness harness = new BenchmarkHarness();
+        String dir = System.getProperty("bench.dir");
+        Path base = dir != null ? Files.createDirectories(Path.of(dir)) : Files.createTempDirectory("chat-journal-bench");
+        String text = "x".repeat(Integer.getInteger("bench.size", 100));
+        
+        for (MessageJournal.Durability durability : MessageJournal.Durability.values()) {
+            for (String count : System.getProperty("bench.threads", "1,8").split(",")) {
+                int threads = Integer.parseInt(count.trim());
+                Path journalDir = base.resolve(durability.name().toLowerCase(Locale.ROOT) + "-" + threads);
+                deleteRecursively(journalDir);
+                MessageJournal journal = new MessageJournal(journalDir, durability, 64L * 1024 * 1024, 50);
+                
+                long[] sequences = new long[threads];
+                harness.measure("append/" + durability.name().toLowerCase(Locale.ROOT), threads, t -> {
+                    journal.append(ChatMessage.of(sequences[t]++, ChatMessage.Type.BROADCAST, "u" + t, null, text));
+                    return null;
+                });
+                journal.close();
+                deleteRecursively(journalDir);
+            }
+        }
+        
+        if (dir == null) {
+            deleteRecursively(base);
+        }
+        System.exit(harness.finish());
+    }
+    
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
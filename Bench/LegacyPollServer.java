@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copia de la implementación original de ChatServer (antes de las sesiones por usuario)
+ * registerClient y getPendingMessages sincronizados sobre la instancia,
+ * colas ArrayList por usuario y broadcast copiado a cada cola.
+ * Sin println para comparar solo el algoritmo.
+ */
+public class LegacyPollServer {
+    
+    private final Map<String, ChatClientInterface> connectedClients = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> pendingMessages = new ConcurrentHashMap<>();
+    
+    public synchronized boolean registerClient(String username, ChatClientInterface clientRef) {
+        if (connectedClients.containsKey(username)) {
+            return false;
+        }
+        connectedClients.put(username, clientRef);
+        pendingMessages.putIfAbsent(username, new ArrayList<>());
+        return true;
+    }
+    
+    public void broadcastMessage(String from, String message) {
+        String fullMessage = "[BROADCAST] " + from + ": " + message;
+        for (String username : connectedClients.keySet()) {
+            pendingMessages.computeIfAbsent(username, k -> new ArrayList<>()).add(fullMessage);
+        }
+    }
+    
+    public void sendDirectMessage(String from, String to, String message) {
+        pendingMessages.computeIfAbsent(to, k -> new ArrayList<>()).add("[DIRECTO de " + from + "] " + message);
+        pendingMessages.computeIfAbsent(from, k -> new ArrayList<>()).add("[Tú → " + to + " (Directo)] " + message);
+    }
+    
+    public synchronized Map<String, List<String>> getPendingMessages(String username) {
+        Map<String, List<String>> result = new HashMap<>();
+        List<String> messages = pendingMessages.getOrDefault(username, new ArrayList<>());
+        if (!messages.isEmpty()) {
+            result.put("messages", new ArrayList<>(messages));
+            pendingMessages.put(username, new ArrayList<>());
+        } else {
+            result.put("messages", new ArrayList<>());
+        }
+        return result;
+    }
+}
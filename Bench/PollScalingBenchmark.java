@@ -0,0 +1,60 @@
+/**
+ * Escalamiento de la consulta de mensajes con el número de hilos
+ * Compara ChatServer (sesiones por usuario, sin candado global) con la
+ * implementación original sincronizada (LegacyPollServer). Cada hilo
+ * consulta a su propio usuario, así que cualquier contención es del servidor.
+ */
+public class PollScalingBenchmark {
+    
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int USERS = 64;
+    
+    public static void main(String[] args) throws Exception {
+        System.setProperty("chat.delivery", ChatServerInterface.DELIVERY_POLL);
+        // Sin límite de envíos por usuario: cada hilo envía tan rápido como puede
+        System.setProperty("chat.rate.broadcast", "0");
+        System.setProperty("chat.rate.direct", "0");
+        BenchmarkHarness.silenceStdout();
+        BenchmarkHarness harness = new BenchmarkHarness();
+        
+        ChatServer server = new ChatServer();
+        LegacyPollServer legacy = new LegacyPollServer();
+        for (int i = 0; i < USERS; i++) {
+            server.registerClient("u" + i, new StubClient("u" + i));
+            legacy.registerClient("u" + i, new StubClient("u" + i));
+            server.registerClient("s" + i, new StubClient("s" + i));
+            legacy.registerClient("s" + i, new StubClient("s" + i));
+        }
+        // Vaciar los avisos de ingreso antes de medir
+        for (int i = 0; i < USERS; i++) {
+            server.getMessageBatch("u" + i);
+            server.getMessageBatch("s" + i);
+            legacy.getPendingMessages("u" + i);
+            legacy.getPendingMessages("s" + i);
+        }
+        
+        BenchmarkHarness.report("== Consulta sin mensajes pendientes ==");
+        for (int threads : THREAD_COUNTS) {
+            harness.measure("legacy.getPendingMessages", threads,
+                    t -> legacy.getPendingMessages("u" + t));
+            harness.measure("ChatServer.getMessageBatch", threads,
+                    t -> server.getMessageBatch("u" + t));
+        }
+        
+        BenchmarkHarness.report("== Mensaje directo + consulta ==");
+        for (int threads : THREAD_COUNTS) {
+            harness.measure("legacy.sendDirect+getPending", threads, t -> {
+                legacy.sendDirectMessage("s" + t, "u" + t, "hola");
+                legacy.getPendingMessages("u" + t);
+                return legacy.getPendingMessages("s" + t);
+            });
+            harness.measure("ChatServer.sendDirect+getMessageBatch", threads, t -> {
+                server.sendDirectMessage("s" + t, "u" + t, "hola");
+                server.getMessageBatch("u" + t);
+                return server.getMessageBatch("s" + t);
+            });
+        }
+        
+        System.exit(harness.finish());
+    }
+}
@@ -0,0 +1,77 @@
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ráfagas de mensajes de un cliente: una llamada por mensaje vs. sendBatch
+ * - individual: -Dbench.burst llamadas a broadcastMessage (por defecto 50)
+ * - sendBatch: una sola llamada con toda la ráfaga
+ * - outbox: la ráfaga encolada en MessageOutbox (-Dbench.linger ms, por defecto 1)
+ * Se mide por RMI y por NIO; una operación es una ráfaga completa, así que
+ * los mensajes por segundo son ops/s × ráfaga
+ */
+public class SendBatchBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        System.setProperty("chat.delivery", ChatServerInterface.DELIVERY_LONG_POLL);
+        System.setProperty("java.rmi.server.hostname", "127.0.0.1");
+        // Sin límite de envíos por usuario: se mide el costo de las llamadas
+        System.setProperty("chat.rate.broadcast", "0");
+        BenchmarkHarness.silenceStdout();
+        BenchmarkHarness harness = new BenchmarkHarness();
+        int burst = Integer.getInteger("bench.burst", 50);
+        long linger = Long.getLong("bench.linger", 1L);
+        
+        ChatServer server = new ChatServer();
+        int rmiPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            rmiPort = socket.getLocalPort();
+        }
+        Registry registry = LocateRegistry.createRegistry(rmiPort);
+        registry.rebind("ChatServer", server);
+        NioChatServer nio = new NioChatServer(server, "127.0.0.1", 0);
+        
+        // Por el registro remoto para llamar a través de un stub (ver TransportBenchmark)
+        ChatServerInterface rmi = (ChatServerInterface) LocateRegistry.getRegistry("127.0.0.1", rmiPort)
+                .lookup("ChatServer");
+        rmi.registerClient("rmi", (ChatClientInterface) UnicastRemoteObject.exportObject(new StubClient("rmi"), 0));
+        NioServerConnection nioClient = new NioServerConnection("127.0.0.1", nio.getPort());
+        nioClient.registerClient("nio", new StubClient("nio"));
+        
+        List<OutboundMessage> messages = new ArrayList<>(burst);
+        for (int i = 0; i < burst; i++) {
+            messages.add(OutboundMessage.broadcast("mensaje " + i + " de la ráfaga"));
+        }
+        
+        BenchmarkHarness.report("== Ráfagas de " + burst + " mensajes ==");
+        measure(harness, "rmi", rmi, messages, linger);
+        measure(harness, "nio", nioClient, messages, linger);
+        
+        System.exit(harness.finish());
+    }
+    
+    private static void measure(BenchmarkHarness harness, String user, ChatServerInterface client,
+                                List<OutboundMessage> messages, long linger) throws Exception {
+        harness.measure("individual/" + user, 1, t -> {
+            for (OutboundMessage message : messages) {
+                client.broadcastMessage(user, message.getText());
+            }
+            return null;
+        });
+        harness.measure("sendBatch/" + user, 1, t -> client.sendBatch(user, messages));
+        
+        try (MessageOutbox outbox = new MessageOutbox(client, user, linger, messages.size())) {
+            harness.measure("outbox/" + user, 1, t -> {
+                CompletableFuture<SendResult> last = null;
+                for (OutboundMessage message : messages) {
+                    last = outbox.submit(message);
+                }
+                return last.join();
+            });
+        }
+    }
+}
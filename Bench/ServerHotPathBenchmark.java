@@ -0,0 +1,81 @@
+/**
+ * Benchmarks de los caminos críticos de ChatServer en el mismo proceso
+ * broadcastMessage, sendDirectMessage, getPendingMessages y el drenado
+ * del broadcast con 10, 1.000 y 10.000 usuarios registrados (StubClient).
+ * Hilos con -Dbench.threads (por defecto 1) y tamaños con -Dbench.users=10,1000
+ */
+public class ServerHotPathBenchmark {
+    
+    // Cada cuántos broadcasts se drenan todos los usuarios (evita que el registro crezca sin límite)
+    private static final int DRAIN_EVERY = 256;
+    
+    public static void main(String[] args) throws Exception {
+        System.setProperty("chat.delivery", ChatServerInterface.DELIVERY_POLL);
+        // Sin límite de envíos por usuario: cada hilo envía tan rápido como puede
+        System.setProperty("chat.rate.broadcast", "0");
+        System.setProperty("chat.rate.direct", "0");
+        BenchmarkHarness.silenceStdout();
+        BenchmarkHarness harness = new BenchmarkHarness();
+        int threads = Integer.getInteger("bench.threads", 1);
+        
+        for (String size : System.getProperty("bench.users", "10,1000,10000").split(",")) {
+            int users = Integer.parseInt(size.trim());
+            ChatServer server = createServer(users);
+            BenchmarkHarness.report("== " + users + " usuarios ==");
+            
+            // Un broadcast por operación; el drenado de todos los usuarios se amortiza
+            long[] broadcasts = new long[threads];
+            harness.measure("broadcastMessage/" + users, threads, t -> {
+                server.broadcastMessage("u" + t, "hola a todos");
+                if (++broadcasts[t] % DRAIN_EVERY == 0 && t == 0) {
+                    drainAll(server, users);
+                }
+                return null;
+            });
+            drainAll(server, users);
+            
+            // Directo a un usuario distinto cada vez, drenando destinatario y remitente
+            long[] directs = new long[threads];
+            harness.measure("sendDirectMessage/" + users, threads, t -> {
+                String to = "u" + (int) (directs[t]++ % users);
+                String from = "u" + t;
+                server.sendDirectMessage(from, to, "hola");
+                server.getMessageBatch(to);
+                return server.getMessageBatch(from);
+            });
+            
+            // Consulta con la API anterior sin mensajes pendientes
+            long[] polls = new long[threads];
+            harness.measure("getPendingMessages(vacio)/" + users, threads,
+                    t -> server.getPendingMessages("u" + (int) (polls[t]++ % users)));
+            
+            // Un broadcast cada 'users' consultas: cada consulta recibe un mensaje
+            long[] drains = new long[threads];
+            harness.measure("broadcast+getMessageBatch/" + users, threads, t -> {
+                long i = drains[t]++;
+                if (i % users == 0) {
+                    server.broadcastMessage("u" + t, "hola a todos");
+                }
+                return server.getMessageBatch("u" + (int) (i % users));
+            });
+            drainAll(server, users);
+        }
+        
+        System.exit(harness.finish());
+    }
+    
+    private static ChatServer createServer(int users) throws Exception {
+        ChatServer server = new ChatServer();
+        for (int i = 0; i < users; i++) {
+            server.registerClient("u" + i, new StubClient("u" + i));
+        }
+        drainAll(server, users);
+        return server;
+    }
+    
+    private static void drainAll(ChatServer server, int users) throws Exception {
+        for (int i = 0; i < users; i++) {
+            server.getMessageBatch("u" + i);
+        }
+    }
+}
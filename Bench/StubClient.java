@@ -0,0 +1,35 @@
+import java.rmi.RemoteException;
+
+/**
+ * Cliente de prueba que no se exporta por RMI
+ * Sirve como referencia en registerClient y descarta los callbacks
+ */
+public class StubClient implements ChatClientInterface {
+    
+    private final String username;
+    
+    public StubClient(String username) {
+        this.username = username;
+    }
+    
+    @Override
+    public void receiveMessage(String from, String message, boolean isDirect) throws RemoteException {
+    }
+    
+    @Override
+    public void receiveRoomMessage(String room, String from, String message) throws RemoteException {
+    }
+    
+    @Override
+    public void userJoined(String username) throws RemoteException {
+    }
+    
+    @Override
+    public void userLeft(String username) throws RemoteException {
+    }
+    
+    @Override
+    public String getUsername() throws RemoteException {
+        return username;
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Benchmark del límite de tasa por usuario (TokenBucket.tryAcquire)
+ * Mide el costo de la revisión con un cubo por hilo (el caso normal: cada
+ * usuario tiene el suyo) y con un cubo compartido por todos los hilos (peor
+ * caso de contención en el compareAndSet). Hilos con -Dbench.threads=1,4
+ */
+public class TokenBucketBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        BenchmarkHarness harness = new BenchmarkHarness();
+        
+        for (String count : System.getProperty("bench.threads", "1,4").split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            
+            // Tasa alta para medir también el camino que concede el permiso
+            TokenBucket[] own = new TokenBucket[threads];
+            for (int i = 0; i < threads; i++) {
+                own[i] = new TokenBucket(1e9, 1000);
+            }
+            harness.measure("tryAcquire/own", threads, t -> own[t].tryAcquire());
+            
+            TokenBucket shared = new TokenBucket(1e9, 1000);
+            harness.measure("tryAcquire/shared", threads, t -> shared.tryAcquire());
+            
+            // Cubo agotado: todas las llamadas se rechazan
+            TokenBucket exhausted = new TokenBucket(1, 1);
+            exhausted.tryAcquire();
+            harness.measure("tryAcquire/rejected", threads, t -> exhausted.tryAcquire());
+        }
+        
+        System.exit(harness.finish());
+    }
+}
@@ -0,0 +1,217 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Comparación de los transportes RMI y NIO con el mismo ChatServer
+ * - Llamadas por segundo (heartbeat, broadcastMessage y broadcast+getMessageBatch)
+ *   con una conexión por hilo; hilos con -Dbench.threads=1,4
+ * - Latencia p50/p99/p999 de una llamada (-Dbench.samples, por defecto 20000)
+ * - Long-polls en espera (-Dbench.polls, por defecto 500): hilos del servidor
+ *   mientras esperan y tiempo hasta que todos reciben un broadcast
+ * Cliente y servidor corren en la misma JVM sobre 127.0.0.1
+ */
+public class TransportBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        System.setProperty("chat.delivery", ChatServerInterface.DELIVERY_LONG_POLL);
+        System.setProperty("java.rmi.server.hostname", "127.0.0.1");
+        // Sin límite de envíos por usuario: cada hilo envía tan rápido como puede
+        System.setProperty("chat.rate.broadcast", "0");
+        System.setProperty("chat.rate.direct", "0");
+        BenchmarkHarness.silenceStdout();
+        BenchmarkHarness harness = new BenchmarkHarness();
+        
+        ChatServer server = new ChatServer();
+        int rmiPort = freePort();
+        Registry registry = LocateRegistry.createRegistry(rmiPort);
+        registry.rebind("ChatServer", server);
+        // Los clientes RMI pasan por el registro remoto para recibir un stub; con
+        // el objeto del registro local llamarían a ChatServer sin pasar por la red
+        Registry remote = LocateRegistry.getRegistry("127.0.0.1", rmiPort);
+        NioChatServer nio = new NioChatServer(server, "127.0.0.1", 0);
+        
+        int[] threadCounts = parseList(System.getProperty("bench.threads", "1,4"));
+        int maxThreads = 0;
+        for (int threads : threadCounts) {
+            maxThreads = Math.max(maxThreads, threads);
+        }
+        
+        // Una conexión por hilo en cada transporte, con un usuario propio
+        ChatServerInterface[] rmi = new ChatServerInterface[maxThreads];
+        ChatServerInterface[] nioClients = new ChatServerInterface[maxThreads];
+        for (int t = 0; t < maxThreads; t++) {
+            rmi[t] = (ChatServerInterface) remote.lookup("ChatServer");
+            rmi[t].registerClient("rmi" + t, exported(new StubClient("rmi" + t)));
+            nioClients[t] = new NioServerConnection("127.0.0.1", nio.getPort());
+            nioClients[t].registerClient("nio" + t, new StubClient("nio" + t));
+        }
+        
+        for (int threads : threadCounts) {
+            BenchmarkHarness.report("== " + threads + " hilos ==");
+            measure(harness, "heartbeat", threads, rmi, nioClients,
+                    (client, user) -> client.heartbeat(user));
+            measure(harness, "broadcastMessage", threads, rmi, nioClients,
+                    (client, user) -> {
+                        client.broadcastMessage(user, "hola a todos");
+                        return null;
+                    });
+            // Cada consulta trae de vuelta lo que se acumuló desde la anterior
+            measure(harness, "broadcast+getMessageBatch", threads, rmi, nioClients, (client, user) -> {
+                client.broadcastMessage(user, "hola a todos");
+                return client.getMessageBatch(user);
+            });
+        }
+        
+        int samples = Integer.getInteger("bench.samples", 20000);
+        BenchmarkHarness.report("== Latencia de heartbeat (" + samples + " llamadas, µs) ==");
+        latency("rmi", rmi[0], "rmi0", samples);
+        latency("nio", nioClients[0], "nio0", samples);
+        
+        int polls = Integer.getInteger("bench.polls", 500);
+        BenchmarkHarness.report("== " + polls + " long-polls en espera ==");
+        fanOut("rmi", server, () -> (ChatServerInterface) remote.lookup("ChatServer"), polls);
+        fanOut("nio", server, () -> new NioServerConnection("127.0.0.1", nio.getPort()), polls);
+        
+        System.exit(harness.finish());
+    }
+    
+    @FunctionalInterface
+    private interface Call {
+        Object run(ChatServerInterface client, String user) throws Exception;
+    }
+    
+    @FunctionalInterface
+    private interface Connector {
+        ChatServerInterface connect() throws Exception;
+    }
+    
+    private static void measure(BenchmarkHarness harness, String name, int threads,
+                                ChatServerInterface[] rmi, ChatServerInterface[] nio, Call call) throws Exception {
+        harness.measure(name + "/rmi", threads, t -> call.run(rmi[t], "rmi" + t));
+        harness.measure(name + "/nio", threads, t -> call.run(nio[t], "nio" + t));
+        // Vaciar lo acumulado por los broadcasts antes de la siguiente medición
+        for (int t = 0; t < rmi.length; t++) {
+            rmi[t].getMessageBatch("rmi" + t);
+            nio[t].getMessageBatch("nio" + t);
+        }
+    }
+    
+    private static void latency(String transport, ChatServerInterface client, String user, int samples)
+            throws Exception {
+        FixedHistogram histogram = new FixedHistogram();
+        for (int i = 0; i < samples; i++) {
+            long start = System.nanoTime();
+            client.heartbeat(user);
+            histogram.record((System.nanoTime() - start) / 1000);
+        }
+        BenchmarkHarness.report(String.format("%-4s p50 %,7d   p99 %,7d   p999 %,7d", transport,
+                histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9)));
+    }
+    
+    /**
+     * Deja a 'polls' usuarios esperando en fetchMessages, cuenta los hilos del
+     * servidor y mide cuánto tarda un broadcast en llegar a todos
+     */
+    private static void fanOut(String transport, ChatServer server, Connector connector, int polls) throws Exception {
+        List<ChatServerInterface> clients = new ArrayList<>();
+        for (int i = 0; i < polls; i++) {
+            ChatServerInterface client = connector.connect();
+            StubClient stub = new StubClient(transport + "-poll" + i);
+            client.registerClient(transport + "-poll" + i, "rmi".equals(transport) ? exported(stub) : stub);
+            clients.add(client);
+        }
+        // Descartar los avisos de conexión de los demás para esperar solo el broadcast
+        for (int i = 0; i < polls; i++) {
+            clients.get(i).getMessageBatch(transport + "-poll" + i);
+        }
+        
+        CountDownLatch parked = new CountDownLatch(polls);
+        CountDownLatch received = new CountDownLatch(polls);
+        long[] arrivals = new long[polls];
+        for (int i = 0; i < polls; i++) {
+            int index = i;
+            Thread poller = new Thread(() -> {
+                try {
+                    String user = transport + "-poll" + index;
+                    parked.countDown();
+                    MessageBatch batch;
+                    do {
+                        batch = clients.get(index).fetchMessages(user, -1, 20000, 100);
+                    } while (batch.isEmpty());
+                    arrivals[index] = System.nanoTime();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    received.countDown();
+                }
+            }, "bench-poll-" + i);
+            poller.setDaemon(true);
+            poller.start();
+        }
+        parked.await();
+        // Dar tiempo a que todas las consultas lleguen al servidor
+        Thread.sleep(1000);
+        int threadsWaiting = serverThreads(transport);
+        
+        long sent = System.nanoTime();
+        server.broadcastMessage(transport + "-poll0", "despierten");
+        received.await();
+        long last = 0;
+        FixedHistogram delays = new FixedHistogram();
+        for (long arrival : arrivals) {
+            delays.record((arrival - sent) / 1000);
+            last = Math.max(last, arrival - sent);
+        }
+        BenchmarkHarness.report(String.format("%-4s hilos del servidor %,5d   entrega p50 %,7d µs   última %,7d µs",
+                transport, threadsWaiting, delays.percentile(50), last / 1000));
+        
+        for (int i = 0; i < polls; i++) {
+            clients.get(i).unregisterClient(transport + "-poll" + i);
+            if (clients.get(i) instanceof NioServerConnection) {
+                ((NioServerConnection) clients.get(i)).close();
+            }
+        }
+    }
+    
+    // Hilos del servidor de cada transporte (RMI: uno por conexión; NIO: selector y trabajadores)
+    private static int serverThreads(String transport) {
+        int count = 0;
+        for (ThreadInfo info : ManagementFactory.getThreadMXBean().dumpAllThreads(false, false)) {
+            String name = info.getThreadName();
+            boolean server = "rmi".equals(transport)
+                    ? name.startsWith("RMI TCP Connection")
+                    : name.startsWith("chat-nio-selector") || name.startsWith("chat-nio-worker");
+            if (server) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    // Por RMI el servidor necesita un stub del callback, no el objeto
+    private static ChatClientInterface exported(StubClient stub) throws Exception {
+        return (ChatClientInterface) UnicastRemoteObject.exportObject(stub, 0);
+    }
+    
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+    
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] numbers = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            numbers[i] = Integer.parseInt(parts[i].trim());
+        }
+        return numbers;
+    }
+}
@@ -5,11 +5,11 @@ import java.awt.event.*;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.List;
-import java.util.Map;
 import java.util.ArrayList;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cliente de chat con interfaz gráfica moderna
@@ -28,9 +28,43 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
     private static final Color WARNING_COLOR = new Color(245, 158, 11);     // Amarillo
     private static final Color ERROR_COLOR = new Color(239, 68, 68);        // Rojo
     
+    // Parámetros de la consulta long-poll
+    private static final long LONG_POLL_WAIT_MS = 25000;
+    private static final int LONG_POLL_BATCH = 500;
+    
+    // Mensajes conservados en el historial del chat (los más antiguos se descartan)
+    private static final int CHAT_HISTORY_MAX = Integer.getInteger("chat.history.max", 1000);
+    
+    // Vista en lista: solo dibuja las filas visibles, en texto plano
+    private static final boolean CHAT_LIST_VIEW = Boolean.getBoolean("chat.view.list");
+    
+    // Mensajes directos cliente a cliente (-Dchat.p2p=true; el servidor hace de relevo si el otro no responde)
+    // Desactivado por defecto: quien recibe no puede verificar el remitente de una llamada P2P
+    private static final boolean P2P_ENABLED = Boolean.getBoolean("chat.p2p");
+    private static final long PEER_CACHE_TTL_MS = Long.getLong("chat.p2p.ttl", 60000L);
+    private static final long PEER_TIMEOUT_MS = Long.getLong("chat.p2p.timeout", 2000L);
+    
+    // Redirecciones seguidas a otro nodo del cluster antes de desistir
+    private static final int MAX_REDIRECTS = 3;
+    
+    // Transportes disponibles (el de la ventana de conexión se elige por defecto con -Dchat.transport)
+    private static final String TRANSPORT_RMI = "RMI";
+    private static final String TRANSPORT_NIO = "NIO";
+    
+    // Bandeja de salida: espera para juntar mensajes en un lote y máximo por lote
+    private static final long SEND_LINGER_MS = Long.getLong("chat.send.linger", 5L);
+    private static final int SEND_BATCH = Integer.getInteger("chat.send.batch", 100);
+    
+    // Pedir al servidor los lotes grandes comprimidos (-Dchat.compress=false para no pedirlo)
+    private static final boolean COMPRESS_BATCHES = Boolean.parseBoolean(System.getProperty("chat.compress", "true"));
+    
+    // Intervalo del heartbeat que renueva el lease en el servidor (menor que el lease, 45 s por defecto)
+    private static final int HEARTBEAT_MS = Integer.getInteger("chat.heartbeat.ms", 10000);
+    
     // Componentes de la GUI
     private JFrame frame;
     private JTextPane chatArea;
+    private ChatRenderer chatRenderer;
     private JTextField messageField;
     private JList<String> userList;
     private DefaultListModel<String> userListModel;
@@ -41,16 +75,56 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
     
     // Variables del cliente
     private String username;
-    private ChatServerInterface server;
-    private String serverIP;
-    private int serverPort;
+    private volatile ChatServerInterface server;
+    private volatile MessageOutbox outbox; // Envía los mensajes del usuario en lotes (sendBatch)
+    private volatile String serverIP;
+    private volatile int serverPort;
+    private final boolean nioTransport; // true si se conecta por el transporte NIO en vez de RMI
     private String selectedUserForMessage = null; // Usuario seleccionado para mensajes directos
+    private volatile boolean pushDelivery = false; // true si el servidor entrega por callbacks
+    
+    // Lista de usuarios: versión recibida del servidor y usuarios conectados (incluido este)
+    private volatile long presenceEpoch = 0;
+    private volatile long presenceVersion = -1;
+    private final Set<String> onlineUsers = new HashSet<>();
+    
+    // Salas a las que se unió este cliente (solo en el EDT; se recuperan al reconectar)
+    private final Set<String> joinedRooms = new HashSet<>();
+    
+    // true mientras se vuelve a registrar tras vencer el lease (solo en el EDT)
+    private boolean reconnecting = false;
+    
+    // Llamadas al servidor fuera del EDT
+    private final ClientIO io = new ClientIO();
+    private final ClientIO.CoalescedCall<PresenceUpdate> userListRefresh;
+    private final ClientIO.CoalescedCall<MessageBatch> messagePoll;
+    private final ClientIO.CoalescedCall<Boolean> heartbeat;
+    
+    // Referencias de los otros clientes para mensajes directos
+    private final PeerDirectory peers = new PeerDirectory(name -> server.getClientReference(name), PEER_CACHE_TTL_MS);
     
     public ChatClientGUI(String username, String serverIP, int serverPort) throws RemoteException {
+        this(username, serverIP, serverPort, false);
+    }
+    
+    /**
+     * @param nioTransport true para conectarse al puerto NIO del servidor (-Dchat.nio.port)
+     */
+    public ChatClientGUI(String username, String serverIP, int serverPort, boolean nioTransport)
+            throws RemoteException {
         super(0);
         this.username = username;
         this.serverIP = serverIP;
         this.serverPort = serverPort;
+        this.nioTransport = nioTransport;
+        
+        // Consultas que se combinan si el servidor tarda más que el intervalo
+        this.userListRefresh = io.coalesced(() -> server.getPresenceChanges(presenceEpoch, presenceVersion), this::applyPresence,
+                e -> System.err.println("Error al actualizar lista: " + e.getMessage()));
+        this.messagePoll = io.coalesced(() -> server.getMessageBatch(username), this::displayBatch,
+                e -> System.err.println("Error al obtener mensajes: " + e.getMessage()));
+        this.heartbeat = io.coalesced(() -> server.heartbeat(username), this::onHeartbeat,
+                e -> System.err.println("Error en heartbeat: " + e.getMessage()));
         
         // Configurar Look and Feel
         setLookAndFeel();
@@ -131,14 +205,29 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
         chatTitle.setBorder(new EmptyBorder(15, 20, 10, 20));
         
         // Área de chat moderna
-        chatArea = new JTextPane();
-        chatArea.setEditable(false);
-        chatArea.setFont(new Font("Segoe UI", Font.PLAIN, 13));
-        chatArea.setBackground(BACKGROUND_COLOR);
-        chatArea.setBorder(new EmptyBorder(15, 15, 15, 15));
-        chatArea.setContentType("text/html");
-        
-        JScrollPane chatScroll = new JScrollPane(chatArea);
+        ChatHistory history = new ChatHistory(CHAT_HISTORY_MAX);
+        JComponent chatView;
+        if (CHAT_LIST_VIEW) {
+            JList<ChatHistory.Entry> chatList = new JList<>();
+            chatList.setBackground(BACKGROUND_COLOR);
+            chatList.setBorder(new EmptyBorder(15, 15, 15, 15));
+            // Alto y ancho fijos: la lista no mide todas las filas en cada cambio
+            chatList.setFixedCellHeight(30);
+            chatList.setFixedCellWidth(1);
+            chatRenderer = new ChatRenderer(history, chatList);
+            chatView = chatList;
+        } else {
+            chatArea = new JTextPane();
+            chatArea.setEditable(false);
+            chatArea.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+            chatArea.setBackground(BACKGROUND_COLOR);
+            chatArea.setBorder(new EmptyBorder(15, 15, 15, 15));
+            chatArea.setContentType("text/html");
+            chatRenderer = new ChatRenderer(history, chatArea);
+            chatView = chatArea;
+        }
+        
+        JScrollPane chatScroll = new JScrollPane(chatView);
         chatScroll.setBorder(null);
         chatScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         chatScroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
@@ -303,54 +392,178 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
     }
     
     private void connectToServer() {
+        appendToChat("Conectando al servidor " + serverIP + ":" + serverPort
+                + (nioTransport ? " (NIO)" : "") + "...", "system");
+        
+        // Búsqueda, registro y modo de entrega fuera del EDT
+        io.submit(() -> {
+            ChatServerInterface remote = nioTransport
+                    ? new NioServerConnection(serverIP, serverPort)
+                    : (ChatServerInterface) Naming.lookup("//" + serverIP + ":" + serverPort + "/ChatServer");
+            // En un cluster el servidor indica el nodo que corresponde al usuario
+            for (int redirects = 0; ; redirects++) {
+                try {
+                    if (!remote.registerClient(username, this)) {
+                        return null;
+                    }
+                    break;
+                } catch (RedirectException e) {
+                    if (redirects >= MAX_REDIRECTS) {
+                        throw e;
+                    }
+                    if (remote instanceof NioServerConnection) {
+                        ((NioServerConnection) remote).close();
+                    }
+                    serverIP = e.getHost();
+                    if (remote instanceof NioServerConnection && e.getNioPort() > 0) {
+                        serverPort = e.getNioPort();
+                        appendToChat("Redirigiendo al nodo " + serverIP + ":" + serverPort + " (NIO)...", "system");
+                        remote = new NioServerConnection(serverIP, serverPort);
+                    } else {
+                        // Sin puerto NIO anunciado por el nodo solo queda su registro RMI
+                        if (remote instanceof NioServerConnection) {
+                            appendToChat("El nodo " + serverIP + " no anuncia transporte NIO: se sigue por RMI",
+                                    "system");
+                        }
+                        serverPort = e.getPort();
+                        appendToChat("Redirigiendo al nodo " + serverIP + ":" + serverPort + "...", "system");
+                        remote = (ChatServerInterface) Naming.lookup("//" + serverIP + ":" + serverPort + "/ChatServer");
+                    }
+                }
+            }
+            // La bandeja existe antes de publicar el servidor: quien vea server ya puede encolar
+            outbox = new MessageOutbox(remote, username, SEND_LINGER_MS, SEND_BATCH);
+            server = remote;
+            negotiateCompression(remote);
+            String deliveryMode = remote.getDeliveryMode();
+            pushDelivery = ChatServerInterface.DELIVERY_PUSH.equals(deliveryMode);
+            return deliveryMode;
+        }, this::onConnected, this::onConnectionError);
+    }
+    
+    /**
+     * Acuerda con el servidor la compresión de los lotes (en el hilo de E/S)
+     * Si falla, los lotes siguen llegando sin comprimir
+     */
+    private void negotiateCompression(ChatServerInterface remote) {
+        if (!COMPRESS_BATCHES) {
+            return;
+        }
         try {
-            appendToChat("Conectando al servidor " + serverIP + ":" + serverPort + "...", "system");
-            
-            String url = "//" + serverIP + ":" + serverPort + "/ChatServer";
-            server = (ChatServerInterface) Naming.lookup(url);
-            
-            boolean registered = server.registerClient(username, this);
+            remote.negotiateCompression(username, BatchCompression.supportedCodecs());
+        } catch (RemoteException e) {
+            System.err.println("No se pudo acordar la compresión de mensajes: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Resultado del registro (en el EDT); null si el nombre ya estaba en uso
+     */
+    private void onConnected(String deliveryMode) {
+        if (deliveryMode == null) {
+            statusLabel.setText("Error: Nombre en uso");
+            statusLabel.setForeground(ERROR_COLOR);
             
-            if (registered) {
-                statusLabel.setText("Conectado como: " + username);
-                statusLabel.setForeground(SUCCESS_COLOR);
-                
-                appendToChat("Conectado exitosamente como: " + username, "success");
-                appendToChat("Los mensajes de broadcast llegan a todos los usuarios", "info");
-                appendToChat("Selecciona un usuario para mensajes directos", "info");
-                
+            JOptionPane.showMessageDialog(frame, 
+                "El nombre de usuario ya está en uso",
+                "Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+            return;
+        }
+        
+        statusLabel.setText("Conectado como: " + username);
+        statusLabel.setForeground(SUCCESS_COLOR);
+        
+        appendToChat("Conectado exitosamente como: " + username, "success");
+        appendToChat("Los mensajes de broadcast llegan a todos los usuarios", "info");
+        appendToChat("Selecciona un usuario para mensajes directos", "info");
+        appendToChat("Salas: /join sala, /leave sala, /members sala y #sala mensaje para escribir en ella", "info");
+        
+        updateUserList();
+        
+        // Heartbeat en todos los modos: en push no hay consultas que renueven el lease
+        new Timer(HEARTBEAT_MS, e -> heartbeat.request()).start();
+        
+        if (pushDelivery) {
+            // Los mensajes y cambios de usuarios llegan por callbacks
+            appendToChat("Entrega de mensajes en tiempo real activada", "info");
+        } else if (ChatServerInterface.DELIVERY_LONG_POLL.equals(deliveryMode)) {
+            // Una sola consulta abierta que el servidor responde al llegar mensajes
+            startLongPolling();
+        } else {
+            // Modo de respaldo: consultar al servidor periódicamente (fuera del EDT)
+            Timer pollingTimer = new Timer(2000, e -> {
                 updateUserList();
-                
-                Timer pollingTimer = new Timer(2000, e -> {
-                    updateUserList();
-                    fetchPendingMessages();
-                });
-                pollingTimer.start();
+                fetchPendingMessages();
+            });
+            pollingTimer.start();
+        }
+    }
+    
+    /**
+     * Respuesta del heartbeat (en el EDT); false si el servidor venció el lease
+     */
+    private void onHeartbeat(Boolean registered) {
+        if (registered || reconnecting) {
+            return;
+        }
+        reconnecting = true;
+        appendToChat("El servidor cerró la sesión por inactividad, reconectando...", "warning");
+        io.submit(() -> {
+            boolean ok = server.registerClient(username, this);
+            if (ok) {
+                // La compresión acordada se perdió con la sesión anterior
+                negotiateCompression(server);
+            }
+            return ok;
+        }, ok -> {
+            reconnecting = false;
+            if (ok) {
+                // Lo recibido mientras tanto llega como mensajes guardados
+                appendToChat("Reconectado como: " + username, "success");
+                peers.clear();
+                updateUserList();
+                rejoinRooms();
             } else {
-                statusLabel.setText("Error: Nombre en uso");
-                statusLabel.setForeground(ERROR_COLOR);
-                
-                JOptionPane.showMessageDialog(frame, 
-                    "El nombre de usuario ya está en uso",
-                    "Error", JOptionPane.ERROR_MESSAGE);
-                System.exit(1);
+                appendToChat("No se pudo reconectar: el nombre está en uso", "error");
             }
-            
-        } catch (Exception e) {
-            statusLabel.setText("Error de conexión");
-            statusLabel.setForeground(ERROR_COLOR);
-            
-            appendToChat("Error al conectar: " + e.getMessage(), "error");
-            JOptionPane.showMessageDialog(frame,
-                "No se pudo conectar al servidor\n" + e.getMessage(),
-                "Error de Conexión", JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
+        }, e -> {
+            reconnecting = false;
+            appendToChat("No se pudo reconectar: " + e.getMessage(), "error");
+        });
+    }
+    
+    /**
+     * Vuelve a unirse a las salas tras un nuevo registro (la membresía dura lo que la sesión)
+     */
+    private void rejoinRooms() {
+        for (String room : new ArrayList<>(joinedRooms)) {
+            io.submit(() -> server.joinRoom(username, room), ignored -> { },
+                    e -> appendToChat("No se pudo volver a la sala #" + room + ": " + e.getMessage(), "error"));
         }
     }
     
+    private void onConnectionError(Throwable e) {
+        statusLabel.setText("Error de conexión");
+        statusLabel.setForeground(ERROR_COLOR);
+        
+        appendToChat("Error al conectar: " + e.getMessage(), "error");
+        JOptionPane.showMessageDialog(frame,
+            "No se pudo conectar al servidor\n" + e.getMessage(),
+            "Error de Conexión", JOptionPane.ERROR_MESSAGE);
+        System.exit(1);
+    }
+    
     private void sendBroadcastMessage() {
         String message = messageField.getText().trim();
-        if (message.isEmpty()) return;
+        if (message.isEmpty() || server == null) return;
+        
+        // Comandos de salas
+        if (message.startsWith("/") || message.startsWith("#")) {
+            if (handleRoomCommand(message)) {
+                return;
+            }
+        }
         
         // Verificar si hay un usuario seleccionado para envío directo
         String selectedUser = getSelectedUser();
@@ -360,11 +573,75 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
             return;
         }
         
-        try {
-            server.broadcastMessage(username, message);
+        messageField.setText("");
+        queueSend(OutboundMessage.broadcast(message), () -> { }, "Error al enviar mensaje: ", message);
+    }
+    
+    /**
+     * Encola un mensaje en la bandeja de salida (en el EDT)
+     * Los mensajes escritos o pegados seguidos salen juntos en una llamada
+     * @param onSent Se invoca en el EDT si el servidor aceptó el mensaje
+     */
+    private void queueSend(OutboundMessage outbound, Runnable onSent, String errorPrefix, String text) {
+        MessageOutbox current = outbox;
+        if (current == null) {
+            sendFailed(errorPrefix, new IllegalStateException("todavía no hay conexión con el servidor"), text);
+            return;
+        }
+        current.submit(outbound).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            Throwable failure = error != null ? error : result.toException();
+            if (failure != null) {
+                sendFailed(errorPrefix, failure, text);
+            } else {
+                onSent.run();
+            }
+        }));
+    }
+    
+    /**
+     * Interpreta /join, /leave, /members y #sala mensaje (en el EDT)
+     * @return false si el texto no es un comando de salas (se envía como mensaje)
+     */
+    private boolean handleRoomCommand(String text) {
+        String[] parts = text.split("\\s+", 2);
+        String command = parts[0];
+        String argument = parts.length > 1 ? parts[1].trim() : "";
+        
+        if (command.startsWith("#") && command.length() > 1 && !argument.isEmpty()) {
+            String room = command.substring(1);
             messageField.setText("");
-        } catch (RemoteException e) {
-            appendToChat("Error al enviar mensaje: " + e.getMessage(), "error");
+            queueSend(OutboundMessage.room(room, argument), () -> { },
+                    "Error al enviar a la sala " + room + ": ", text);
+            return true;
+        }
+        if (argument.isEmpty()) {
+            return false;
+        }
+        switch (command) {
+            case "/join":
+                messageField.setText("");
+                io.submit(() -> server.joinRoom(username, argument), joined -> {
+                    joinedRooms.add(argument);
+                    appendToChat(joined ? "Te uniste a la sala #" + argument : "Ya eras miembro de #" + argument, "success");
+                }, e -> appendToChat("No se pudo unir a la sala: " + e.getMessage(), "error"));
+                return true;
+            case "/leave":
+                messageField.setText("");
+                joinedRooms.remove(argument);
+                io.submit(() -> {
+                    server.leaveRoom(username, argument);
+                    return null;
+                }, ignored -> appendToChat("Saliste de la sala #" + argument, "system"),
+                        e -> appendToChat("No se pudo salir de la sala: " + e.getMessage(), "error"));
+                return true;
+            case "/members":
+                messageField.setText("");
+                io.submit(() -> server.getRoomMembers(argument), members -> appendToChat("#" + argument + ": "
+                        + (members.isEmpty() ? "(sala vacía)" : String.join(", ", members)), "system"),
+                        e -> appendToChat("No se pudo consultar la sala: " + e.getMessage(), "error"));
+                return true;
+            default:
+                return false;
         }
     }
     
@@ -396,13 +673,79 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
     }
     
     private void sendDirectMessageToUser(String selectedUser, String message) {
-        try {
-            server.sendDirectMessage(username, selectedUser, message);
-            messageField.setText("");
-            // Deseleccionar usuario después del envío
-            clearUserSelection();
-        } catch (RemoteException e) {
-            appendToChat("Error al enviar mensaje directo: " + e.getMessage(), "error");
+        messageField.setText("");
+        if (!P2P_ENABLED || server instanceof NioServerConnection) {
+            // Sin P2P (por NIO no hay referencias de otros clientes) va en lote con los demás envíos
+            relayDirect(selectedUser, message);
+            return;
+        }
+        // Primero al cliente destino, en su propio hilo y con plazo; si no responde, por el servidor
+        io.submitPeer(() -> deliverToPeer(selectedUser, message), PEER_TIMEOUT_MS)
+                .whenComplete((delivered, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error == null && delivered) {
+                        directSent(selectedUser, message, true);
+                        return;
+                    }
+                    if (error != null) {
+                        // No alcanzable (NAT, firewall, caído o sin respuesta a tiempo)
+                        peers.markUnreachable(selectedUser);
+                    }
+                    relayDirect(selectedUser, message);
+                }));
+    }
+    
+    /**
+     * Envía un mensaje directo por el servidor, en lote con los demás envíos (en el EDT)
+     */
+    private void relayDirect(String selectedUser, String message) {
+        queueSend(OutboundMessage.direct(selectedUser, message), () -> directSent(selectedUser, message, false),
+                "Error al enviar mensaje directo: ", message);
+    }
+    
+    /**
+     * Mensaje directo enviado (en el EDT)
+     */
+    private void directSent(String selectedUser, String message, boolean deliveredToPeer) {
+        if (deliveredToPeer || pushDelivery) {
+            // El servidor no devuelve confirmación al remitente (P2P o modo push)
+            appendToChat("[Tú → " + selectedUser + " (Directo)] " + message, "own");
+        }
+        // Deseleccionar usuario después del envío
+        clearUserSelection();
+    }
+    
+    /**
+     * Muestra por qué no se envió un mensaje y lo devuelve al campo de texto (en el EDT)
+     */
+    private void sendFailed(String prefix, Throwable e, String message) {
+        if (e instanceof RateLimitedException) {
+            long seconds = Math.max(1, (((RateLimitedException) e).getRetryAfterMillis() + 999) / 1000);
+            appendToChat("Estás enviando mensajes muy rápido; espera " + seconds + " s", "warning");
+        } else {
+            appendToChat(prefix + e.getMessage(), "error");
+        }
+        restoreUnsentMessage(message);
+    }
+    
+    /**
+     * Entrega un mensaje directo al cliente destino sin pasar por el servidor (en el hilo P2P)
+     * @return false si el servidor no tiene referencia del usuario (NIO, otro nodo o ya salió)
+     */
+    private boolean deliverToPeer(String to, String message) throws RemoteException {
+        ChatClientInterface peer = peers.get(to);
+        if (peer == null) {
+            return false;
+        }
+        peer.receiveMessage(username, message, true);
+        return true;
+    }
+    
+    /**
+     * Devuelve al campo un mensaje que no se pudo enviar (si no se escribió otro)
+     */
+    private void restoreUnsentMessage(String message) {
+        if (messageField.getText().isEmpty()) {
+            messageField.setText(message);
         }
     }
     
@@ -425,114 +768,142 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
     }
     
     private void fetchPendingMessages() {
-        try {
-            Map<String, List<String>> pending = server.getPendingMessages(username);
-            List<String> messages = pending.getOrDefault("messages", new ArrayList<>());
-            
-            for (String msg : messages) {
-                if (msg.contains("→ Tú (Directo)")) {
-                    appendToChat(msg, "direct");
-                } else if (msg.startsWith("[" + username + "]")) {
-                    appendToChat(msg, "own");
-                } else {
-                    appendToChat(msg, "broadcast");
-                }
-            }
-        } catch (RemoteException e) {
-            System.err.println("Error al obtener mensajes: " + e.getMessage());
-        }
+        messagePoll.request();
     }
     
-    private void updateUserList() {
-        try {
-            List<String> users = server.getOnlineUsers();
-            SwingUtilities.invokeLater(() -> {
-                // Guardar la selección actual
-                String selectedUser = userList.getSelectedValue();
-                
-                userListModel.clear();
-                for (String user : users) {
-                    if (!user.equals(username)) {
-                        userListModel.addElement(user);
-                    }
-                }
-                
-                // Restaurar la selección si el usuario sigue conectado
-                if (selectedUser != null && userListModel.contains(selectedUser)) {
-                    userList.setSelectedValue(selectedUser, true);
-                    selectedUserForMessage = selectedUser;
-                } else if (selectedUserForMessage != null && userListModel.contains(selectedUserForMessage)) {
-                    // Usar la variable de respaldo si existe
-                    userList.setSelectedValue(selectedUserForMessage, true);
-                }
-                
-                userCountLabel.setText(users.size() + " usuarios conectados");
-            });
-        } catch (RemoteException e) {
-            System.err.println("Error al actualizar lista: " + e.getMessage());
+    private void displayBatch(MessageBatch batch) {
+        for (ChatMessage msg : batch.getMessages()) {
+            displayMessage(msg);
         }
     }
     
-    private void appendToChat(String text, String type) {
-        SwingUtilities.invokeLater(() -> {
-            String time = LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm"));
-            String color = getColorForType(type);
-            String icon = getIconForType(type);
-            
-            String html = String.format(
-                "<div style='margin: 8px 0; padding: 8px 12px; background-color: %s; border-radius: 8px; font-family: Segoe UI;'>" +
-                "<span style='color: #64748b; font-size: 11px;'>%s</span> " +
-                "<span style='color: %s;'>%s %s</span>" +
-                "</div>",
-                getBackgroundForType(type), time, color, icon, text
-            );
-            
-            try {
-                javax.swing.text.html.HTMLDocument doc = (javax.swing.text.html.HTMLDocument) chatArea.getDocument();
-                javax.swing.text.html.HTMLEditorKit kit = (javax.swing.text.html.HTMLEditorKit) chatArea.getEditorKit();
-                kit.insertHTML(doc, doc.getLength(), html, 0, 0, null);
-                chatArea.setCaretPosition(chatArea.getDocument().getLength());
-            } catch (Exception e) {
-                // Fallback a texto plano
-                chatArea.setText(chatArea.getText() + "[" + time + "] " + text + "\n");
+    private void startLongPolling() {
+        Thread poller = new Thread(() -> {
+            long lastSeq = -1;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    MessageBatch batch = server.fetchMessages(username, lastSeq, LONG_POLL_WAIT_MS, LONG_POLL_BATCH);
+                    boolean presenceChanged = false;
+                    for (ChatMessage msg : batch.getMessages()) {
+                        displayMessage(msg);
+                        presenceChanged |= msg.getType() == ChatMessage.Type.USER_JOINED
+                                || msg.getType() == ChatMessage.Type.USER_LEFT;
+                    }
+                    if (!batch.isEmpty()) {
+                        lastSeq = batch.getLastSequence();
+                    } else if (!server.heartbeat(username)) {
+                        // Sin sesión el servidor responde al instante: esperar a que el heartbeat reconecte
+                        heartbeat.request();
+                        lastSeq = -1;
+                        Thread.sleep(1000);
+                    }
+                    // Los cambios de usuarios llegan en el mismo flujo de mensajes
+                    if (presenceChanged) {
+                        updateUserList();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RemoteException e) {
+                    System.err.println("Error al obtener mensajes: " + e.getMessage());
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
             }
-        });
+        }, "chat-longpoll");
+        poller.setDaemon(true);
+        poller.start();
     }
     
-    private String getColorForType(String type) {
-        switch (type) {
-            case "success": return "#22c55e";
-            case "error": return "#ef4444";
-            case "warning": return "#f59e0b";
-            case "direct": return "#8b5cf6";
-            case "own": return "#3b82f6";
-            case "system": return "#64748b";
-            default: return "#374151";
+    private void displayMessage(ChatMessage msg) {
+        String from = msg.getSenderId();
+        switch (msg.getType()) {
+            case DIRECT:
+                appendToChat("[" + from + " → Tú (Directo)] " + msg.getText(), "direct");
+                break;
+            case DIRECT_SENT:
+                appendToChat("[Tú → " + msg.getRecipientId() + " (Directo)] " + msg.getText(), "own");
+                break;
+            case USER_JOINED:
+                peers.invalidate(from);
+                appendToChat(from + " se ha conectado", "success");
+                break;
+            case USER_LEFT:
+                peers.invalidate(from);
+                appendToChat(from + " se ha desconectado", "warning");
+                break;
+            case ROOM:
+                appendRoomMessage(msg.getRecipientId(), from, msg.getText());
+                break;
+            default:
+                appendToChat("[" + from + "] " + msg.getText(), from.equals(username) ? "own" : "broadcast");
+                break;
         }
     }
     
-    private String getBackgroundForType(String type) {
-        switch (type) {
-            case "success": return "#f0fdf4";
-            case "error": return "#fef2f2";
-            case "warning": return "#fffbeb";
-            case "direct": return "#faf5ff";
-            case "own": return "#eff6ff";
-            case "system": return "#f8fafc";
-            default: return "#ffffff";
-        }
+    /**
+     * Pide al servidor los cambios en la lista de usuarios (fuera del EDT, combinando pedidos)
+     */
+    private void updateUserList() {
+        userListRefresh.request();
     }
     
-    private String getIconForType(String type) {
-        switch (type) {
-            case "success": return "[OK]";
-            case "error": return "[ERROR]";
-            case "warning": return "[WARN]";
-            case "direct": return "[DIRECTO]";
-            case "own": return "[ENVIADO]";
-            case "system": return "[SISTEMA]";
-            default: return "[CHAT]";
+    /**
+     * Aplica los cambios de usuarios a la lista (en el EDT)
+     * Solo toca las filas que cambiaron; la lista completa llega solo si el
+     * cliente estaba muy atrasado o el servidor se reinició
+     */
+    private void applyPresence(PresenceUpdate update) {
+        // Respuesta vieja (llegó después de una más nueva)
+        if (!update.isSnapshot() && update.getEpoch() == presenceEpoch
+                && update.getVersion() < presenceVersion) {
+            return;
+        }
+        presenceEpoch = update.getEpoch();
+        presenceVersion = update.getVersion();
+        if (update.isEmpty()) {
+            return;
+        }
+        
+        // Guardar la selección actual
+        String selectedUser = userList.getSelectedValue();
+        
+        if (update.isSnapshot()) {
+            peers.clear();
+            onlineUsers.clear();
+            userListModel.clear();
+        }
+        for (String user : update.getRemoved()) {
+            if (onlineUsers.remove(user)) {
+                peers.invalidate(user);
+                userListModel.removeElement(user);
+            }
+        }
+        for (String user : update.getAdded()) {
+            if (onlineUsers.add(user) && !user.equals(username)) {
+                userListModel.addElement(user);
+            }
         }
+        
+        // Restaurar la selección si el usuario sigue conectado
+        if (selectedUser != null && onlineUsers.contains(selectedUser)) {
+            userList.setSelectedValue(selectedUser, true);
+            selectedUserForMessage = selectedUser;
+        } else if (selectedUserForMessage != null && onlineUsers.contains(selectedUserForMessage)) {
+            // Usar la variable de respaldo si existe
+            userList.setSelectedValue(selectedUserForMessage, true);
+        }
+        
+        userCountLabel.setText(onlineUsers.size() + " usuarios conectados");
+    }
+    
+    /**
+     * Agrega un mensaje al chat (se dibuja por lotes en el EDT)
+     */
+    private void appendToChat(String text, String type) {
+        chatRenderer.append(text, type);
     }
     
     private void showModernDialog(String message, String title, int type) {
@@ -540,34 +911,50 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
     }
     
     private void disconnect() {
-        try {
-            if (server != null) {
-                server.unregisterClient(username);
-            }
-            appendToChat("Desconectado del servidor", "system");
-        } catch (RemoteException e) {
-            appendToChat("Error al desconectar", "error");
-        } finally {
+        ChatServerInterface current = server;
+        if (current == null) {
             System.exit(0);
+            return;
         }
+        // Desregistrar fuera del EDT sin esperar más de 2 s a un servidor que no responde
+        io.submit(() -> {
+            // Lo que quedó en la bandeja de salida sale antes de desregistrarse
+            MessageOutbox pending = outbox;
+            if (pending != null) {
+                pending.close();
+            }
+            current.unregisterClient(username);
+            return null;
+        }).orTimeout(2, TimeUnit.SECONDS).whenComplete((ignored, e) -> System.exit(0));
     }
     
     // Implementación de ChatClientInterface
     @Override
     public void receiveMessage(String from, String message, boolean isDirect) throws RemoteException {
         String prefix = isDirect ? "[" + from + " → Tú (Directo)] " : "[" + from + "] ";
-        String type = isDirect ? "direct" : "broadcast";
+        String type = isDirect ? "direct" : (from.equals(this.username) ? "own" : "broadcast");
         appendToChat(prefix + message, type);
     }
     
+    @Override
+    public void receiveRoomMessage(String room, String from, String message) throws RemoteException {
+        appendRoomMessage(room, from, message);
+    }
+    
+    private void appendRoomMessage(String room, String from, String message) {
+        appendToChat("[#" + room + "] " + from + ": " + message, from.equals(username) ? "own" : "broadcast");
+    }
+    
     @Override
     public void userJoined(String username) throws RemoteException {
+        peers.invalidate(username);
         appendToChat(username + " se ha conectado", "success");
         updateUserList();
     }
     
     @Override
     public void userLeft(String username) throws RemoteException {
+        peers.invalidate(username);
         appendToChat(username + " se ha desconectado", "warning");
         updateUserList();
     }
@@ -636,7 +1023,7 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
     private static void showConnectionDialog() {
         // Crear ventana de configuración profesional
         JDialog dialog = new JDialog((Frame) null, "Configuración del Chat RMI", true);
-        dialog.setSize(550, 500);
+        dialog.setSize(550, 580);
         dialog.setLocationRelativeTo(null);
         dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
         dialog.setResizable(false);
@@ -681,11 +1068,17 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
         JTextField usernameField = createStyledTextField("", "Ej: Juan123");
         JTextField serverField = createStyledTextField("192.168.100.144", "IP del servidor");
         JTextField portField = createStyledTextField("1099", "Puerto RMI");
+        JComboBox<String> transportBox = new JComboBox<>(new String[] {TRANSPORT_RMI, TRANSPORT_NIO});
+        transportBox.setSelectedItem(System.getProperty("chat.transport", TRANSPORT_RMI).toUpperCase());
+        transportBox.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        transportBox.setBackground(BACKGROUND_COLOR);
+        transportBox.setMaximumSize(new Dimension(Integer.MAX_VALUE, 40));
         
         // Labels estilizados
         JLabel userLabel = createStyledLabel("Nombre de usuario:");
         JLabel serverLabel = createStyledLabel("Dirección IP del servidor:");
         JLabel portLabel = createStyledLabel("Puerto:");
+        JLabel transportLabel = createStyledLabel("Transporte (NIO usa el puerto -Dchat.nio.port del servidor):");
         
         // Agregar componentes verticalmente con espaciado
         formPanel.add(userLabel);
@@ -701,6 +1094,11 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
         formPanel.add(portLabel);
         formPanel.add(Box.createVerticalStrut(8));
         formPanel.add(portField);
+        formPanel.add(Box.createVerticalStrut(20));
+        
+        formPanel.add(transportLabel);
+        formPanel.add(Box.createVerticalStrut(8));
+        formPanel.add(transportBox);
         formPanel.add(Box.createVerticalStrut(30));
         
         // Panel de botones centrado
@@ -749,8 +1147,8 @@ public class ChatClientGUI extends UnicastRemoteObject implements ChatClientInte
                     
                     int port = Integer.parseInt(portStr);
                     dialog.dispose();
-                    new ChatClientGUI(username, serverIP, port);
-                    
+                    new ChatClientGUI(username, serverIP, port, TRANSPORT_NIO.equals(transportBox.getSelectedItem()));
+                
                 } catch (NumberFormatException ex) {
                     showErrorDialog("El puerto debe ser un número válido", "Error de Formato");
                 } catch (Exception ex) {
@@ -0,0 +1,102 @@
+import javax.swing.AbstractListModel;
+import java.util.List;
+
+/**
+ * Historial acotado de mensajes del chat
+ * Buffer circular con capacidad fija: al llenarse, cada mensaje nuevo
+ * reemplaza al más antiguo, así la memoria no crece con la sesión.
+ * Sirve también de modelo para la vista en lista (solo se usa desde el EDT).
+ */
+public class ChatHistory extends AbstractListModel<ChatHistory.Entry> {
+    
+    /**
+     * Mensaje del chat ya recibido
+     */
+    public static final class Entry {
+        private final String time;
+        private final String text;
+        private final String type;
+        
+        public Entry(String time, String text, String type) {
+            this.time = time;
+            this.text = text;
+            this.type = type;
+        }
+        
+        public String getTime() {
+            return time;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        @Override
+        public String toString() {
+            return "[" + time + "] " + text;
+        }
+    }
+    
+    private final Entry[] ring;
+    
+    // Posición del mensaje más antiguo y cantidad guardada
+    private int head;
+    private int size;
+    
+    /**
+     * @param capacity Máximo de mensajes conservados
+     */
+    public ChatHistory(int capacity) {
+        this.ring = new Entry[Math.max(1, capacity)];
+    }
+    
+    public int getCapacity() {
+        return ring.length;
+    }
+    
+    /**
+     * Agrega un lote de mensajes descartando los más antiguos si no caben
+     * @return Cantidad de mensajes antiguos descartados
+     */
+    public int addAll(List<Entry> batch) {
+        int incoming = batch.size();
+        if (incoming == 0) {
+            return 0;
+        }
+        
+        // Del lote solo pueden quedar los últimos 'capacidad' mensajes
+        int skip = Math.max(0, incoming - ring.length);
+        int removedOld = Math.max(0, size + incoming - skip - ring.length);
+        
+        if (removedOld > 0) {
+            head = (head + removedOld) % ring.length;
+            size -= removedOld;
+            fireIntervalRemoved(this, 0, removedOld - 1);
+        }
+        
+        int first = size;
+        for (int i = skip; i < incoming; i++) {
+            ring[(head + size) % ring.length] = batch.get(i);
+            size++;
+        }
+        fireIntervalAdded(this, first, size - 1);
+        return removedOld + skip;
+    }
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public Entry getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Índice fuera del historial: " + index);
+        }
+        return ring[(head + index) % ring.length];
+    }
+}
@@ -0,0 +1,243 @@
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dibuja los mensajes del chat por lotes
+ * Cualquier hilo puede agregar mensajes; se acumulan y una sola tarea en el
+ * EDT los inserta todos juntos en el documento (un insertHTML y un
+ * setCaretPosition por lote en lugar de uno por mensaje). El HTML de cada
+ * tipo de mensaje se arma una sola vez y al agregar solo se concatena.
+ * Los mensajes se guardan en un ChatHistory acotado; en el documento HTML se
+ * quitan los más antiguos al superar la capacidad. Con la vista en lista
+ * (JList) solo se dibujan las filas visibles.
+ */
+public class ChatRenderer {
+    
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+    
+    /**
+     * Plantilla precompilada de un tipo de mensaje: inicio + hora + medio + texto + FIN
+     */
+    private static final class Template {
+        final String start;
+        final String middle;
+        final String icon;
+        final Color background;
+        final Color foreground;
+        
+        Template(String background, String color, String icon) {
+            start = "<div style='margin: 8px 0; padding: 8px 12px; background-color: " + background
+                    + "; border-radius: 8px; font-family: Segoe UI;'>"
+                    + "<span style='color: #64748b; font-size: 11px;'>";
+            middle = "</span> <span style='color: " + color + ";'>" + icon + " ";
+            this.icon = icon;
+            this.background = Color.decode(background);
+            this.foreground = Color.decode(color);
+        }
+    }
+    
+    private static final String END = "</span></div>";
+    
+    private static final Map<String, Template> TEMPLATES = new HashMap<>();
+    private static final Template DEFAULT_TEMPLATE = new Template("#ffffff", "#374151", "[CHAT]");
+    
+    static {
+        TEMPLATES.put("success", new Template("#f0fdf4", "#22c55e", "[OK]"));
+        TEMPLATES.put("error", new Template("#fef2f2", "#ef4444", "[ERROR]"));
+        TEMPLATES.put("warning", new Template("#fffbeb", "#f59e0b", "[WARN]"));
+        TEMPLATES.put("direct", new Template("#faf5ff", "#8b5cf6", "[DIRECTO]"));
+        TEMPLATES.put("own", new Template("#eff6ff", "#3b82f6", "[ENVIADO]"));
+        TEMPLATES.put("system", new Template("#f8fafc", "#64748b", "[SISTEMA]"));
+    }
+    
+    private final ChatHistory history;
+    
+    // Vista: documento HTML o lista virtualizada (una de las dos es null)
+    private final JTextPane chatArea;
+    private final JList<ChatHistory.Entry> chatList;
+    
+    // Mensajes presentes en el documento HTML
+    private int renderedCount;
+    
+    // Mensajes agregados desde el último lote dibujado
+    private final ConcurrentLinkedQueue<ChatHistory.Entry> pending = new ConcurrentLinkedQueue<>();
+    
+    // true si ya hay una tarea de dibujo pendiente en el EDT
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    
+    // Hora formateada del minuto actual (se recalcula al cambiar de minuto)
+    private volatile long cachedMinute = -1;
+    private volatile String cachedTime = "";
+    
+    /**
+     * Dibuja en un documento HTML, conservando a lo sumo la capacidad del historial
+     */
+    public ChatRenderer(ChatHistory history, JTextPane chatArea) {
+        this.history = history;
+        this.chatArea = chatArea;
+        this.chatList = null;
+    }
+    
+    /**
+     * Dibuja en una lista que usa el historial como modelo
+     */
+    public ChatRenderer(ChatHistory history, JList<ChatHistory.Entry> chatList) {
+        this.history = history;
+        this.chatArea = null;
+        this.chatList = chatList;
+        chatList.setModel(history);
+        chatList.setCellRenderer(new EntryCellRenderer());
+    }
+    
+    /**
+     * Agrega un mensaje; se dibuja en el próximo lote (desde cualquier hilo)
+     * @param type Tipo visual: success, error, warning, direct, own, system o broadcast
+     */
+    public void append(String text, String type) {
+        pending.add(new ChatHistory.Entry(currentTime(), text, type));
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+    
+    private String currentTime() {
+        long minute = System.currentTimeMillis() / 60_000L;
+        if (minute != cachedMinute) {
+            cachedTime = LocalTime.now().format(TIME_FORMAT);
+            cachedMinute = minute;
+        }
+        return cachedTime;
+    }
+    
+    /**
+     * Dibuja todos los mensajes pendientes con una sola inserción (en el EDT)
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+        
+        List<ChatHistory.Entry> batch = new ArrayList<>();
+        ChatHistory.Entry entry;
+        while ((entry = pending.poll()) != null) {
+            batch.add(entry);
+        }
+        // Lo que no cabe en el historial tampoco se dibuja
+        if (batch.size() > history.getCapacity()) {
+            batch = batch.subList(batch.size() - history.getCapacity(), batch.size());
+        }
+        history.addAll(batch);
+        
+        if (chatList != null) {
+            chatList.ensureIndexIsVisible(history.getSize() - 1);
+        } else {
+            renderHtml(batch);
+        }
+    }
+    
+    private void renderHtml(List<ChatHistory.Entry> batch) {
+        StringBuilder html = new StringBuilder(256);
+        for (ChatHistory.Entry entry : batch) {
+            Template template = TEMPLATES.getOrDefault(entry.getType(), DEFAULT_TEMPLATE);
+            html.append(template.start).append(entry.getTime())
+                .append(template.middle).append(entry.getText()).append(END);
+        }
+        
+        try {
+            HTMLDocument doc = (HTMLDocument) chatArea.getDocument();
+            HTMLEditorKit kit = (HTMLEditorKit) chatArea.getEditorKit();
+            kit.insertHTML(doc, doc.getLength(), html.toString(), 0, 0, null);
+            renderedCount += batch.size();
+            if (renderedCount > history.getCapacity()) {
+                removeOldest(doc, renderedCount - history.getCapacity());
+            }
+            chatArea.setCaretPosition(doc.getLength());
+        } catch (Exception e) {
+            // Fallback a texto plano con el contenido del historial
+            StringBuilder plain = new StringBuilder();
+            for (int i = 0; i < history.getSize(); i++) {
+                plain.append(history.getElementAt(i)).append('\n');
+            }
+            chatArea.setText(plain.toString());
+            renderedCount = 0;
+        }
+    }
+    
+    /**
+     * Quita del documento los bloques de los mensajes más antiguos
+     * Cada mensaje es un div hijo del body; se borra el rango desde el primero
+     * hasta el inicio del primer bloque que se conserva.
+     */
+    private void removeOldest(HTMLDocument doc, int count) throws BadLocationException {
+        Element body = findBody(doc.getDefaultRootElement());
+        if (body == null) {
+            return;
+        }
+        // El último hijo del body es el párrafo vacío del final
+        int removable = Math.min(count, body.getElementCount() - 1);
+        if (removable <= 0) {
+            return;
+        }
+        int start = body.getElement(0).getStartOffset();
+        int end = body.getElement(removable).getStartOffset();
+        doc.remove(start, end - start);
+        renderedCount -= removable;
+    }
+    
+    private static Element findBody(Element root) {
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element child = root.getElement(i);
+            if (HTML.Tag.BODY.toString().equals(child.getName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Fila de la vista en lista: texto plano de una línea con los colores del tipo
+     */
+    private static class EntryCellRenderer extends DefaultListCellRenderer {
+        
+        private final Font font = new Font("Segoe UI", Font.PLAIN, 13);
+        
+        EntryCellRenderer() {
+            setBorder(new EmptyBorder(6, 12, 6, 12));
+        }
+        
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            ChatHistory.Entry entry = (ChatHistory.Entry) value;
+            Template template = TEMPLATES.getOrDefault(entry.getType(), DEFAULT_TEMPLATE);
+            
+            setFont(font);
+            setOpaque(true);
+            setBackground(isSelected ? list.getSelectionBackground() : template.background);
+            setForeground(isSelected ? list.getSelectionForeground() : template.foreground);
+            setText(entry.getTime() + "  " + template.icon + " " + entry.getText());
+            setToolTipText(entry.getText());
+            return this;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Capa de E/S asíncrona del cliente
+ * Todas las llamadas RMI al servidor se hacen fuera del hilo de eventos de Swing (EDT);
+ * los resultados vuelven al EDT solo para actualizar la interfaz.
+ * - Peticiones (conectar, enviar, desconectar): un hilo, en orden de llegada
+ * - Consultas periódicas: otro hilo, combinando las que se solapan
+ * - Mensajes directos a otros clientes (P2P): otro hilo, con plazo por llamada
+ */
+public class ClientIO {
+
+    /**
+     * Llamada al servidor que puede fallar
+     */
+    @FunctionalInterface
+    public interface RemoteCall<T> {
+        T call() throws Exception;
+    }
+
+    private final ExecutorService requests;
+    private final ExecutorService polls;
+
+    // Hilo de llamadas P2P; se reemplaza si una llamada vence su plazo
+    private volatile ExecutorService peerCalls;
+
+    public ClientIO() {
+        requests = Executors.newSingleThreadExecutor(r -> daemon(r, "chat-io"));
+        polls = Executors.newSingleThreadExecutor(r -> daemon(r, "chat-poll"));
+        peerCalls = newPeerExecutor();
+    }
+
+    private static ExecutorService newPeerExecutor() {
+        return Executors.newSingleThreadExecutor(r -> daemon(r, "chat-p2p"));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * Ejecuta una llamada en el hilo de peticiones
+     * @return Futuro con el resultado (se completa fuera del EDT)
+     */
+    public <T> CompletableFuture<T> submit(RemoteCall<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, requests);
+    }
+
+    /**
+     * Ejecuta una llamada en el hilo de peticiones y aplica el resultado en el EDT
+     * @param onSuccess Se invoca en el EDT con el resultado
+     * @param onError Se invoca en el EDT con la causa del error
+     */
+    public <T> void submit(RemoteCall<T> call, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        submit(call).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                onError.accept(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                onSuccess.accept(result);
+            }
+        }));
+    }
+
+    /**
+     * Ejecuta una llamada a otro cliente (P2P) con plazo, fuera del hilo de peticiones
+     * Un par que no responde no demora los envíos al servidor: al vencer el plazo
+     * el futuro falla con TimeoutException, el hilo trabado se abandona y las
+     * llamadas siguientes siguen en uno nuevo
+     * @return Futuro con el resultado (se completa fuera del EDT)
+     */
+    public <T> CompletableFuture<T> submitPeer(RemoteCall<T> call, long timeoutMillis) {
+        ExecutorService executor = peerCalls;
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        return future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, error) -> {
+            if (error instanceof TimeoutException) {
+                replacePeerExecutor(executor);
+            }
+        });
+    }
+
+    /**
+     * Cambia el hilo P2P trabado por uno nuevo que hereda las llamadas en espera
+     */
+    private synchronized void replacePeerExecutor(ExecutorService stuck) {
+        if (peerCalls != stuck) {
+            return;
+        }
+        ExecutorService fresh = newPeerExecutor();
+        peerCalls = fresh;
+        for (Runnable waiting : stuck.shutdownNow()) {
+            fresh.execute(waiting);
+        }
+    }
+
+    /**
+     * Crea una consulta combinable: si se pide mientras otra igual está en curso,
+     * se ejecuta una sola vez más al terminar en vez de acumularse
+     * @param onResult Se invoca en el EDT con el resultado (puede ser null)
+     * @param onError Se invoca fuera del EDT con el error
+     */
+    public <T> CoalescedCall<T> coalesced(RemoteCall<T> call, Consumer<T> onResult, Consumer<Exception> onError) {
+        return new CoalescedCall<>(call, onResult, onError);
+    }
+
+    /**
+     * Consulta con a lo sumo una ejecución en curso y una pendiente
+     */
+    public final class CoalescedCall<T> {
+
+        private static final int IDLE = 0;
+        private static final int RUNNING = 1;
+        private static final int RUNNING_AND_REQUESTED = 2;
+
+        private final RemoteCall<T> call;
+        private final Consumer<T> onResult;
+        private final Consumer<Exception> onError;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+
+        private CoalescedCall(RemoteCall<T> call, Consumer<T> onResult, Consumer<Exception> onError) {
+            this.call = call;
+            this.onResult = onResult;
+            this.onError = onError;
+        }
+
+        /**
+         * Pide una ejecución; se puede llamar desde cualquier hilo, también el EDT
+         */
+        public void request() {
+            int previous = state.getAndUpdate(s -> s == IDLE ? RUNNING : RUNNING_AND_REQUESTED);
+            if (previous == IDLE) {
+                polls.execute(this::run);
+            }
+        }
+
+        private void run() {
+            try {
+                T result = call.call();
+                if (onResult != null) {
+                    SwingUtilities.invokeLater(() -> onResult.accept(result));
+                }
+            } catch (Exception e) {
+                onError.accept(e);
+            } finally {
+                // Si se pidió durante la ejecución, repetir una sola vez
+                if (!state.compareAndSet(RUNNING, IDLE)) {
+                    state.set(RUNNING);
+                    polls.execute(this::run);
+                }
+            }
+        }
+    }
+
+    /**
+     * Detiene los hilos de E/S
+     */
+    public void shutdown() {
+        requests.shutdownNow();
+        polls.shutdownNow();
+        peerCalls.shutdownNow();
+    }
+}
@@ -0,0 +1,80 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caché de referencias remotas de otros clientes para mensajes directos P2P
+ * Cada referencia se pide al servidor una vez y se reutiliza hasta que vence
+ * o el usuario sale. Un usuario que no respondió queda marcado como
+ * inalcanzable el mismo tiempo, así los siguientes envíos van directo por
+ * el servidor sin esperar otra vez a un par caído. Un usuario sin referencia
+ * (conectado por NIO o a otro nodo) también se recuerda, así cada directo no
+ * cuesta una consulta más al servidor.
+ */
+public class PeerDirectory {
+    
+    /**
+     * Consulta de la referencia al servidor
+     */
+    @FunctionalInterface
+    public interface Lookup {
+        ChatClientInterface find(String username) throws RemoteException;
+    }
+    
+    private static final class CachedPeer {
+        final ChatClientInterface stub;     // null si el par no es alcanzable
+        final long expiresAt;
+        
+        CachedPeer(ChatClientInterface stub, long expiresAt) {
+            this.stub = stub;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    private final Lookup lookup;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, CachedPeer> peers = new ConcurrentHashMap<>();
+    
+    /**
+     * @param ttlMillis Tiempo que se conserva cada referencia (o marca de inalcanzable)
+     */
+    public PeerDirectory(Lookup lookup, long ttlMillis) {
+        this.lookup = lookup;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+    
+    /**
+     * Referencia vigente de un usuario, pidiéndola al servidor si hace falta
+     * @return null si el usuario no tiene referencia o se marcó como inalcanzable
+     */
+    public ChatClientInterface get(String username) throws RemoteException {
+        long now = System.nanoTime();
+        CachedPeer cached = peers.get(username);
+        if (cached != null && now - cached.expiresAt < 0) {
+            return cached.stub;
+        }
+        
+        // Sin referencia también se guarda: se olvida al vencer o cuando el usuario entra o sale
+        ChatClientInterface stub = lookup.find(username);
+        peers.put(username, new CachedPeer(stub, now + ttlNanos));
+        return stub;
+    }
+    
+    /**
+     * Marca al usuario como inalcanzable hasta que venza el TTL
+     */
+    public void markUnreachable(String username) {
+        peers.put(username, new CachedPeer(null, System.nanoTime() + ttlNanos));
+    }
+    
+    /**
+     * Olvida la referencia (el usuario salió o volvió a entrar)
+     */
+    public void invalidate(String username) {
+        peers.remove(username);
+    }
+    
+    public void clear() {
+        peers.clear();
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresión de los lotes de mensajes (deflate con diccionario)
+ * Cliente y servidor acuerdan el códec por usuario con negotiateCompression;
+ * el identificador de cada códec incluye el Adler-32 de su diccionario, así
+ * solo se elige uno que ambos lados tienen. Los lotes pequeños se siguen
+ * enviando sin comprimir.
+ * - Diccionario incluido: frases y palabras frecuentes del chat
+ * - -Dchat.compress.dictionary=archivo: diccionario entrenado con DictionaryTrainer
+ *   (debe ser el mismo archivo en el servidor y en los clientes que lo usen)
+ */
+public final class BatchCompression {
+    
+    // Códec sin diccionario (lo entienden todas las versiones con compresión)
+    public static final String DEFLATE = "deflate";
+    
+    // Prefijo de los códecs con diccionario: deflate-dict:<adler32 en hex>
+    private static final String DEFLATE_DICT = "deflate-dict:";
+    
+    // Largo máximo de un lote descomprimido (protege al cliente de datos corruptos)
+    public static final int MAX_INFLATED_BYTES = 64 * 1024 * 1024;
+    
+    // Nivel de deflate (-Dchat.compress.level, 1 = más rápido ... 9 = más chico)
+    private static final int LEVEL = Math.max(1, Math.min(9, Integer.getInteger("chat.compress.level", 6)));
+    
+    // Deflate solo usa los últimos 32 KB del diccionario
+    public static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+    
+    // Texto frecuente de los mensajes; lo más común va al final, más cerca de los datos
+    private static final String BUILTIN_DICTIONARY =
+            "gracias por favor de nada buenos días buenas tardes buenas noches hasta luego nos vemos "
+            + "mañana ahora después también todavía entonces porque cuando donde quién cómo qué "
+            + "alguien sabe puedes ayudarme tengo una pregunta ya está listo no funciona sí claro "
+            + "el servidor la sala el mensaje los usuarios conectado desconectado reunión proyecto "
+            + "jajaja ok vale perfecto genial de acuerdo que tal cómo estás bien y tú "
+            + "hola a todos hola ";
+    
+    // Códecs conocidos en orden de preferencia: Map<identificador, códec>
+    private static final Map<String, Codec> CODECS = new HashMap<>();
+    private static final List<String> SUPPORTED = new ArrayList<>();
+    
+    // Diccionarios por su Adler-32 (el que pide el flujo deflate al descomprimir)
+    private static final Map<Long, byte[]> DICTIONARIES = new HashMap<>();
+    
+    static {
+        String file = System.getProperty("chat.compress.dictionary");
+        if (file != null) {
+            try {
+                register(Files.readAllBytes(Paths.get(file)));
+            } catch (IOException e) {
+                System.err.println("No se pudo leer el diccionario de compresión " + file + ": " + e.getMessage());
+            }
+        }
+        register(BUILTIN_DICTIONARY.getBytes(StandardCharsets.UTF_8));
+        CODECS.put(DEFLATE, new Codec(DEFLATE, null));
+        SUPPORTED.add(DEFLATE);
+    }
+    
+    private BatchCompression() {
+    }
+    
+    private static void register(byte[] dictionary) {
+        if (dictionary.length > MAX_DICTIONARY_BYTES) {
+            dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_BYTES,
+                    dictionary.length);
+        }
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        String id = DEFLATE_DICT + Long.toHexString(adler.getValue());
+        if (!CODECS.containsKey(id)) {
+            CODECS.put(id, new Codec(id, dictionary));
+            SUPPORTED.add(id);
+            DICTIONARIES.put(adler.getValue(), dictionary);
+        }
+    }
+    
+    /**
+     * Códecs de este lado, del preferido al último (para negotiateCompression)
+     */
+    public static List<String> supportedCodecs() {
+        return Collections.unmodifiableList(SUPPORTED);
+    }
+    
+    /**
+     * Elige el primer códec ofrecido por el cliente que este lado también tiene
+     * @return El códec, o null si no hay ninguno en común
+     */
+    public static Codec choose(List<String> offered) {
+        for (String id : offered) {
+            Codec codec = CODECS.get(id);
+            if (codec != null) {
+                return codec;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Algoritmo acordado con un cliente
+     */
+    public static final class Codec {
+        
+        private final String id;
+        private final byte[] dictionary;    // null en deflate sin diccionario
+        
+        private Codec(String id, byte[] dictionary) {
+            this.id = id;
+            this.dictionary = dictionary;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        /**
+         * Comprime en formato zlib (con el identificador del diccionario si lo hay)
+         */
+        public byte[] compress(byte[] raw, int length) {
+            Deflater deflater = new Deflater(LEVEL);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(raw, 0, length);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+                byte[] chunk = new byte[Math.min(64 * 1024, Math.max(512, length))];
+                while (!deflater.finished()) {
+                    int written = deflater.deflate(chunk);
+                    out.write(chunk, 0, written);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+    
+    /**
+     * Descomprime un lote; el diccionario se busca por el identificador que trae el flujo
+     * @param rawLength Largo original indicado por el remitente
+     */
+    public static byte[] decompress(byte[] compressed, int rawLength) throws IOException {
+        if (rawLength < 0 || rawLength > MAX_INFLATED_BYTES) {
+            throw new IOException("Largo descomprimido inválido: " + rawLength);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int filled = 0;
+            while (filled < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, filled, rawLength - filled);
+                if (read == 0) {
+                    if (inflater.needsDictionary()) {
+                        // getAdler extiende el signo del valor de 32 bits
+                        long adler = inflater.getAdler() & 0xFFFFFFFFL;
+                        byte[] dictionary = DICTIONARIES.get(adler);
+                        if (dictionary == null) {
+                            throw new IOException("Diccionario de compresión desconocido: " + Long.toHexString(adler));
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Lote comprimido incompleto");
+                    }
+                }
+                filled += read;
+            }
+            if (filled != rawLength) {
+                throw new IOException("Lote comprimido de largo inesperado: " + filled + " de " + rawLength);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Lote comprimido inválido", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -15,6 +15,14 @@ public interface ChatClientInterface extends Remote {
      */
     void receiveMessage(String from, String message, boolean isDirect) throws RemoteException;
     
+    /**
+     * Recibe un mensaje enviado a una sala de la que el cliente es miembro
+     * @param room Nombre de la sala
+     * @param from Usuario que envía el mensaje
+     * @param message Contenido del mensaje
+     */
+    void receiveRoomMessage(String room, String from, String message) throws RemoteException;
+    
     /**
      * Notifica que un usuario se ha conectado
      * @param username Nombre del usuario que se conectó
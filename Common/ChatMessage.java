@@ -0,0 +1,150 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mensaje de chat estructurado
+ * Viaja por RMI con una codificación binaria escrita a mano (Externalizable)
+ * en lugar de cadenas ya formateadas; el cliente decide cómo mostrarlo
+ */
+public class ChatMessage implements Externalizable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Tipo de mensaje
+     */
+    public enum Type {
+        BROADCAST,      // Mensaje para todos los usuarios
+        DIRECT,         // Mensaje directo recibido
+        DIRECT_SENT,    // Confirmación de un mensaje directo enviado
+        USER_JOINED,    // Aviso del sistema: el remitente se unió
+        USER_LEFT,      // Aviso del sistema: el remitente salió
+        ROOM,           // Mensaje a una sala (el destinatario es el nombre de la sala)
+        ROOM_JOINED,    // Entre nodos del cluster: el remitente se unió a la sala del destinatario
+        ROOM_LEFT;      // Entre nodos del cluster: el remitente salió de la sala del destinatario
+        
+        private static final Type[] VALUES = values();
+        
+        static Type fromCode(int code) throws IOException {
+            if (code < 0 || code >= VALUES.length) {
+                throw new IOException("Tipo de mensaje desconocido: " + code);
+            }
+            return VALUES[code];
+        }
+    }
+    
+    private long sequenceId;
+    private Type type;
+    private String senderId;
+    private String recipientId;     // null en broadcasts y avisos del sistema; la sala en ROOM
+    private long timestamp;
+    private byte[] payload;
+    
+    /**
+     * Constructor vacío requerido por Externalizable
+     */
+    public ChatMessage() {
+    }
+    
+    public ChatMessage(long sequenceId, Type type, String senderId, String recipientId,
+                       long timestamp, byte[] payload) {
+        this.sequenceId = sequenceId;
+        this.type = type;
+        this.senderId = senderId;
+        this.recipientId = recipientId;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+    
+    /**
+     * Crea un mensaje con texto, codificado en UTF-8, y la hora actual
+     */
+    public static ChatMessage of(long sequenceId, Type type, String senderId, String recipientId, String text) {
+        byte[] payload = text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return new ChatMessage(sequenceId, type, senderId, recipientId, System.currentTimeMillis(), payload);
+    }
+    
+    public long getSequenceId() {
+        return sequenceId;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public String getSenderId() {
+        return senderId;
+    }
+    
+    public String getRecipientId() {
+        return recipientId;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public byte[] getPayload() {
+        return payload;
+    }
+    
+    /**
+     * Texto del mensaje decodificado desde UTF-8
+     */
+    public String getText() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Escribe los campos del mensaje sin metadatos de clase
+     * Formato: seq(8) tipo(1) remitente(UTF) [destinatario(UTF)] hora(8) largo(4) bytes
+     */
+    private void writeTo(ObjectOutput out) throws IOException {
+        out.writeLong(sequenceId);
+        out.writeByte(type.ordinal());
+        out.writeUTF(senderId);
+        out.writeBoolean(recipientId != null);
+        if (recipientId != null) {
+            out.writeUTF(recipientId);
+        }
+        out.writeLong(timestamp);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+    
+    /**
+     * Lee los campos escritos por writeTo
+     */
+    private void readFrom(ObjectInput in) throws IOException {
+        sequenceId = in.readLong();
+        type = Type.fromCode(in.readUnsignedByte());
+        senderId = in.readUTF();
+        recipientId = in.readBoolean() ? in.readUTF() : null;
+        timestamp = in.readLong();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Largo de mensaje inválido: " + length);
+        }
+        payload = new byte[length];
+        in.readFully(payload);
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+    
+    @Override
+    public String toString() {
+        return "#" + sequenceId + " " + type + " " + senderId
+                + (recipientId != null ? " -> " + recipientId : "") + ": " + getText();
+    }
+}
@@ -9,13 +9,20 @@ import java.util.Map;
  */
 public interface ChatServerInterface extends Remote {
     
+    // Modos de entrega de mensajes
+    String DELIVERY_PUSH = "push";
+    String DELIVERY_LONG_POLL = "longpoll";
+    String DELIVERY_POLL = "poll";
+    
     /**
      * Registra un nuevo cliente en el servidor
      * @param username Nombre de usuario del cliente
      * @param clientRef Referencia remota al cliente para callbacks
      * @return true si el registro fue exitoso, false si el nombre ya existe
+     * @throws RedirectException si el servidor es parte de un cluster y el usuario
+     *         pertenece a otro nodo (el cliente debe registrarse en ese nodo)
      */
-    boolean registerClient(String username, ChatClientInterface clientRef) throws RemoteException;
+    boolean registerClient(String username, ChatClientInterface clientRef) throws RemoteException, RedirectException;
     
     /**
      * Desregistra un cliente del servidor
@@ -27,16 +34,61 @@ public interface ChatServerInterface extends Remote {
      * Envía un mensaje broadcast a todos los clientes conectados
      * @param from Usuario que envía el mensaje
      * @param message Contenido del mensaje
+     * @throws RateLimitedException si el usuario superó su límite de broadcasts
      */
-    void broadcastMessage(String from, String message) throws RemoteException;
+    void broadcastMessage(String from, String message) throws RemoteException, RateLimitedException;
     
     /**
      * Envía un mensaje directo a un usuario específico (via servidor)
      * @param from Usuario que envía el mensaje
      * @param to Usuario destinatario
      * @param message Contenido del mensaje
+     * @throws RateLimitedException si el usuario superó su límite de mensajes directos
+     */
+    void sendDirectMessage(String from, String to, String message) throws RemoteException, RateLimitedException;
+    
+    /**
+     * Une a un usuario a una sala; la sala se crea si no existe
+     * Desde ahora recibe los mensajes de la sala (no los anteriores)
+     * @param username Usuario que se une
+     * @param room Nombre de la sala
+     * @return false si ya era miembro
+     */
+    boolean joinRoom(String username, String room) throws RemoteException;
+    
+    /**
+     * Saca a un usuario de una sala; la sala se elimina al quedar vacía
+     * @param username Usuario que sale
+     * @param room Nombre de la sala
+     */
+    void leaveRoom(String username, String room) throws RemoteException;
+    
+    /**
+     * Envía un mensaje a los miembros de una sala
+     * @param from Usuario que envía el mensaje (debe ser miembro)
+     * @param room Nombre de la sala
+     * @param message Contenido del mensaje
+     * @throws RateLimitedException si el usuario superó su límite de broadcasts
+     */
+    void postToRoom(String from, String room, String message) throws RemoteException, RateLimitedException;
+    
+    /**
+     * Envía varios mensajes en una sola llamada, en orden
+     * Cada mensaje se procesa como broadcastMessage, sendDirectMessage o postToRoom
+     * (con el mismo límite de envíos); un rechazo no detiene a los siguientes
+     * @param from Usuario que envía los mensajes
+     * @param messages Mensajes a enviar
+     * @return Un resultado por mensaje, en el mismo orden
+     * @throws RemoteException si el lote supera el máximo del servidor (ningún mensaje se envía)
+     */
+    List<SendResult> sendBatch(String from, List<OutboundMessage> messages) throws RemoteException;
+    
+    /**
+     * Obtiene los miembros de una sala
+     * @param room Nombre de la sala
+     * @return Nombres de los miembros (vacía si la sala no existe)
      */
-    void sendDirectMessage(String from, String to, String message) throws RemoteException;
+    List<String> getRoomMembers(String room) throws RemoteException;
     
     /**
      * Obtiene la lista de usuarios conectados
@@ -44,6 +96,15 @@ public interface ChatServerInterface extends Remote {
      */
     List<String> getOnlineUsers() throws RemoteException;
     
+    /**
+     * Obtiene los cambios en la lista de usuarios desde una versión
+     * @param epoch Época recibida en la última actualización (0 si ninguna)
+     * @param sinceVersion Versión recibida en la última actualización (-1 si ninguna)
+     * @return Usuarios que entraron y salieron, o la lista completa si el cliente
+     *         está demasiado atrasado o el servidor se reinició
+     */
+    PresenceUpdate getPresenceChanges(long epoch, long sinceVersion) throws RemoteException;
+    
     /**
      * Obtiene la referencia remota de un cliente específico
      * @param username Nombre del usuario
@@ -57,4 +118,51 @@ public interface ChatServerInterface extends Remote {
      * @return Mapa con tipo de mensaje (broadcast/direct/system) y lista de mensajes
      */
     Map<String, List<String>> getPendingMessages(String username) throws RemoteException;
+    
+    /**
+     * Obtiene los mensajes pendientes para un cliente como mensajes estructurados
+     * y los marca como entregados
+     * @param username Nombre del usuario que solicita los mensajes
+     * @return Lote de mensajes en orden de secuencia
+     */
+    MessageBatch getMessageBatch(String username) throws RemoteException;
+    
+    /**
+     * Espera mensajes nuevos para un cliente (long-poll)
+     * Responde en cuanto hay mensajes o al vencer el tiempo de espera
+     * @param username Nombre del usuario que solicita los mensajes
+     * @param afterSeq Última secuencia procesada por el cliente (-1 si ninguna);
+     *                 si el lote anterior no se confirmó se vuelve a enviar
+     * @param maxWaitMillis Tiempo máximo de espera en milisegundos
+     * @param maxBatch Máximo de mensajes por respuesta
+     * @return Lote de mensajes (vacío si venció el tiempo)
+     */
+    MessageBatch fetchMessages(String username, long afterSeq, long maxWaitMillis, int maxBatch)
+            throws RemoteException;
+    
+    /**
+     * Acuerda la compresión de los lotes de getMessageBatch y fetchMessages para un usuario
+     * Dura lo que la sesión: tras volver a registrarse hay que acordarla de nuevo
+     * @param username Nombre del usuario
+     * @param codecs Códecs que entiende el cliente, del preferido al último
+     *               (ver BatchCompression.supportedCodecs)
+     * @return El códec elegido, o null si los lotes seguirán sin comprimir
+     */
+    String negotiateCompression(String username, List<String> codecs) throws RemoteException;
+    
+    /**
+     * Indica que el cliente sigue activo y renueva su lease
+     * Sin consultas ni heartbeats durante el lease, el servidor lo desconecta
+     * @param username Nombre del usuario
+     * @return false si el usuario no está conectado (por ejemplo, porque su lease venció)
+     */
+    boolean heartbeat(String username) throws RemoteException;
+    
+    /**
+     * Obtiene el modo de entrega de mensajes del servidor
+     * @return DELIVERY_PUSH si el servidor invoca los callbacks del cliente,
+     *         DELIVERY_LONG_POLL si el cliente debe esperar con fetchMessages,
+     *         DELIVERY_POLL si el cliente debe consultar periódicamente
+     */
+    String getDeliveryMode() throws RemoteException;
 }
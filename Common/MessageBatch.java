@@ -0,0 +1,318 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * Lote de mensajes devuelto al cliente en una consulta
+ * Se serializa en binario compacto: sin descriptores de clase por elemento,
+ * secuencias y horas como diferencias y cada nombre de usuario una sola vez.
+ * Si el cliente acordó un códec (ver BatchCompression) y el texto del lote
+ * supera el umbral, el lote viaja comprimido.
+ */
+public class MessageBatch implements Externalizable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    // Marca de lote comprimido en lugar de la cantidad de mensajes (mayor que cualquier cantidad válida)
+    private static final long COMPRESSED = 1L << 32;
+    
+    // Capacidad inicial máxima de la lista al leer: la cantidad anunciada no se reserva de una vez
+    private static final int INITIAL_READ_CAPACITY = 1024;
+    
+    /**
+     * Recibe los bytes de un lote comprimido antes y después de comprimir
+     */
+    @FunctionalInterface
+    public interface CompressionListener {
+        void compressed(long rawBytes, long compressedBytes);
+    }
+    
+    private List<ChatMessage> messages;
+    
+    // Recibe el tamaño codificado al serializar (solo del lado que envía)
+    private transient LongConsumer sizeListener;
+    
+    // Compresión acordada con el destinatario (null = sin comprimir) y desde cuántos bytes de texto
+    private transient BatchCompression.Codec codec;
+    private transient int compressThreshold;
+    private transient CompressionListener compressionListener;
+    
+    /**
+     * Constructor vacío requerido por Externalizable
+     */
+    public MessageBatch() {
+        this.messages = Collections.emptyList();
+    }
+    
+    public MessageBatch(List<ChatMessage> messages) {
+        this.messages = messages;
+    }
+    
+    /**
+     * Indica a quién avisar con el número de bytes escritos al serializar el lote
+     * @return Este mismo lote
+     */
+    public MessageBatch onSerialized(LongConsumer listener) {
+        this.sizeListener = listener;
+        return this;
+    }
+    
+    /**
+     * Comprime el lote al serializarlo si sus textos suman al menos 'thresholdBytes'
+     * @param codec Códec acordado con el destinatario (null = sin comprimir)
+     * @param listener Recibe los bytes antes y después de comprimir (puede ser null)
+     * @return Este mismo lote
+     */
+    public MessageBatch compressWith(BatchCompression.Codec codec, int thresholdBytes, CompressionListener listener) {
+        this.codec = codec;
+        this.compressThreshold = thresholdBytes;
+        this.compressionListener = listener;
+        return this;
+    }
+    
+    /**
+     * Mensajes del lote en orden de secuencia
+     */
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+    
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+    
+    public int size() {
+        return messages.size();
+    }
+    
+    /**
+     * Secuencia del último mensaje del lote, o -1 si está vacío
+     */
+    public long getLastSequence() {
+        return messages.isEmpty() ? -1 : messages.get(messages.size() - 1).getSequenceId();
+    }
+    
+    /**
+     * Formato: cantidad(varint) y por cada mensaje tipo(1), delta de secuencia
+     * y de hora respecto al anterior (varint con signo), remitente y destinatario
+     * como índice en una tabla de nombres del lote, largo(varint) y bytes.
+     * Comprimido: marca(varint), largo original(varint), largo comprimido(varint)
+     * y el formato anterior en zlib
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        long size = codec != null && payloadBytes() >= compressThreshold ? writeCompressed(out) : writeBody(out);
+        if (sizeListener != null) {
+            sizeListener.accept(size);
+        }
+    }
+    
+    /**
+     * Codifica el lote completo y lo escribe comprimido (o tal cual si no se achica)
+     * @return Bytes escritos
+     */
+    private long writeCompressed(ObjectOutput out) throws IOException {
+        RawBuffer raw = new RawBuffer();
+        writeBody(new DataOutputStream(raw));
+        byte[] compressed = codec.compress(raw.array(), raw.size());
+        if (compressed.length >= raw.size()) {
+            out.write(raw.array(), 0, raw.size());
+            return raw.size();
+        }
+        long size = writeVarLong(out, COMPRESSED);
+        size += writeVarLong(out, raw.size());
+        size += writeVarLong(out, compressed.length);
+        out.write(compressed);
+        size += compressed.length;
+        if (compressionListener != null) {
+            compressionListener.compressed(raw.size(), size);
+        }
+        return size;
+    }
+    
+    // Bytes de texto del lote (lo que decide si vale la pena comprimir)
+    private long payloadBytes() {
+        long total = 0;
+        for (ChatMessage message : messages) {
+            total += message.getPayload().length;
+        }
+        return total;
+    }
+    
+    // Buffer que expone su arreglo para no copiarlo antes de comprimir
+    private static final class RawBuffer extends ByteArrayOutputStream {
+        
+        RawBuffer() {
+            super(4096);
+        }
+        
+        byte[] array() {
+            return buf;
+        }
+    }
+    
+    /**
+     * Escribe el lote sin comprimir
+     * @return Bytes escritos
+     */
+    private long writeBody(DataOutput out) throws IOException {
+        long size = writeVarLong(out, messages.size());
+        Map<String, Integer> names = new HashMap<>();
+        long previousSequence = 0;
+        long previousTimestamp = 0;
+        for (ChatMessage message : messages) {
+            out.writeByte(message.getType().ordinal());
+            size += 1;
+            size += writeVarLong(out, zigZag(message.getSequenceId() - previousSequence));
+            size += writeVarLong(out, zigZag(message.getTimestamp() - previousTimestamp));
+            size += writeName(out, names, message.getSenderId());
+            size += writeName(out, names, message.getRecipientId());
+            byte[] payload = message.getPayload();
+            size += writeVarLong(out, payload.length);
+            out.write(payload);
+            size += payload.length;
+            previousSequence = message.getSequenceId();
+            previousTimestamp = message.getTimestamp();
+        }
+        return size;
+    }
+    
+    /**
+     * Los largos vienen del remitente: ninguno supera lo que puede haber detrás
+     * (el largo descomprimido máximo, o lo que queda del lote ya descomprimido)
+     * y los bytes se reservan a medida que llegan (WireProtocol.readBytes)
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        long first = readVarLong(in);
+        if (first == COMPRESSED) {
+            int rawLength = readLength(in, BatchCompression.MAX_INFLATED_BYTES);
+            // Solo se envía comprimido si quedó más chico que el original
+            byte[] compressed = WireProtocol.readBytes(in, readLength(in, rawLength));
+            DataInputStream raw = new DataInputStream(new ByteArrayInputStream(
+                    BatchCompression.decompress(compressed, rawLength)));
+            // Cada mensaje ocupa al menos un byte
+            messages = readBody(raw, readLength(raw, raw.available()));
+        } else {
+            messages = readBody(in, toLength(first, Integer.MAX_VALUE));
+        }
+    }
+    
+    private static List<ChatMessage> readBody(DataInput in, int count) throws IOException {
+        List<ChatMessage> read = new ArrayList<>(Math.min(count, INITIAL_READ_CAPACITY));
+        List<String> names = new ArrayList<>();
+        long sequence = 0;
+        long timestamp = 0;
+        for (int i = 0; i < count; i++) {
+            ChatMessage.Type type = ChatMessage.Type.fromCode(in.readUnsignedByte());
+            sequence += unZigZag(readVarLong(in));
+            timestamp += unZigZag(readVarLong(in));
+            String sender = readName(in, names);
+            String recipient = readName(in, names);
+            byte[] payload = WireProtocol.readBytes(in, readLength(in, BatchCompression.MAX_INFLATED_BYTES));
+            read.add(new ChatMessage(sequence, type, sender, recipient, timestamp, payload));
+        }
+        return read;
+    }
+    
+    // Nombre como índice en la tabla del lote: 0 = null, n = nombre n-1, si es nuevo sigue el texto
+    // Devuelve los bytes escritos
+    private static int writeName(DataOutput out, Map<String, Integer> names, String name) throws IOException {
+        if (name == null) {
+            return writeVarLong(out, 0);
+        }
+        Integer index = names.get(name);
+        if (index != null) {
+            return writeVarLong(out, index + 1);
+        }
+        names.put(name, names.size());
+        int size = writeVarLong(out, names.size());
+        out.writeUTF(name);
+        return size + utfLength(name);
+    }
+    
+    // Bytes que ocupa writeUTF: 2 de largo más UTF-8 modificado
+    private static int utfLength(String text) {
+        int length = 2;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        return length;
+    }
+    
+    private static String readName(DataInput in, List<String> names) throws IOException {
+        long index = readVarLong(in);
+        if (index == 0) {
+            return null;
+        }
+        if (index == names.size() + 1) {
+            String name = in.readUTF();
+            names.add(name);
+            return name;
+        }
+        if (index > names.size()) {
+            throw new IOException("Índice de nombre inválido: " + index);
+        }
+        return names.get((int) index - 1);
+    }
+    
+    /**
+     * @param max Máximo aceptado (lo que puede haber detrás del largo)
+     */
+    private static int readLength(DataInput in, int max) throws IOException {
+        return toLength(readVarLong(in), max);
+    }
+    
+    private static int toLength(long length, int max) throws IOException {
+        if (length < 0 || length > max) {
+            throw new IOException("Largo inválido: " + length + " (máximo " + max + ")");
+        }
+        return (int) length;
+    }
+    
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    // Devuelve los bytes escritos
+    private static int writeVarLong(DataOutput out, long value) throws IOException {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            size++;
+        }
+        out.writeByte((int) value);
+        return size;
+    }
+    
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint demasiado largo");
+    }
+}
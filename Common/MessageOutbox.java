@@ -0,0 +1,311 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bandeja de salida del cliente: junta los mensajes de un usuario y los
+ * envía con sendBatch en vez de una llamada por mensaje (al estilo de Nagle)
+ * - Un solo hilo envía, así los mensajes llegan en el orden en que se encolaron
+ * - Al llegar un mensaje se espera hasta 'linger' ms por otros antes de enviar;
+ *   los que llegan mientras un lote está en camino salen juntos en el siguiente
+ * - Con linger 0 solo se juntan los que ya estaban en cola
+ * - Si la llamada falla sin que se caiga la conexión (un mensaje que no se pudo
+ *   serializar, por ejemplo), los mensajes se reenvían de a uno y solo falla ese
+ * - Los rechazados por el límite de envíos se reenvían pasada la espera que
+ *   indica el servidor, hasta -Dchat.outbox.rateLimitWait ms (30 s) desde el
+ *   primer rechazo; pueden llegar después de otros del mismo lote que sí entraron
+ */
+public class MessageOutbox implements Closeable {
+    
+    // Tiempo máximo que close() espera a que salgan los mensajes encolados
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+    
+    // Tiempo máximo que un mensaje rechazado por el límite de envíos se sigue reintentando
+    private static final long RATE_LIMIT_MAX_WAIT_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.outbox.rateLimitWait", 30000L));
+    
+    // Espera entre revisiones de closed mientras se aguarda para reintentar
+    private static final long HOLD_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    
+    private final ChatServerInterface server;
+    private final String from;
+    private final long lingerNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread sender;
+    
+    // Rechazados por el límite de envíos que esperan para reintentar, en orden (solo el hilo de envío)
+    private final ArrayDeque<Pending> held = new ArrayDeque<>();
+    private long heldUntil;
+    
+    private volatile boolean closed = false;
+    
+    /**
+     * Mensaje en cola con el futuro de su resultado
+     */
+    private static final class Pending {
+        final OutboundMessage message;
+        final CompletableFuture<SendResult> result = new CompletableFuture<>();
+        
+        // Primer rechazo por el límite de envíos (System.nanoTime) y el último resultado
+        long firstLimited;
+        SendResult limited;
+        
+        Pending(OutboundMessage message) {
+            this.message = message;
+        }
+    }
+    
+    /**
+     * @param server Servidor (RMI o NIO)
+     * @param from Usuario que envía
+     * @param lingerMillis Espera máxima para juntar mensajes antes de enviar
+     * @param maxBatch Máximo de mensajes por llamada (no debe superar -Dchat.send.maxBatch del servidor)
+     */
+    public MessageOutbox(ChatServerInterface server, String from, long lingerMillis, int maxBatch) {
+        this.server = server;
+        this.from = from;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.sender = new Thread(this::sendLoop, "chat-outbox-" + from);
+        sender.setDaemon(true);
+        sender.start();
+    }
+    
+    /**
+     * Encola un mensaje
+     * @return Futuro con el resultado del mensaje; falla con la RemoteException
+     *         si la llamada completa no llegó al servidor
+     */
+    public CompletableFuture<SendResult> submit(OutboundMessage message) {
+        Pending pending = new Pending(message);
+        if (closed) {
+            pending.result.completeExceptionally(new IOException("Bandeja de salida cerrada"));
+            return pending.result;
+        }
+        queue.add(pending);
+        if (closed && !sender.isAlive()) {
+            // Se cerró mientras se encolaba y el hilo ya no lo va a enviar
+            failQueued();
+        }
+        return pending.result;
+    }
+    
+    /**
+     * Encola un mensaje y espera su resultado, con las mismas excepciones que
+     * la llamada individual (para código que ya envía en su propio hilo)
+     */
+    public void send(OutboundMessage message) throws RemoteException, RateLimitedException {
+        SendResult result;
+        try {
+            result = submit(message).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("No se pudo enviar el mensaje", e.getCause());
+        }
+        Exception error = result.toException();
+        if (error instanceof RateLimitedException) {
+            throw (RateLimitedException) error;
+        }
+        if (error != null) {
+            throw (RemoteException) error;
+        }
+    }
+    
+    /**
+     * Mensajes en cola que aún no se enviaron
+     */
+    public int queued() {
+        return queue.size();
+    }
+    
+    private void sendLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                if (!held.isEmpty()) {
+                    long wait = heldUntil - System.nanoTime();
+                    if (closed) {
+                        releaseHeld();
+                    } else if (wait > 0) {
+                        // Lo nuevo espera detrás de los rechazados para no adelantarlos
+                        TimeUnit.NANOSECONDS.sleep(Math.min(wait, HOLD_CHECK_NANOS));
+                        continue;
+                    } else {
+                        while (!held.isEmpty() && batch.size() < maxBatch) {
+                            batch.add(held.poll());
+                        }
+                    }
+                }
+                if (batch.isEmpty()) {
+                    Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch && !closed) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                deliver(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        releaseHeld();
+        failQueued();
+    }
+    
+    /**
+     * Los rechazados que esperaban se completan con su último resultado (al cerrar)
+     */
+    private void releaseHeld() {
+        Pending left;
+        while ((left = held.poll()) != null) {
+            left.result.complete(left.limited);
+        }
+    }
+    
+    /**
+     * Los mensajes que quedan sin enviar al cerrar fallan en vez de esperar para siempre
+     */
+    private void failQueued() {
+        Pending left;
+        while ((left = queue.poll()) != null) {
+            left.result.completeExceptionally(new IOException("Bandeja de salida cerrada"));
+        }
+    }
+    
+    /**
+     * Envía un lote y completa cada mensaje con su resultado
+     * Si la llamada falla sin caerse la conexión, los reenvía de a uno
+     */
+    private void deliver(List<Pending> batch) {
+        List<SendResult> results;
+        try {
+            results = send(batch);
+        } catch (RemoteException | RuntimeException e) {
+            if (batch.size() == 1 || isConnectionFailure(e)) {
+                fail(batch, e);
+                return;
+            }
+            // El servidor no aplicó el lote (falló al leerlo o ni llegó): de a uno, así solo falla el culpable
+            for (int i = 0; i < batch.size(); i++) {
+                Pending pending = batch.get(i);
+                List<Pending> single = Collections.singletonList(pending);
+                try {
+                    complete(single, send(single));
+                } catch (RemoteException | RuntimeException error) {
+                    pending.result.completeExceptionally(error);
+                    if (isConnectionFailure(error)) {
+                        fail(batch.subList(i + 1, batch.size()), error);
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+        complete(batch, results);
+    }
+    
+    private List<SendResult> send(List<Pending> batch) throws RemoteException {
+        List<OutboundMessage> messages = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            messages.add(pending.message);
+        }
+        return server.sendBatch(from, messages);
+    }
+    
+    /**
+     * Completa cada mensaje con su resultado; los rechazados por el límite de envíos
+     * quedan retenidos hasta la espera que indicó el servidor
+     */
+    private void complete(List<Pending> batch, List<SendResult> results) {
+        if (results.size() != batch.size()) {
+            // El lote se aplicó pero la respuesta no corresponde: no se reenvía para no repetirlo
+            fail(batch, new RemoteException("El servidor devolvió " + results.size() + " resultados para "
+                    + batch.size() + " mensajes"));
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            SendResult result = results.get(i);
+            if (result.getStatus() != SendResult.Status.RATE_LIMITED) {
+                pending.result.complete(result);
+                continue;
+            }
+            if (pending.limited == null) {
+                pending.firstLimited = now;
+            }
+            pending.limited = result;
+            if (closed || now - pending.firstLimited >= RATE_LIMIT_MAX_WAIT_NANOS) {
+                pending.result.complete(result);
+                continue;
+            }
+            long until = now + TimeUnit.MILLISECONDS.toNanos(Math.max(1, result.getRetryAfterMillis()));
+            heldUntil = held.isEmpty() ? until : Math.max(heldUntil, until);
+            held.add(pending);
+        }
+    }
+    
+    private static void fail(List<Pending> batch, Exception error) {
+        for (Pending pending : batch) {
+            pending.result.completeExceptionally(error);
+        }
+    }
+    
+    /**
+     * Falla de la conexión o sin respuesta: reenviar de a uno no ayudaría (y podría repetir mensajes)
+     */
+    private static boolean isConnectionFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectIOException
+                    || cause instanceof SocketException || cause instanceof EOFException
+                    || cause instanceof InterruptedIOException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Envía lo que queda en cola (esperando hasta 5 s) y detiene el hilo
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            sender.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender.interrupt();
+    }
+}
@@ -0,0 +1,419 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conexión al servidor por el transporte NIO (alternativa a RMI)
+ * Implementa ChatServerInterface, así el cliente usa la misma API con los dos
+ * transportes. Una sola conexión TCP lleva las llamadas de todos los hilos,
+ * emparejadas por número de llamada, y los callbacks del servidor, que se
+ * entregan en orden en el hilo lector. Varios usuarios pueden compartirla.
+ */
+public class NioServerConnection implements ChatServerInterface, Closeable {
+    
+    // Tiempo máximo de una llamada (en fetchMessages se suma a la espera del long-poll)
+    private static final long CALL_TIMEOUT_MS = Long.getLong("chat.nio.timeout", 30000L);
+    
+    /**
+     * Escribe los argumentos de una llamada
+     */
+    @FunctionalInterface
+    private interface Body {
+        void write(WireProtocol.Writer request) throws IOException;
+    }
+    
+    /**
+     * Lee el resultado de una respuesta
+     */
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T read(WireProtocol.Reader reply) throws IOException;
+    }
+    
+    private final String address;
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    
+    private final AtomicInteger nextCallId = new AtomicInteger();
+    
+    // Llamadas esperando respuesta: Map<llamada, respuesta>
+    private final Map<Integer, CompletableFuture<WireProtocol.Reader>> calls = new ConcurrentHashMap<>();
+    
+    // Callbacks de los usuarios registrados por esta conexión: Map<username, cliente>
+    private final Map<String, ChatClientInterface> clients = new ConcurrentHashMap<>();
+    
+    private volatile boolean closed = false;
+    
+    /**
+     * Abre la conexión y el hilo lector
+     * @param port Puerto del transporte NIO del servidor (-Dchat.nio.port)
+     */
+    public NioServerConnection(String host, int port) throws IOException {
+        this.address = host + ":" + port;
+        this.socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), (int) CALL_TIMEOUT_MS);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 16 * 1024));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        
+        Thread reader = new Thread(this::readLoop, "chat-nio-reader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    /**
+     * Lee tramas hasta que se cierra la conexión
+     * Las respuestas completan su llamada; los avisos invocan al cliente destino
+     */
+    private void readLoop() {
+        IOException failure;
+        try {
+            while (true) {
+                int length = WireProtocol.checkLength(in.readInt());
+                byte type = in.readByte();
+                int callId = in.readInt();
+                byte[] body = new byte[length - (WireProtocol.HEADER_BYTES - 4)];
+                in.readFully(body);
+                WireProtocol.Reader frame = new WireProtocol.Reader(type, callId, body);
+                if (callId == 0) {
+                    dispatch(frame);
+                } else {
+                    CompletableFuture<WireProtocol.Reader> call = calls.get(callId);
+                    if (call != null) {
+                        call.complete(frame);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ya estaba cerrado
+        }
+        for (CompletableFuture<WireProtocol.Reader> call : calls.values()) {
+            call.completeExceptionally(failure);
+        }
+    }
+    
+    /**
+     * Entrega un aviso del servidor al callback del usuario destino
+     */
+    private void dispatch(WireProtocol.Reader push) throws IOException {
+        ChatClientInterface client = clients.get(push.text());
+        if (client == null) {
+            return;
+        }
+        try {
+            switch (push.getType()) {
+                case WireProtocol.PUSH_MESSAGE:
+                    client.receiveMessage(push.text(), push.text(), push.readBoolean());
+                    break;
+                case WireProtocol.PUSH_ROOM_MESSAGE:
+                    client.receiveRoomMessage(push.text(), push.text(), push.text());
+                    break;
+                case WireProtocol.PUSH_USER_JOINED:
+                    client.userJoined(push.text());
+                    break;
+                case WireProtocol.PUSH_USER_LEFT:
+                    client.userLeft(push.text());
+                    break;
+                default:
+                    throw new IOException("Aviso desconocido: " + push.getType());
+            }
+        } catch (RemoteException e) {
+            // Falló el callback local, no la conexión
+            System.err.println("Error al entregar un aviso a " + client.getUsername() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Envía una petición y espera su respuesta (de cualquier tipo)
+     */
+    private WireProtocol.Reader exchange(byte type, long timeoutMillis, Body body) throws RemoteException {
+        if (closed) {
+            throw new ConnectException("Conexión NIO con " + address + " cerrada");
+        }
+        int callId;
+        do {
+            callId = nextCallId.incrementAndGet();
+        } while (callId == 0);  // La llamada 0 es de los avisos
+        
+        CompletableFuture<WireProtocol.Reader> reply = new CompletableFuture<>();
+        calls.put(callId, reply);
+        if (closed) {
+            // El hilo lector terminó entre la revisión y el registro de la llamada
+            reply.completeExceptionally(new EOFException("conexión cerrada"));
+        }
+        try {
+            WireProtocol.Writer request = new WireProtocol.Writer(type, callId);
+            body.write(request);
+            ByteBuffer frame = request.toFrame();
+            synchronized (out) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                out.flush();
+            }
+            return reply.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            close();
+            throw new ConnectException("Error de E/S con " + address, e);
+        } catch (ExecutionException e) {
+            throw new ConnectException("Conexión NIO con " + address + " cerrada", (Exception) e.getCause());
+        } catch (TimeoutException e) {
+            throw new RemoteException("Sin respuesta de " + address + " en " + timeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Llamada a " + address + " interrumpida");
+        } finally {
+            calls.remove(callId);
+        }
+    }
+    
+    /**
+     * Envía una petición y devuelve la respuesta si fue exitosa
+     */
+    private WireProtocol.Reader call(byte type, Body body) throws RemoteException {
+        return ok(exchange(type, CALL_TIMEOUT_MS, body));
+    }
+    
+    /**
+     * Envía una petición que el servidor puede rechazar por límite de envíos
+     */
+    private void callThrottled(byte type, Body body) throws RemoteException, RateLimitedException {
+        WireProtocol.Reader reply = exchange(type, CALL_TIMEOUT_MS, body);
+        if (reply.getType() == WireProtocol.RATE_LIMITED) {
+            throw decode(reply, r -> new RateLimitedException(r.text(), r.readLong()));
+        }
+        ok(reply);
+    }
+    
+    private static WireProtocol.Reader ok(WireProtocol.Reader reply) throws RemoteException {
+        switch (reply.getType()) {
+            case WireProtocol.OK:
+                return reply;
+            case WireProtocol.ERROR:
+                throw new RemoteException(decode(reply, WireProtocol.Reader::text));
+            default:
+                throw new RemoteException("Respuesta inesperada del servidor: " + reply.getType());
+        }
+    }
+    
+    private static <T> T decode(WireProtocol.Reader reply, Decoder<T> decoder) throws RemoteException {
+        try {
+            return decoder.read(reply);
+        } catch (IOException e) {
+            throw new RemoteException("Respuesta mal formada del servidor", e);
+        }
+    }
+    
+    /**
+     * Registra al usuario; los callbacks del servidor llegan a clientRef por esta conexión
+     */
+    @Override
+    public boolean registerClient(String username, ChatClientInterface clientRef)
+            throws RemoteException, RedirectException {
+        // Antes de la llamada: los primeros avisos pueden llegar antes que la respuesta
+        clients.put(username, clientRef);
+        boolean registered = false;
+        try {
+            WireProtocol.Reader reply = exchange(WireProtocol.REGISTER, CALL_TIMEOUT_MS, r -> r.text(username));
+            if (reply.getType() == WireProtocol.REDIRECT) {
+                throw decode(reply, r -> new RedirectException(r.text(), r.readInt(), r.readInt()));
+            }
+            registered = decode(ok(reply), WireProtocol.Reader::readBoolean);
+            return registered;
+        } finally {
+            if (!registered) {
+                clients.remove(username, clientRef);
+            }
+        }
+    }
+    
+    @Override
+    public void unregisterClient(String username) throws RemoteException {
+        call(WireProtocol.UNREGISTER, r -> r.text(username));
+        clients.remove(username);
+    }
+    
+    @Override
+    public void broadcastMessage(String from, String message) throws RemoteException, RateLimitedException {
+        callThrottled(WireProtocol.BROADCAST, r -> r.text(from).text(message));
+    }
+    
+    @Override
+    public void sendDirectMessage(String from, String to, String message) throws RemoteException, RateLimitedException {
+        callThrottled(WireProtocol.DIRECT, r -> r.text(from).text(to).text(message));
+    }
+    
+    @Override
+    public boolean joinRoom(String username, String room) throws RemoteException {
+        WireProtocol.Reader reply = call(WireProtocol.JOIN_ROOM, r -> r.text(username).text(room));
+        return decode(reply, WireProtocol.Reader::readBoolean);
+    }
+    
+    @Override
+    public void leaveRoom(String username, String room) throws RemoteException {
+        call(WireProtocol.LEAVE_ROOM, r -> r.text(username).text(room));
+    }
+    
+    @Override
+    public void postToRoom(String from, String room, String message) throws RemoteException, RateLimitedException {
+        callThrottled(WireProtocol.POST_TO_ROOM, r -> r.text(from).text(room).text(message));
+    }
+    
+    @Override
+    public List<SendResult> sendBatch(String from, List<OutboundMessage> messages) throws RemoteException {
+        WireProtocol.Reader reply = call(WireProtocol.SEND_BATCH, r -> {
+            r.text(from);
+            r.writeInt(messages.size());
+            for (OutboundMessage message : messages) {
+                message.writeExternal(r);
+            }
+        });
+        return decode(reply, r -> {
+            int count = r.readInt();
+            if (count < 0 || count > r.available()) {
+                throw new IOException("Cantidad de resultados inválida: " + count);
+            }
+            List<SendResult> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                SendResult result = new SendResult();
+                result.readExternal(r);
+                results.add(result);
+            }
+            return results;
+        });
+    }
+    
+    @Override
+    public List<String> getRoomMembers(String room) throws RemoteException {
+        return decode(call(WireProtocol.ROOM_MEMBERS, r -> r.text(room)), WireProtocol.Reader::names);
+    }
+    
+    @Override
+    public List<String> getOnlineUsers() throws RemoteException {
+        return decode(call(WireProtocol.ONLINE_USERS, r -> { }), WireProtocol.Reader::names);
+    }
+    
+    @Override
+    public PresenceUpdate getPresenceChanges(long epoch, long sinceVersion) throws RemoteException {
+        WireProtocol.Reader reply = call(WireProtocol.PRESENCE_CHANGES, r -> {
+            r.writeLong(epoch);
+            r.writeLong(sinceVersion);
+        });
+        return decode(reply, r -> {
+            PresenceUpdate update = new PresenceUpdate();
+            update.readExternal(r);
+            return update;
+        });
+    }
+    
+    /**
+     * Las referencias RMI de otros clientes no viajan por esta conexión
+     * @return Siempre null: los mensajes directos van por el servidor
+     */
+    @Override
+    public ChatClientInterface getClientReference(String username) throws RemoteException {
+        return null;
+    }
+    
+    @Override
+    public Map<String, List<String>> getPendingMessages(String username) throws RemoteException {
+        return decode(call(WireProtocol.PENDING_MESSAGES, r -> r.text(username)), r -> {
+            int count = r.readInt();
+            if (count < 0) {
+                throw new IOException("Cantidad inválida: " + count);
+            }
+            Map<String, List<String>> pending = count == 0 ? Collections.emptyMap() : new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                pending.put(r.text(), r.names());
+            }
+            return pending;
+        });
+    }
+    
+    @Override
+    public MessageBatch getMessageBatch(String username) throws RemoteException {
+        return readBatch(call(WireProtocol.MESSAGE_BATCH, r -> r.text(username)));
+    }
+    
+    @Override
+    public MessageBatch fetchMessages(String username, long afterSeq, long maxWaitMillis, int maxBatch)
+            throws RemoteException {
+        long timeoutMillis = Math.max(0, maxWaitMillis) + CALL_TIMEOUT_MS;
+        WireProtocol.Reader reply = exchange(WireProtocol.FETCH_MESSAGES, timeoutMillis, r -> {
+            r.text(username);
+            r.writeLong(afterSeq);
+            r.writeLong(maxWaitMillis);
+            r.writeInt(maxBatch);
+        });
+        return readBatch(ok(reply));
+    }
+    
+    private static MessageBatch readBatch(WireProtocol.Reader reply) throws RemoteException {
+        return decode(reply, r -> {
+            MessageBatch batch = new MessageBatch();
+            batch.readExternal(r);
+            return batch;
+        });
+    }
+    
+    @Override
+    public String negotiateCompression(String username, List<String> codecs) throws RemoteException {
+        return decode(call(WireProtocol.NEGOTIATE_COMPRESSION, r -> r.text(username).names(codecs)),
+                WireProtocol.Reader::text);
+    }
+    
+    @Override
+    public boolean heartbeat(String username) throws RemoteException {
+        return decode(call(WireProtocol.HEARTBEAT, r -> r.text(username)), WireProtocol.Reader::readBoolean);
+    }
+    
+    @Override
+    public String getDeliveryMode() throws RemoteException {
+        return decode(call(WireProtocol.DELIVERY_MODE, r -> { }), WireProtocol.Reader::text);
+    }
+    
+    /**
+     * true si la conexión se cerró (las llamadas fallan con ConnectException)
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Cierra la conexión; el servidor desconecta a los usuarios registrados por ella
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ya estaba cerrada
+        }
+    }
+}
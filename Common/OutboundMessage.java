@@ -0,0 +1,85 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Mensaje por enviar dentro de un lote (ChatServerInterface.sendBatch)
+ * Equivale a una llamada a broadcastMessage, sendDirectMessage o postToRoom;
+ * el remitente es el mismo para todo el lote y no viaja en cada mensaje
+ */
+public class OutboundMessage implements Externalizable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private ChatMessage.Type type;
+    private String target;      // Destinatario en DIRECT, sala en ROOM, null en BROADCAST
+    private String text;
+    
+    /**
+     * Constructor vacío requerido por Externalizable
+     */
+    public OutboundMessage() {
+    }
+    
+    private OutboundMessage(ChatMessage.Type type, String target, String text) {
+        this.type = type;
+        this.target = target;
+        this.text = text;
+    }
+    
+    public static OutboundMessage broadcast(String text) {
+        return new OutboundMessage(ChatMessage.Type.BROADCAST, null, text);
+    }
+    
+    public static OutboundMessage direct(String to, String text) {
+        return new OutboundMessage(ChatMessage.Type.DIRECT, to, text);
+    }
+    
+    public static OutboundMessage room(String room, String text) {
+        return new OutboundMessage(ChatMessage.Type.ROOM, room, text);
+    }
+    
+    /**
+     * BROADCAST, DIRECT o ROOM
+     */
+    public ChatMessage.Type getType() {
+        return type;
+    }
+    
+    public String getTarget() {
+        return target;
+    }
+    
+    public String getText() {
+        return text;
+    }
+    
+    /**
+     * Formato: tipo(1) [destino] texto, ambos como largo(4) y UTF-8 (WireProtocol.writeText)
+     * Sin el límite de 64 KB de writeUTF
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        if (type != ChatMessage.Type.BROADCAST) {
+            WireProtocol.writeText(out, target);
+        }
+        WireProtocol.writeText(out, text);
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        type = ChatMessage.Type.fromCode(in.readUnsignedByte());
+        if (type != ChatMessage.Type.BROADCAST && type != ChatMessage.Type.DIRECT && type != ChatMessage.Type.ROOM) {
+            throw new IOException("Tipo de envío inválido: " + type);
+        }
+        target = type != ChatMessage.Type.BROADCAST ? WireProtocol.readText(in) : null;
+        text = WireProtocol.readText(in);
+    }
+    
+    @Override
+    public String toString() {
+        return type + (target != null ? " -> " + target : "") + ": " + text;
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cambios en la lista de usuarios conectados desde una versión dada
+ * Si el cliente está demasiado atrasado (o el servidor se reinició) llega
+ * la lista completa; si no, solo los que entraron y salieron.
+ * Aplicar los cambios es idempotente: agregar si no está, quitar si está.
+ */
+public class PresenceUpdate implements Externalizable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private long epoch;
+    private long version;
+    private boolean snapshot;
+    private List<String> added;     // Lista completa si snapshot es true
+    private List<String> removed;
+    
+    /**
+     * Constructor vacío requerido por Externalizable
+     */
+    public PresenceUpdate() {
+        this.added = Collections.emptyList();
+        this.removed = Collections.emptyList();
+    }
+    
+    public PresenceUpdate(long epoch, long version, boolean snapshot, List<String> added, List<String> removed) {
+        this.epoch = epoch;
+        this.version = version;
+        this.snapshot = snapshot;
+        this.added = added;
+        this.removed = removed;
+    }
+    
+    /**
+     * Identificador de la instancia del servidor que generó las versiones
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+    
+    /**
+     * Versión de la lista tras aplicar esta actualización
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * true si getAdded() es la lista completa y reemplaza a la anterior
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+    
+    public List<String> getAdded() {
+        return added;
+    }
+    
+    public List<String> getRemoved() {
+        return removed;
+    }
+    
+    public boolean isEmpty() {
+        return !snapshot && added.isEmpty() && removed.isEmpty();
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeLong(epoch);
+        out.writeLong(version);
+        out.writeBoolean(snapshot);
+        writeNames(out, added);
+        writeNames(out, removed);
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        epoch = in.readLong();
+        version = in.readLong();
+        snapshot = in.readBoolean();
+        added = readNames(in);
+        removed = readNames(in);
+    }
+    
+    private static void writeNames(ObjectOutput out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+    
+    private static List<String> readNames(ObjectInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Cantidad inválida: " + count);
+        }
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * El servidor rechazó un envío porque el usuario superó su límite de mensajes
+ * Es una excepción de la aplicación (no de RMI): llega al cliente tal cual,
+ * con el tiempo sugerido antes de reintentar.
+ */
+public class RateLimitedException extends Exception {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final long retryAfterMillis;
+    
+    /**
+     * @param message Descripción del límite superado
+     * @param retryAfterMillis Tiempo hasta que el próximo envío sería aceptado
+     */
+    public RateLimitedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+    
+    /**
+     * Milisegundos que conviene esperar antes de volver a enviar
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * El usuario pertenece a otro nodo del cluster
+ * El servidor que la lanza no registró al usuario; el cliente debe conectarse
+ * al nodo indicado y volver a registrarse ahí.
+ */
+public class RedirectException extends Exception {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final String host;
+    private final int port;
+    private final int nioPort;
+    
+    /**
+     * @param host IP o nombre del nodo que corresponde al usuario
+     * @param port Puerto del registro RMI de ese nodo
+     */
+    public RedirectException(String host, int port) {
+        this(host, port, 0);
+    }
+    
+    /**
+     * @param host IP o nombre del nodo que corresponde al usuario
+     * @param port Puerto del registro RMI de ese nodo
+     * @param nioPort Puerto NIO de ese nodo (0 si no atiende NIO o aún no se conoce)
+     */
+    public RedirectException(String host, int port, int nioPort) {
+        super("El usuario pertenece al nodo " + host + ":" + port);
+        this.host = host;
+        this.port = port;
+        this.nioPort = nioPort;
+    }
+    
+    public String getHost() {
+        return host;
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    public int getNioPort() {
+        return nioPort;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.rmi.RemoteException;
+
+/**
+ * Resultado de un mensaje de un lote (ChatServerInterface.sendBatch)
+ * Un mensaje rechazado no detiene el lote: cada uno trae su propio resultado
+ */
+public class SendResult implements Externalizable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Estado del envío
+     */
+    public enum Status {
+        SENT,           // Aceptado y publicado
+        RATE_LIMITED,   // Rechazado por el límite de envíos del usuario
+        FAILED;         // Rechazado (destinatario desconocido, no es miembro de la sala, ...)
+        
+        private static final Status[] VALUES = values();
+    }
+    
+    private static final SendResult SENT = new SendResult(Status.SENT, null, 0);
+    
+    private Status status;
+    private String error;           // null si se envió
+    private long retryAfterMillis;  // Solo en RATE_LIMITED
+    
+    /**
+     * Constructor vacío requerido por Externalizable
+     */
+    public SendResult() {
+    }
+    
+    private SendResult(Status status, String error, long retryAfterMillis) {
+        this.status = status;
+        this.error = error;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+    
+    public static SendResult sent() {
+        return SENT;
+    }
+    
+    public static SendResult rateLimited(RateLimitedException e) {
+        return new SendResult(Status.RATE_LIMITED, e.getMessage(), e.getRetryAfterMillis());
+    }
+    
+    public static SendResult failed(String error) {
+        return new SendResult(Status.FAILED, error, 0);
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public boolean isSent() {
+        return status == Status.SENT;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+    
+    /**
+     * La excepción que habría lanzado la llamada individual equivalente
+     * @return null si el mensaje se envió
+     */
+    public Exception toException() {
+        switch (status) {
+            case RATE_LIMITED:
+                return new RateLimitedException(error, retryAfterMillis);
+            case FAILED:
+                return new RemoteException(error);
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Formato: estado(1) [error(UTF)] [espera(8)]
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(status.ordinal());
+        if (status != Status.SENT) {
+            out.writeUTF(error != null ? error : "");
+        }
+        if (status == Status.RATE_LIMITED) {
+            out.writeLong(retryAfterMillis);
+        }
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int code = in.readUnsignedByte();
+        if (code >= Status.VALUES.length) {
+            throw new IOException("Estado de envío desconocido: " + code);
+        }
+        status = Status.VALUES[code];
+        error = status != Status.SENT ? in.readUTF() : null;
+        retryAfterMillis = status == Status.RATE_LIMITED ? in.readLong() : 0;
+    }
+    
+    @Override
+    public String toString() {
+        return status + (error != null ? ": " + error : "");
+    }
+}
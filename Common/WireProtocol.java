@@ -0,0 +1,258 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Protocolo binario del transporte NIO (alternativa a RMI)
+ * Cada trama es largo(4) tipo(1) llamada(4) cuerpo, con el largo contando
+ * todo lo que sigue. Las peticiones y respuestas se emparejan por número de
+ * llamada; los avisos del servidor (callbacks de ChatClientInterface) usan
+ * la llamada 0 y viajan por la misma conexión. Lotes y cambios de usuarios
+ * se codifican con su propio writeExternal, sin serialización de Java.
+ */
+public final class WireProtocol {
+    
+    // Bytes de largo, tipo y llamada al inicio de cada trama
+    public static final int HEADER_BYTES = 9;
+    
+    // Largo máximo de una trama (protege al servidor de largos corruptos)
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    
+    // Bytes que readBytes reserva antes de recibirlos (luego duplica a medida que llegan)
+    private static final int READ_CHUNK_BYTES = 64 * 1024;
+    
+    // Peticiones del cliente: una por método de ChatServerInterface
+    public static final byte REGISTER = 1;
+    public static final byte UNREGISTER = 2;
+    public static final byte BROADCAST = 3;
+    public static final byte DIRECT = 4;
+    public static final byte JOIN_ROOM = 5;
+    public static final byte LEAVE_ROOM = 6;
+    public static final byte POST_TO_ROOM = 7;
+    public static final byte ROOM_MEMBERS = 8;
+    public static final byte ONLINE_USERS = 9;
+    public static final byte PRESENCE_CHANGES = 10;
+    public static final byte PENDING_MESSAGES = 11;
+    public static final byte MESSAGE_BATCH = 12;
+    public static final byte FETCH_MESSAGES = 13;
+    public static final byte HEARTBEAT = 14;
+    public static final byte DELIVERY_MODE = 15;
+    public static final byte SEND_BATCH = 16;
+    public static final byte NEGOTIATE_COMPRESSION = 17;
+    
+    // Respuestas del servidor
+    public static final byte OK = 64;
+    public static final byte ERROR = 65;            // Mensaje de error (RemoteException)
+    public static final byte RATE_LIMITED = 66;     // Mensaje y espera sugerida (RateLimitedException)
+    public static final byte REDIRECT = 67;         // Host, puerto RMI y puerto NIO del nodo (RedirectException)
+    
+    // Avisos del servidor: uno por método de ChatClientInterface, con el usuario destino primero
+    public static final byte PUSH_MESSAGE = 96;
+    public static final byte PUSH_ROOM_MESSAGE = 97;
+    public static final byte PUSH_USER_JOINED = 98;
+    public static final byte PUSH_USER_LEFT = 99;
+    
+    private WireProtocol() {
+    }
+    
+    /**
+     * Trama en construcción
+     * Es un ObjectOutput para que MessageBatch y PresenceUpdate escriban con
+     * su propio formato; no admite objetos serializables
+     */
+    public static final class Writer extends DataOutputStream implements ObjectOutput {
+        
+        /**
+         * @param type Tipo de trama
+         * @param callId Llamada a la que pertenece (0 en los avisos)
+         */
+        public Writer(byte type, int callId) {
+            super(new FrameBuffer());
+            try {
+                writeInt(0);    // Largo, se completa en toFrame
+                writeByte(type);
+                writeInt(callId);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        @Override
+        public void writeObject(Object obj) throws IOException {
+            throw new NotSerializableException("El protocolo NIO no serializa objetos: "
+                    + (obj != null ? obj.getClass().getName() : "null"));
+        }
+        
+        /**
+         * Texto sin límite de largo (writeUTF admite hasta 64 KB); null permitido
+         */
+        public Writer text(String value) throws IOException {
+            writeText(this, value);
+            return this;
+        }
+        
+        public Writer names(List<String> names) throws IOException {
+            writeInt(names.size());
+            for (String name : names) {
+                text(name);
+            }
+            return this;
+        }
+        
+        /**
+         * Trama lista para escribir en el canal (con el largo completado)
+         */
+        public ByteBuffer toFrame() {
+            return ((FrameBuffer) out).toFrame();
+        }
+    }
+    
+    // Buffer que expone su arreglo para no copiarlo al armar la trama
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+        
+        FrameBuffer() {
+            super(128);
+        }
+        
+        ByteBuffer toFrame() {
+            int length = count - 4;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+    
+    /**
+     * Cuerpo de una trama recibida
+     * Es un ObjectInput para que MessageBatch y PresenceUpdate lean con su propio formato
+     */
+    public static final class Reader extends DataInputStream implements ObjectInput {
+        
+        private final byte type;
+        private final int callId;
+        
+        public Reader(byte type, int callId, byte[] body) {
+            super(new ByteArrayInputStream(body));
+            this.type = type;
+            this.callId = callId;
+        }
+        
+        public byte getType() {
+            return type;
+        }
+        
+        public int getCallId() {
+            return callId;
+        }
+        
+        @Override
+        public Object readObject() throws IOException {
+            throw new NotSerializableException("El protocolo NIO no serializa objetos");
+        }
+        
+        /**
+         * Lee un texto escrito con Writer.text
+         */
+        public String text() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                return null;
+            }
+            if (length > available()) {
+                throw new IOException("Largo de texto inválido: " + length);
+            }
+            byte[] bytes = new byte[length];
+            readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        public List<String> names() throws IOException {
+            int count = readInt();
+            if (count < 0 || count > available() / 4) {
+                throw new IOException("Cantidad de nombres inválida: " + count);
+            }
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            List<String> names = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                names.add(text());
+            }
+            return names;
+        }
+    }
+    
+    /**
+     * Escribe un texto con el formato de Writer.text: largo(4) y UTF-8, -1 si es null
+     * Para clases Externalizable que viajan también por RMI
+     */
+    public static void writeText(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+    
+    /**
+     * Lee un texto escrito con writeText de cualquier entrada
+     * Por RMI available() no indica cuánto queda, así que el largo no se compara
+     * con él: los bytes se leen con readBytes
+     */
+    public static String readText(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(readBytes(in, length), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Lee length bytes sin reservarlos de una vez: el arreglo empieza en 64 KB y
+     * se duplica a medida que llegan, así un largo falso no reserva memoria que
+     * el otro lado no envió
+     */
+    public static byte[] readBytes(DataInput in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Largo inválido: " + length);
+        }
+        byte[] bytes = new byte[Math.min(length, READ_CHUNK_BYTES)];
+        int filled = 0;
+        while (filled < length) {
+            if (filled == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+            }
+            in.readFully(bytes, filled, bytes.length - filled);
+            filled = bytes.length;
+        }
+        return bytes;
+    }
+    
+    /**
+     * Revisa el largo leído al inicio de una trama
+     * @throws IOException si no puede ser una trama válida
+     */
+    public static int checkLength(int length) throws IOException {
+        if (length < HEADER_BYTES - 4 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Largo de trama inválido: " + length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro (log) asíncrono del servidor
+ * Los hilos RMI solo dejan el evento en un buffer circular; un hilo de fondo
+ * da formato al texto y escribe en System.out por lotes. Nunca bloquea a
+ * quien registra: con el buffer lleno el evento se descarta y se cuenta.
+ *
+ * Nivel mínimo con -Dchat.log.level=DEBUG|INFO|WARN|ERROR (por defecto INFO)
+ * y tamaño del buffer con -Dchat.log.buffer (por defecto 8192 eventos)
+ */
+public final class AsyncLog {
+    
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+    
+    /**
+     * Evento pendiente de escribir; el texto se arma en el hilo de escritura
+     */
+    private static final class Event {
+        final long timestamp;
+        final Level level;
+        final String template;
+        final Object[] args;
+        
+        Event(long timestamp, Level level, String template, Object[] args) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.template = template;
+            this.args = args;
+        }
+    }
+    
+    // Tamaño máximo de texto acumulado antes de escribir
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+    
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    
+    private static final Level THRESHOLD = parseLevel(System.getProperty("chat.log.level", "INFO"));
+    
+    // Buffer circular: los productores reservan posición con CAS sobre 'tail',
+    // el único lector avanza 'head'
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("chat.log.buffer", 8192)));
+    private static final int MASK = CAPACITY - 1;
+    private static final AtomicReferenceArray<Event> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head;
+    
+    // Eventos descartados por buffer lleno (se reportan al escribir)
+    private static final LongAdder dropped = new LongAdder();
+    
+    private static volatile boolean writerWaiting;
+    private static final Thread writer;
+    
+    static {
+        writer = new Thread(AsyncLog::writeLoop, "chat-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "chat-log-flush"));
+    }
+    
+    private AsyncLog() {
+    }
+    
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+    
+    public static void debug(String template, Object... args) {
+        log(Level.DEBUG, template, args);
+    }
+    
+    public static void info(String template, Object... args) {
+        log(Level.INFO, template, args);
+    }
+    
+    public static void warn(String template, Object... args) {
+        log(Level.WARN, template, args);
+    }
+    
+    public static void error(String template, Object... args) {
+        log(Level.ERROR, template, args);
+    }
+    
+    /**
+     * Registra un evento; cada {} de la plantilla se reemplaza por el siguiente argumento
+     * @return false si el nivel está desactivado o el buffer estaba lleno
+     */
+    public static boolean log(Level level, String template, Object... args) {
+        if (!isEnabled(level)) {
+            return false;
+        }
+        Event event = new Event(System.currentTimeMillis(), level, template, args);
+        
+        long position;
+        do {
+            position = tail.get();
+            if (position - head >= CAPACITY) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(position, position + 1));
+        slots.set((int) position & MASK, event);
+        
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+    
+    /**
+     * Crea un registro limitado: como máximo un evento por intervalo,
+     * los demás se cuentan y se informan con el siguiente
+     */
+    public static RateLimited rateLimited(long interval, TimeUnit unit) {
+        return new RateLimited(unit.toNanos(interval));
+    }
+    
+    /**
+     * Registro limitado por tasa para eventos que pueden repetirse por cada mensaje
+     */
+    public static final class RateLimited {
+        
+        private final long intervalNanos;
+        private final AtomicLong lastLogged;
+        private final LongAdder suppressed = new LongAdder();
+        
+        private RateLimited(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+            this.lastLogged = new AtomicLong(System.nanoTime() - intervalNanos);
+        }
+        
+        public void log(Level level, String template, Object... args) {
+            if (!isEnabled(level)) {
+                return;
+            }
+            long now = System.nanoTime();
+            long last = lastLogged.get();
+            if (now - last < intervalNanos || !lastLogged.compareAndSet(last, now)) {
+                suppressed.increment();
+                return;
+            }
+            long omitted = suppressed.sumThenReset();
+            AsyncLog.log(level, omitted > 0 ? template + " (+" + omitted + " similares omitidos)" : template, args);
+        }
+    }
+    
+    /**
+     * Espera a que se escriban los eventos registrados hasta ahora
+     * @param timeoutMillis Tiempo máximo de espera
+     */
+    public static void flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (head < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+    
+    /**
+     * Hilo de escritura: vacía el buffer por lotes y duerme cuando no hay eventos
+     */
+    private static void writeLoop() {
+        StringBuilder text = new StringBuilder(4096);
+        while (true) {
+            long position = head;
+            Event event = slots.get((int) position & MASK);
+            if (event != null) {
+                slots.set((int) position & MASK, null);
+                head = position + 1;
+                format(text, event);
+                if (text.length() < MAX_BATCH_CHARS) {
+                    continue;
+                }
+            }
+            
+            long lost = dropped.sumThenReset();
+            if (lost > 0) {
+                text.append(TIME_FORMAT.format(Instant.now())).append(" [WARN] ")
+                    .append(lost).append(" eventos de log descartados (buffer lleno)\n");
+            }
+            if (text.length() > 0) {
+                PrintStream out = System.out;
+                out.print(text);
+                out.flush();
+                text.setLength(0);
+            }
+            
+            if (event != null || position < tail.get()) {
+                // Quedan eventos, o hay una posición reservada cuyo evento aún no se publicó
+                Thread.onSpinWait();
+                continue;
+            }
+            writerWaiting = true;
+            if (head == tail.get()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            writerWaiting = false;
+        }
+    }
+    
+    private static void format(StringBuilder text, Event event) {
+        text.append(TIME_FORMAT.format(Instant.ofEpochMilli(event.timestamp)))
+            .append(" [").append(event.level).append("] ");
+        String template = event.template;
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf("{}", start)) >= 0) {
+            text.append(template, start, placeholder);
+            if (event.args != null && argIndex < event.args.length) {
+                text.append(event.args[argIndex++]);
+            } else {
+                text.append("{}");
+            }
+            start = placeholder + 2;
+        }
+        text.append(template, start, template.length()).append('\n');
+    }
+    
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sala de chat con sus propios miembros y su propio registro de mensajes
+ * Un mensaje a la sala se agrega una vez a su registro y solo se despierta
+ * a sus miembros, así que el costo depende del tamaño de la sala y no del
+ * total de usuarios. Cada sala tiene su estado aparte: la actividad de una
+ * no compite por candados ni memoria con las demás.
+ */
+public class ChatRoom {
+    
+    private final String name;
+    
+    // Mensajes de la sala; cada miembro lee con su propio cursor
+    private final RoomLog<ChatMessage> log;
+    
+    // Miembros: Map<username, sesión>
+    private final Map<String, UserSession> members = new ConcurrentHashMap<>();
+    
+    /**
+     * @param maxLag Mensajes sin leer que un miembro puede acumular antes de avisar
+     * @param lagListener Política de desborde para los miembros atrasados
+     */
+    public ChatRoom(String name, long maxLag, RoomLog.LagListener<ChatMessage> lagListener) {
+        this.name = name;
+        this.log = new RoomLog<>(maxLag, lagListener);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public RoomLog<ChatMessage> getLog() {
+        return log;
+    }
+    
+    /**
+     * Agrega un miembro con un cursor que verá los mensajes desde ahora
+     * @return false si ya era miembro
+     */
+    public boolean join(UserSession session) {
+        if (members.putIfAbsent(session.getUsername(), session) != null) {
+            return false;
+        }
+        RoomLog.Cursor cursor = log.openCursor();
+        cursor.attach(session);
+        session.joinRoom(this, cursor);
+        return true;
+    }
+    
+    /**
+     * Quita un miembro y cierra su cursor
+     * @return false si no era miembro
+     */
+    public boolean leave(UserSession session) {
+        if (!members.remove(session.getUsername(), session)) {
+            return false;
+        }
+        RoomLog.Cursor cursor = session.leaveRoom(this);
+        if (cursor != null) {
+            log.closeCursor(cursor);
+        }
+        return true;
+    }
+    
+    public boolean isMember(UserSession session) {
+        return members.get(session.getUsername()) == session;
+    }
+    
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+    
+    public int size() {
+        return members.size();
+    }
+    
+    /**
+     * Agrega un mensaje al registro de la sala
+     */
+    public void append(ChatMessage message) {
+        log.append(message);
+    }
+    
+    public List<String> getMemberNames() {
+        return new ArrayList<>(members.keySet());
+    }
+    
+    public Iterable<UserSession> getMembers() {
+        return members.values();
+    }
+}
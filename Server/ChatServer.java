@@ -1,9 +1,18 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.RemoteObject;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
 /**
  * Implementación del servidor de chat RMI
@@ -11,44 +20,282 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ChatServer extends UnicastRemoteObject implements ChatServerInterface {
     
-    // Mapa thread-safe de usuarios conectados
-    private Map<String, ChatClientInterface> connectedClients;
+    /**
+     * Qué hacer con un usuario que acumula más mensajes pendientes que el límite
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST,    // Saltar los más antiguos: recibe los últimos N
+        DROP_NEWEST,    // Conservar los N más antiguos y descartar lo que siga llegando
+        DISCONNECT;     // Desconectarlo (sus mensajes pasan al almacén de desconectados)
+        
+        public static OverflowPolicy parse(String value) {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+    
+    // Plazo de cada callback push en ms (-Dchat.delivery.timeout, 0 = sin plazo)
+    private static final long CALLBACK_TIMEOUT_MILLIS = Long.getLong("chat.delivery.timeout", 10000L);
+    
+    // Usuarios conectados con su estado (referencia, buzón y cursor): Map<username, sesión>
+    // El registro es atómico (putIfAbsent), sin un candado global del servidor
+    private final Map<String, UserSession> sessions;
+    
+    // Capacidad de cada buzón (-Dchat.mailbox.capacity)
+    private final int mailboxCapacity;
+    
+    // Máximo de broadcasts sin leer por usuario (-Dchat.queue.max) y política al superarlo
+    private final int maxQueuedMessages;
+    private final OverflowPolicy overflowPolicy;
+    
+    // Registro compartido de broadcasts y avisos del sistema
+    private final RoomLog<ChatMessage> roomLog;
+    
+    // Salas con al menos un miembro: Map<nombre, sala>
+    // Cada sala tiene sus miembros y su registro; crearla o eliminarla solo toma el candado de su entrada
+    private final Map<String, ChatRoom> rooms;
+    
+    // Secuencia global de mensajes (ordena broadcasts y directos entre sí)
+    private final AtomicLong messageSequence;
+    
+    // Entradas y salidas versionadas para actualizar la lista de usuarios por diferencias
+    private final PresenceLog presence;
+    
+    // Consultas long-poll en espera de mensajes
+    private final LongPollRegistry longPolls;
+    
+    // Tiempo máximo que una consulta puede quedar en espera (-Dchat.longpoll.maxWait)
+    private final long maxLongPollMillis;
+    
+    // Bytes de texto desde los que se comprime un lote para quien acordó un códec (0 = nunca)
+    private final int compressThreshold;
+    
+    // Máximo de mensajes por llamada a sendBatch (-Dchat.send.maxBatch)
+    private final int maxSendBatch;
+    
+    // Modo de entrega: "push" (callbacks), "longpoll" (fetchMessages) o "poll" (getPendingMessages)
+    private final String deliveryMode;
+    
+    // Motor de entrega push (null en modo poll)
+    private final DeliveryEngine deliveryEngine;
+    
+    // Journal en disco de los mensajes (null si no se indicó -Dchat.journal.dir)
+    private final MessageJournal journal;
+    
+    // Mensajes guardados para usuarios desconectados
+    private final OfflineStore offline;
+    
+    // Leases de actividad: desconecta a quien no consulta ni envía heartbeat (null si -Dchat.lease.ms=0)
+    private final LeaseWheel<UserSession> leases;
+    
+    // Límite de envíos por usuario: mensajes por segundo y ráfaga (tasa 0 = sin límite)
+    private final double broadcastRate;
+    private final int broadcastBurst;
+    private final double directRate;
+    private final int directBurst;
     
-    // Cola de mensajes pendientes por usuario: Map<username, List<mensaje>>
-    private Map<String, List<String>> pendingMessages;
+    // Límites compartidos por los remitentes que no están registrados
+    private final TokenBucket unregisteredBroadcasts;
+    private final TokenBucket unregisteredDirects;
+    
+    // Cluster de servidores (null si este nodo trabaja solo; ver joinCluster)
+    private volatile Cluster cluster;
+    
+    // Puerto del transporte NIO de este nodo (0 si no atiende NIO; ver attachNio)
+    private volatile int nioPort;
+    
+    // Usuarios conectados a otros nodos del cluster: Map<username, nodo>
+    private final Map<String, String> remoteUsers = new ConcurrentHashMap<>();
+    
+    // Miembros de salas conectados a otros nodos: Map<sala, Map<username, nodo>>
+    private final Map<String, Map<String, String>> remoteRoomMembers = new ConcurrentHashMap<>();
+    
+    // Métricas del servidor (JMX y endpoint de texto)
+    private final ServerMetrics metrics;
+    
+    // Cuenta los bytes de cada lote serializado (una sola instancia, sin asignar por consulta)
+    private final LongConsumer serializedBytes;
+    
+    // Cuenta los bytes antes y después de comprimir cada lote comprimido
+    private final MessageBatch.CompressionListener compressedBytes;
+    
+    // Aviso de buzón lleno: como máximo uno por segundo
+    private final AsyncLog.RateLimited mailboxFullLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    
+    // Usuario atrasado o desconectado por atraso: como máximo un aviso por segundo
+    private final AsyncLog.RateLimited queueOverflowLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    
+    // Envío rechazado por límite de tasa: como máximo un aviso por segundo
+    private final AsyncLog.RateLimited throttleLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    
+    // Error de escritura del journal: como máximo uno por segundo
+    private final AsyncLog.RateLimited journalErrorLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
     
     /**
      * Constructor del servidor
+     * El modo de entrega se elige con -Dchat.delivery=push|longpoll|poll (por defecto push)
      */
     public ChatServer() throws RemoteException {
         super();
-        connectedClients = new ConcurrentHashMap<>();
-        pendingMessages = new ConcurrentHashMap<>();
-        System.out.println("[INFO] Servidor de chat inicializado");
+        sessions = new ConcurrentHashMap<>();
+        mailboxCapacity = Integer.getInteger("chat.mailbox.capacity", 10000);
+        maxQueuedMessages = Math.max(1, Integer.getInteger("chat.queue.max", 10000));
+        overflowPolicy = OverflowPolicy.parse(System.getProperty("chat.queue.overflow", "drop-oldest"));
+        roomLog = new RoomLog<>(maxQueuedMessages, this::handleLaggingCursor);
+        rooms = new ConcurrentHashMap<>();
+        journal = openJournal();
+        messageSequence = new AtomicLong(journal != null ? journal.nextSequence() : 0);
+        longPolls = new LongPollRegistry();
+        presence = new PresenceLog(Integer.getInteger("chat.presence.history", 1024));
+        maxLongPollMillis = Long.getLong("chat.longpoll.maxWait", 30000L);
+        maxSendBatch = Math.max(1, Integer.getInteger("chat.send.maxBatch", 1000));
+        compressThreshold = Math.max(0, Integer.getInteger("chat.compress.threshold", 4096));
+        offline = openOfflineStore(roomLog);
+        metrics = new ServerMetrics(sessions, roomLog, rooms, offline);
+        serializedBytes = metrics::addBytesSerialized;
+        compressedBytes = metrics::batchCompressed;
+        
+        broadcastRate = Double.parseDouble(System.getProperty("chat.rate.broadcast", "5"));
+        broadcastBurst = Integer.getInteger("chat.rate.broadcast.burst", 20);
+        directRate = Double.parseDouble(System.getProperty("chat.rate.direct", "20"));
+        directBurst = Integer.getInteger("chat.rate.direct.burst", 40);
+        unregisteredBroadcasts = newLimit(broadcastRate, broadcastBurst);
+        unregisteredDirects = newLimit(directRate, directBurst);
+        
+        // El lease debe durar más que la espera máxima de un long-poll
+        long leaseMillis = Long.getLong("chat.lease.ms", 45000L);
+        leases = leaseMillis > 0
+                ? new LeaseWheel<>(Math.max(leaseMillis, maxLongPollMillis + 1000),
+                        Long.getLong("chat.lease.tick", 1000L), this::expireSession)
+                : null;
+        
+        String mode = System.getProperty("chat.delivery", DELIVERY_PUSH);
+        if (DELIVERY_POLL.equalsIgnoreCase(mode)) {
+            deliveryMode = DELIVERY_POLL;
+        } else if (DELIVERY_LONG_POLL.equalsIgnoreCase(mode)) {
+            deliveryMode = DELIVERY_LONG_POLL;
+        } else {
+            deliveryMode = DELIVERY_PUSH;
+        }
+        if (DELIVERY_PUSH.equals(deliveryMode)) {
+            int senderThreads = Integer.getInteger("chat.delivery.threads",
+                    Math.max(2, Runtime.getRuntime().availableProcessors()));
+            deliveryEngine = new DeliveryEngine(roomLog, senderThreads, CALLBACK_TIMEOUT_MILLIS,
+                    this::handleUnreachableClient, this::recordDelivered);
+        } else {
+            deliveryEngine = null;
+        }
+        
+        AsyncLog.info("Servidor de chat inicializado (entrega: {})", deliveryMode);
+    }
+    
+    /**
+     * Abre el journal si se indicó -Dchat.journal.dir
+     * Durabilidad con -Dchat.journal.durability=none|batch|every (por defecto batch)
+     */
+    private static MessageJournal openJournal() throws RemoteException {
+        String dir = System.getProperty("chat.journal.dir");
+        if (dir == null) {
+            return null;
+        }
+        try {
+            MessageJournal.Durability durability =
+                    MessageJournal.Durability.parse(System.getProperty("chat.journal.durability", "batch"));
+            MessageJournal opened = new MessageJournal(Paths.get(dir), durability,
+                    Long.getLong("chat.journal.segmentBytes", 64L * 1024 * 1024),
+                    Long.getLong("chat.journal.syncInterval", 50L),
+                    Long.getLong("chat.offline.ttl", TimeUnit.HOURS.toMillis(24)));
+            AsyncLog.info("Journal de mensajes en {} (durabilidad: {})", dir, durability);
+            return opened;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RemoteException("No se pudo abrir el journal en " + dir, e);
+        }
+    }
+    
+    /**
+     * Almacén para usuarios desconectados: -Dchat.offline.ttl (ms, 24 h), -Dchat.offline.quota
+     * (mensajes por usuario), -Dchat.offline.memory (directos en memoria antes de pasar a disco),
+     * -Dchat.offline.openFiles (archivos de directos abiertos a la vez)
+     * y -Dchat.offline.dir (carpeta temporal del sistema por defecto)
+     */
+    private static OfflineStore openOfflineStore(RoomLog<ChatMessage> roomLog) throws RemoteException {
+        String dir = System.getProperty("chat.offline.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "chat-offline").toString());
+        try {
+            return new OfflineStore(roomLog, Paths.get(dir),
+                    Integer.getInteger("chat.offline.memory", 200),
+                    Integer.getInteger("chat.offline.quota", 1000),
+                    Long.getLong("chat.offline.ttl", TimeUnit.HOURS.toMillis(24)),
+                    Integer.getInteger("chat.offline.openFiles", 64));
+        } catch (IOException e) {
+            throw new RemoteException("No se pudo crear el almacén de mensajes en " + dir, e);
+        }
+    }
+    
+    private boolean isPushDelivery() {
+        return deliveryEngine != null;
     }
     
     /**
      * Registra un nuevo cliente en el chat
      */
     @Override
-    public synchronized boolean registerClient(String username, ChatClientInterface clientRef) 
-            throws RemoteException {
+    public boolean registerClient(String username, ChatClientInterface clientRef) 
+            throws RemoteException, RedirectException {
+        
+        // En un cluster cada usuario se registra en el nodo que le asigna el anillo
+        Cluster current = cluster;
+        if (current != null && !current.isLocal(username)) {
+            String home = current.homeOf(username);
+            throw new RedirectException(Cluster.hostOf(home), Cluster.portOf(home), current.nioPortOf(home));
+        }
+        
+        // Registrar el cliente con su buzón y su cursor en el registro de la sala
+        Mailbox<ChatMessage> mailbox = new Mailbox<>(mailboxCapacity);
+        RoomLog.Cursor cursor = roomLog.openCursor();
+        UserSession session = new UserSession(username, clientRef, mailbox, cursor,
+                newLimit(broadcastRate, broadcastBurst), newLimit(directRate, directBurst));
+        cursor.attach(session);
         
-        // Verificar si el nombre de usuario ya existe
-        if (connectedClients.containsKey(username)) {
-            System.out.println("[ERROR] Intento de registro fallido: " + username + " (nombre ya existe)");
+        // Solo gana un registro por nombre de usuario
+        if (sessions.putIfAbsent(username, session) != null) {
+            roomLog.closeCursor(cursor);
+            AsyncLog.error("Intento de registro fallido: {} (nombre ya existe)", username);
             return false;
         }
         
-        // Registrar el cliente
-        connectedClients.put(username, clientRef);
-        pendingMessages.putIfAbsent(username, new ArrayList<>());
+        if (leases != null) {
+            session.setLease(leases.add(session));
+        }
+        AsyncLog.info("Usuario conectado: {} (Total: {})", username, sessions.size());
+        presence.update(username, this::isOnline);
+        if (journal != null) {
+            restoreFromJournal(session);
+        }
+        
+        // Mensajes que llegaron mientras estaba desconectado (los broadcasts hasta donde empieza su cursor)
+        List<ChatMessage> stored = offline.userReturned(username, cursor.position());
+        for (ChatMessage message : stored) {
+            if (!session.getMailbox().offer(message)) {
+                metrics.mailboxDrop();
+            }
+        }
+        if (!stored.isEmpty()) {
+            AsyncLog.info("Entregando {} mensajes guardados a {}", stored.size(), username);
+        }
         
-        System.out.println("[INFO] Usuario conectado: " + username + 
-                          " (Total: " + connectedClients.size() + ")");
+        // Notificar a todos los demás clientes
+        notifyUserJoined(session);
         
-        // Notificar a todos los demás clientes (encolando mensaje)
-        notifyUserJoined(username);
+        // El canal push se abre después de saltar el propio aviso de ingreso
+        if (isPushDelivery()) {
+            deliveryEngine.register(session);
+            if (sessions.get(username) != session) {
+                // Se desregistró mientras se abría el canal
+                deliveryEngine.unregister(session);
+            } else {
+                deliveryEngine.wake(username);
+            }
+        }
         
         return true;
     }
@@ -57,62 +304,297 @@ public class ChatServer extends UnicastRemoteObject implements ChatServerInterfa
      * Desregistra un cliente del chat
      */
     @Override
-    public synchronized void unregisterClient(String username) throws RemoteException {
-        if (connectedClients.remove(username) != null) {
-            System.out.println("[INFO] Usuario desconectado: " + username + 
-                              " (Total: " + connectedClients.size() + ")");
-            
-            // Notificar a todos los clientes
-            notifyUserLeft(username);
+    public void unregisterClient(String username) throws RemoteException {
+        UserSession session = sessions.get(username);
+        if (session != null) {
+            unregisterSession(session);
+        }
+    }
+    
+    /**
+     * Desregistra una sesión solo si sigue siendo la vigente de su usuario
+     * Quien la detectó (atraso, lease vencido, conexión cerrada) no desarma
+     * una sesión nueva que el usuario abrió con el mismo nombre
+     * @return false si la sesión ya no estaba registrada
+     */
+    private boolean unregisterSession(UserSession session) {
+        String username = session.getUsername();
+        // Sus mensajes empiezan a guardarse (y su cursor del journal se suelta) en el
+        // mismo paso que libera el nombre: un registro nuevo espera a que termine
+        // y recibe lo guardado
+        boolean[] removed = new boolean[1];
+        sessions.computeIfPresent(username, (name, current) -> {
+            if (current != session) {
+                return current;
+            }
+            offline.userLeft(name, session.getCursor().position());
+            if (journal != null) {
+                journal.forget(name);
+            }
+            removed[0] = true;
+            return null;
+        });
+        if (!removed[0]) {
+            return false;
         }
+        if (session.getLease() != null) {
+            session.getLease().cancel();
+        }
+        if (isPushDelivery()) {
+            deliveryEngine.unregister(session);
+        }
+        AsyncLog.info("Usuario desconectado: {} (Total: {})", username, sessions.size());
+        presence.update(username, this::isOnline);
+        for (ChatRoom room : new ArrayList<>(session.getRooms())) {
+            leaveRoom(session, room);
+        }
+        
+        // Notificar a todos los clientes
+        notifyUserLeft(session);
+        return true;
     }
     
     /**
-     * Envía un mensaje a todos los clientes conectados (guardando en cola)
+     * Envía un mensaje a todos los clientes conectados
+     * Se publica una sola vez en el registro de la sala
      */
     @Override
-    public void broadcastMessage(String from, String message) throws RemoteException {
-        System.out.println("[BROADCAST] " + from + ": " + message);
+    public void broadcastMessage(String from, String message) throws RemoteException, RateLimitedException {
+        UserSession sender = sessions.get(from);
+        checkRate(from, sender != null ? sender.getBroadcastLimit() : unregisteredBroadcasts, true);
+        if (sender != null) {
+            sender.renewLease();
+        }
+        ChatMessage broadcast = ChatMessage.of(messageSequence.getAndIncrement(), ChatMessage.Type.BROADCAST, from, null, message);
+        publish(broadcast);
+        forwardToCluster(broadcast);
+        metrics.broadcastSent();
         
-        String fullMessage = "[BROADCAST] " + from + ": " + message;
+        // Registro por mensaje solo en DEBUG (evita armar los argumentos si está desactivado)
+        if (AsyncLog.isEnabled(AsyncLog.Level.DEBUG)) {
+            AsyncLog.debug("[BROADCAST] {}: {} (publicado para {} usuarios)", from, message, sessions.size());
+        }
+    }
+    
+    /**
+     * Envía un mensaje directo a un usuario específico (via buzón)
+     * Si el destinatario salió, se le guarda hasta que vuelva
+     */
+    @Override
+    public void sendDirectMessage(String from, String to, String message) throws RemoteException, RateLimitedException {
+        UserSession sender = sessions.get(from);
+        checkRate(from, sender != null ? sender.getDirectLimit() : unregisteredDirects, false);
+        if (sender != null) {
+            sender.renewLease();
+        }
+        ChatMessage direct = ChatMessage.of(messageSequence.getAndIncrement(), ChatMessage.Type.DIRECT, from, to, message);
+        UserSession recipient = sessions.get(to);
+        Cluster current = cluster;
+        if (recipient != null) {
+            enqueue(recipient, direct);
+        } else if (current != null && !current.isLocal(to)) {
+            // Lo entrega (o lo guarda) el nodo del destinatario
+            current.forwardTo(current.homeOf(to), direct);
+        } else if (!offline.store(to, direct)) {
+            // Pudo registrarse justo ahora; si no, es un usuario desconocido
+            recipient = sessions.get(to);
+            if (recipient == null) {
+                throw new RemoteException("Usuario " + to + " no está conectado");
+            }
+            enqueue(recipient, direct);
+        }
         
-        // Agregar mensaje a la cola de TODOS los clientes
-        for (String username : connectedClients.keySet()) {
-            pendingMessages.computeIfAbsent(username, k -> new ArrayList<>()).add(fullMessage);
+        // Encolar confirmación para el remitente (en modo push la muestra el propio cliente)
+        if (!isPushDelivery()) {
+            if (sender != null) {
+                enqueue(sender, ChatMessage.of(
+                        messageSequence.getAndIncrement(), ChatMessage.Type.DIRECT_SENT, from, to, message));
+            }
         }
+        metrics.directSent();
         
-        System.out.println("[INFO] Mensaje encolado para " + connectedClients.size() + " usuarios");
+        if (AsyncLog.isEnabled(AsyncLog.Level.DEBUG)) {
+            AsyncLog.debug("[DIRECTO] {} -> {}: {}", from, to, message);
+        }
     }
     
     /**
-     * Envía un mensaje directo a un usuario específico (via cola)
+     * Une a un usuario a una sala, creándola si no existe
      */
     @Override
-    public void sendDirectMessage(String from, String to, String message) throws RemoteException {
-        System.out.println("[DIRECTO] " + from + " -> " + to + ": " + message);
-        
-        // Verificar que el destinatario existe
-        if (!connectedClients.containsKey(to)) {
-            throw new RemoteException("Usuario " + to + " no está conectado");
+    public boolean joinRoom(String username, String room) throws RemoteException {
+        UserSession session = sessions.get(username);
+        if (session == null) {
+            throw new RemoteException("Usuario " + username + " no está conectado");
+        }
+        if (room == null || room.isBlank()) {
+            throw new RemoteException("Nombre de sala vacío");
         }
+        session.renewLease();
         
-        // Encolar mensaje para el destinatario
-        String messageForRecipient = "[DIRECTO de " + from + "] " + message;
-        pendingMessages.computeIfAbsent(to, k -> new ArrayList<>()).add(messageForRecipient);
+        // La sala se crea y se une con el candado de su entrada: no compite con otras salas
+        boolean[] joined = new boolean[1];
+        ChatRoom target = rooms.compute(room, (name, existing) -> {
+            ChatRoom current = existing != null ? existing : new ChatRoom(name, maxQueuedMessages, this::handleLaggingCursor);
+            joined[0] = current.join(session);
+            return current;
+        });
+        if (sessions.get(username) != session) {
+            // Se desregistró mientras se unía
+            leaveRoom(session, target);
+            return false;
+        }
+        if (joined[0]) {
+            AsyncLog.info("{} se unió a la sala {} ({} miembros)", username, room, target.size());
+            // Los demás nodos le reenvían desde ahora los mensajes de la sala
+            forwardToCluster(ChatMessage.of(messageSequence.getAndIncrement(),
+                    ChatMessage.Type.ROOM_JOINED, username, room, null));
+        }
+        return joined[0];
+    }
+    
+    /**
+     * Saca a un usuario de una sala
+     */
+    @Override
+    public void leaveRoom(String username, String room) throws RemoteException {
+        UserSession session = sessions.get(username);
+        ChatRoom target = rooms.get(room);
+        if (session != null && target != null) {
+            session.renewLease();
+            leaveRoom(session, target);
+        }
+    }
+    
+    /**
+     * Quita al usuario de la sala y la elimina si quedó vacía
+     */
+    private void leaveRoom(UserSession session, ChatRoom room) {
+        if (room.leave(session)) {
+            AsyncLog.info("{} salió de la sala {}", session.getUsername(), room.getName());
+            forwardToCluster(ChatMessage.of(messageSequence.getAndIncrement(),
+                    ChatMessage.Type.ROOM_LEFT, session.getUsername(), room.getName(), null));
+        }
+        rooms.computeIfPresent(room.getName(), (name, current) -> current.isEmpty() ? null : current);
+    }
+    
+    /**
+     * Envía un mensaje a una sala
+     * Se agrega una sola vez al registro de la sala y solo se despierta a sus miembros
+     */
+    @Override
+    public void postToRoom(String from, String room, String message) throws RemoteException, RateLimitedException {
+        UserSession sender = sessions.get(from);
+        if (sender == null) {
+            throw new RemoteException("Usuario " + from + " no está conectado");
+        }
+        checkRate(from, sender.getBroadcastLimit(), true);
+        sender.renewLease();
         
-        // Encolar confirmación para el remitente
-        String confirmationForSender = "[Tú → " + to + " (Directo)] " + message;
-        pendingMessages.computeIfAbsent(from, k -> new ArrayList<>()).add(confirmationForSender);
+        ChatRoom target = rooms.get(room);
+        if (target == null || !target.isMember(sender)) {
+            throw new RemoteException("No eres miembro de la sala " + room);
+        }
+        ChatMessage post = ChatMessage.of(messageSequence.getAndIncrement(), ChatMessage.Type.ROOM, from, room, message);
+        appendToRoom(target, post);
+        // Los miembros de otros nodos están en la sala del mismo nombre en su nodo
+        forwardToRoomNodes(room, post);
+        metrics.roomMessageSent();
         
-        System.out.println("[INFO] Mensaje directo encolado");
+        if (AsyncLog.isEnabled(AsyncLog.Level.DEBUG)) {
+            AsyncLog.debug("[SALA {}] {}: {} ({} miembros)", room, from, message, target.size());
+        }
+    }
+    
+    /**
+     * Envía un lote de mensajes de un mismo remitente, en orden
+     * Cada mensaje pasa por el mismo camino (y límite de envíos) que su llamada individual
+     */
+    @Override
+    public List<SendResult> sendBatch(String from, List<OutboundMessage> messages) throws RemoteException {
+        if (messages == null) {
+            throw new RemoteException("Lote de mensajes nulo");
+        }
+        if (messages.size() > maxSendBatch) {
+            throw new RemoteException("El lote de " + messages.size()
+                    + " mensajes supera el máximo de " + maxSendBatch);
+        }
+        List<SendResult> results = new ArrayList<>(messages.size());
+        for (OutboundMessage message : messages) {
+            try {
+                switch (message.getType()) {
+                    case BROADCAST:
+                        broadcastMessage(from, message.getText());
+                        break;
+                    case DIRECT:
+                        sendDirectMessage(from, message.getTarget(), message.getText());
+                        break;
+                    case ROOM:
+                        postToRoom(from, message.getTarget(), message.getText());
+                        break;
+                    default:
+                        throw new RemoteException("Tipo de envío inválido: " + message.getType());
+                }
+                results.add(SendResult.sent());
+            } catch (RateLimitedException e) {
+                results.add(SendResult.rateLimited(e));
+            } catch (RemoteException | RuntimeException e) {
+                // Un mensaje inválido falla solo: los anteriores ya se publicaron
+                results.add(SendResult.failed(String.valueOf(e.getMessage())));
+            }
+        }
+        metrics.sendBatch(messages.size());
+        return results;
+    }
+    
+    /**
+     * Agrega un mensaje a una sala y despierta solo a sus miembros
+     */
+    private void appendToRoom(ChatRoom room, ChatMessage message) {
+        room.append(message);
+        for (UserSession member : room.getMembers()) {
+            if (isPushDelivery()) {
+                deliveryEngine.wake(member.getUsername());
+            } else {
+                longPolls.signal(member.getUsername());
+            }
+        }
     }
     
     /**
-     * Obtiene la lista de usuarios conectados
+     * Obtiene los miembros de una sala (de este nodo y, en un cluster, de los demás)
+     */
+    @Override
+    public List<String> getRoomMembers(String room) throws RemoteException {
+        ChatRoom target = rooms.get(room);
+        List<String> members = target != null ? target.getMemberNames() : new ArrayList<>();
+        Map<String, String> remote = remoteRoomMembers.get(room);
+        if (remote != null) {
+            members.addAll(remote.keySet());
+        }
+        return members;
+    }
+    
+    /**
+     * Obtiene la lista de usuarios conectados (a este nodo y, en un cluster, a los demás)
      */
     @Override
     public List<String> getOnlineUsers() throws RemoteException {
-        return new ArrayList<>(connectedClients.keySet());
+        List<String> users = new ArrayList<>(sessions.keySet());
+        users.addAll(remoteUsers.keySet());
+        return users;
+    }
+    
+    private boolean isOnline(String username) {
+        return sessions.containsKey(username) || remoteUsers.containsKey(username);
+    }
+    
+    /**
+     * Obtiene los cambios en la lista de usuarios desde la versión del cliente
+     */
+    @Override
+    public PresenceUpdate getPresenceChanges(long epoch, long sinceVersion) throws RemoteException {
+        return presence.changesSince(epoch, sinceVersion);
     }
     
     /**
@@ -120,64 +602,639 @@ public class ChatServer extends UnicastRemoteObject implements ChatServerInterfa
      */
     @Override
     public ChatClientInterface getClientReference(String username) throws RemoteException {
-        return connectedClients.get(username);
+        UserSession session = sessions.get(username);
+        if (session != null) {
+            return exportedRef(session);
+        }
+        // Usuario de otro nodo: se pregunta a su nodo
+        String node = remoteUsers.get(username);
+        Cluster current = cluster;
+        return node != null && current != null ? current.remoteClientReference(node, username) : null;
+    }
+    
+    /**
+     * Referencia que se puede entregar a otros clientes: solo las exportadas por RMI
+     * Los usuarios conectados por NIO reciben sus callbacks por la conexión con el
+     * servidor, así que los directos hacia ellos van por el servidor
+     */
+    private static ChatClientInterface exportedRef(UserSession session) {
+        try {
+            return (ChatClientInterface) RemoteObject.toStub(session.getClientRef());
+        } catch (NoSuchObjectException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Notifica a todos los clientes que un usuario se unió
+     */
+    private void notifyUserJoined(UserSession session) {
+        ChatMessage joined = ChatMessage.of(messageSequence.getAndIncrement(),
+                ChatMessage.Type.USER_JOINED, session.getUsername(), null, null);
+        long sequence = publish(joined);
+        forwardToCluster(joined);
+        
+        // El que se unió no recibe su propio aviso
+        roomLog.skip(session.getCursor(), sequence);
     }
     
     /**
-     * Notifica a todos los clientes que un usuario se unió (encolando mensaje)
+     * Notifica a todos los clientes que un usuario se desconectó
      */
-    private void notifyUserJoined(String username) {
-        String systemMessage = "[SISTEMA] " + username + " se ha unido al chat";
+    private void notifyUserLeft(UserSession session) {
+        // Liberar el cursor y la consulta en espera del usuario desconectado
+        roomLog.closeCursor(session.getCursor());
+        longPolls.signal(session.getUsername());
         
-        // Encolar notificación para todos EXCEPTO el que se unió
-        for (String clientName : connectedClients.keySet()) {
-            if (!clientName.equals(username)) {
-                pendingMessages.computeIfAbsent(clientName, k -> new ArrayList<>()).add(systemMessage);
+        // Publicar notificación para todos los clientes restantes
+        ChatMessage left = ChatMessage.of(messageSequence.getAndIncrement(),
+                ChatMessage.Type.USER_LEFT, session.getUsername(), null, null);
+        publish(left);
+        forwardToCluster(left);
+    }
+    
+    /**
+     * Une este servidor a un cluster y publica su receptor en el registro RMI
+     * Desde ahora solo acepta a los usuarios que el anillo le asigna
+     * @param selfId Este nodo (host:puerto)
+     * @param nodes Todos los nodos del cluster (host:puerto)
+     */
+    public void joinCluster(String selfId, List<String> nodes, Registry registry) throws RemoteException {
+        Cluster joined = new Cluster(selfId, nodes, new Cluster.Handler() {
+            @Override
+            public void onRemoteMessage(String node, ChatMessage message) {
+                applyRemoteMessage(node, message);
+            }
+            
+            @Override
+            public void onRemoteUsers(String node, List<String> users, Map<String, List<String>> rooms) {
+                applyRemoteUsers(node, users, rooms);
+            }
+            
+            @Override
+            public ChatClientInterface localClientReference(String username) {
+                UserSession session = sessions.get(username);
+                return session != null ? exportedRef(session) : null;
+            }
+        }, () -> new ArrayList<>(sessions.keySet()), this::localRoomMembers, () -> nioPort);
+        joined.bind(registry);
+        cluster = joined;
+        metrics.attachCluster(joined, remoteUsers);
+        AsyncLog.info("Nodo {} unido al cluster {}", selfId, nodes);
+    }
+    
+    /**
+     * Anuncia el transporte NIO de este nodo: los demás nodos redirigen a sus clientes NIO a este puerto
+     */
+    public void attachNio(NioChatServer nio) {
+        nioPort = nio.getPort();
+        metrics.attachTransport(nio);
+    }
+    
+    /**
+     * Reenvía un mensaje a los demás nodos (si hay cluster)
+     */
+    private void forwardToCluster(ChatMessage message) {
+        Cluster current = cluster;
+        if (current != null) {
+            current.forwardToAll(message);
+        }
+    }
+    
+    /**
+     * Reenvía un mensaje de sala solo a los nodos con miembros en ella
+     */
+    private void forwardToRoomNodes(String room, ChatMessage message) {
+        Cluster current = cluster;
+        Map<String, String> members = remoteRoomMembers.get(room);
+        if (current == null || members == null) {
+            return;
+        }
+        for (String node : new HashSet<>(members.values())) {
+            current.forwardTo(node, message);
+        }
+    }
+    
+    /**
+     * Miembros de cada sala en este nodo (se envían a los demás al reconectar)
+     */
+    private Map<String, List<String>> localRoomMembers() {
+        Map<String, List<String>> members = new HashMap<>();
+        for (ChatRoom room : rooms.values()) {
+            members.put(room.getName(), room.getMemberNames());
+        }
+        return members;
+    }
+    
+    /**
+     * Aplica un mensaje reenviado por otro nodo con una secuencia local
+     */
+    private void applyRemoteMessage(String node, ChatMessage message) {
+        ChatMessage local = new ChatMessage(messageSequence.getAndIncrement(), message.getType(),
+                message.getSenderId(), message.getRecipientId(), message.getTimestamp(), message.getPayload());
+        switch (local.getType()) {
+            case BROADCAST:
+                publish(local);
+                break;
+            case DIRECT:
+                UserSession recipient = sessions.get(local.getRecipientId());
+                if (recipient != null) {
+                    enqueue(recipient, local);
+                } else if (!offline.store(local.getRecipientId(), local)) {
+                    AsyncLog.warn("Directo de {} (nodo {}) para {} descartado: usuario no conectado",
+                            local.getSenderId(), node, local.getRecipientId());
+                }
+                break;
+            case ROOM:
+                ChatRoom room = rooms.get(local.getRecipientId());
+                if (room != null) {
+                    appendToRoom(room, local);
+                }
+                break;
+            case USER_JOINED:
+                if (!node.equals(remoteUsers.put(local.getSenderId(), node))) {
+                    presence.update(local.getSenderId(), this::isOnline);
+                    publish(local);
+                }
+                break;
+            case USER_LEFT:
+                if (remoteUsers.remove(local.getSenderId(), node)) {
+                    presence.update(local.getSenderId(), this::isOnline);
+                    publish(local);
+                }
+                // Al desconectarse sale de todas sus salas (su nodo puede no avisar de cada una si cayó)
+                for (String name : remoteRoomMembers.keySet()) {
+                    removeRemoteMember(name, local.getSenderId(), node);
+                }
+                break;
+            case ROOM_JOINED:
+                remoteRoomMembers.computeIfAbsent(local.getRecipientId(), name -> new ConcurrentHashMap<>())
+                        .put(local.getSenderId(), node);
+                break;
+            case ROOM_LEFT:
+                removeRemoteMember(local.getRecipientId(), local.getSenderId(), node);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Quita a un miembro de otro nodo de una sala y olvida la sala si no quedan
+     */
+    private void removeRemoteMember(String room, String username, String node) {
+        remoteRoomMembers.computeIfPresent(room, (name, members) -> {
+            members.remove(username, node);
+            return members.isEmpty() ? null : members;
+        });
+    }
+    
+    /**
+     * Ajusta los usuarios de otro nodo y los miembros de sus salas a sus listas completas (al reconectar el enlace)
+     */
+    private void applyRemoteUsers(String node, List<String> users, Map<String, List<String>> rooms) {
+        Set<String> current = new HashSet<>(users);
+        for (Map.Entry<String, String> entry : remoteUsers.entrySet()) {
+            if (node.equals(entry.getValue()) && !current.contains(entry.getKey())) {
+                applyRemoteMessage(node, ChatMessage.of(0, ChatMessage.Type.USER_LEFT, entry.getKey(), null, null));
+            }
+        }
+        for (String user : users) {
+            applyRemoteMessage(node, ChatMessage.of(0, ChatMessage.Type.USER_JOINED, user, null, null));
+        }
+        for (Map.Entry<String, Map<String, String>> room : remoteRoomMembers.entrySet()) {
+            List<String> members = rooms.getOrDefault(room.getKey(), Collections.emptyList());
+            for (Map.Entry<String, String> member : room.getValue().entrySet()) {
+                if (node.equals(member.getValue()) && !members.contains(member.getKey())) {
+                    removeRemoteMember(room.getKey(), member.getKey(), node);
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> room : rooms.entrySet()) {
+            for (String member : room.getValue()) {
+                applyRemoteMessage(node, ChatMessage.of(0, ChatMessage.Type.ROOM_JOINED, member, room.getKey(), null));
+            }
+        }
+    }
+    
+    /**
+     * Publica un mensaje en el registro de la sala y despierta a los lectores
+     * @return Posición del mensaje en el registro
+     */
+    private long publish(ChatMessage message) {
+        writeToJournal(message);
+        long position = roomLog.append(message);
+        if (isPushDelivery()) {
+            deliveryEngine.wakeAll();
+        } else {
+            longPolls.signalAll();
+        }
+        return position;
+    }
+    
+    /**
+     * Encola un mensaje directo en un buzón avisando si estaba lleno
+     */
+    private void enqueue(UserSession session, ChatMessage message) {
+        Mailbox<ChatMessage> mailbox = session.getMailbox();
+        if (!mailbox.offer(message)) {
+            metrics.mailboxDrop();
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                disconnectSlowConsumer(session, "buzón lleno (" + mailbox.capacity() + ")");
+            } else {
+                mailboxFullLog.log(AsyncLog.Level.WARN, "Buzón lleno para {} ({}), mensaje descartado",
+                        session.getUsername(), mailbox.capacity());
             }
+            return;
+        }
+        writeToJournal(message);
+        if (isPushDelivery()) {
+            deliveryEngine.wake(session.getUsername());
+        } else {
+            longPolls.signal(session.getUsername());
         }
+    }
+    
+    /**
+     * Guarda un mensaje en el journal (si está activo)
+     * Un error de disco no detiene el chat: el mensaje se entrega igual
+     */
+    private void writeToJournal(ChatMessage message) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(message);
+        } catch (IOException e) {
+            journalErrorLog.log(AsyncLog.Level.ERROR, "No se pudo escribir en el journal: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Al registrarse, entrega lo que el usuario no recibió antes de reiniciar el servidor
+     * Si no hay nada recuperado, el usuario se sigue desde el mensaje actual
+     */
+    private void restoreFromJournal(UserSession session) {
+        String username = session.getUsername();
+        try {
+            List<ChatMessage> undelivered = journal.takeUndelivered(username);
+            if (undelivered == null) {
+                journal.track(username, messageSequence.get() - 1);
+                return;
+            }
+            for (ChatMessage message : undelivered) {
+                if (!session.getMailbox().offer(message)) {
+                    metrics.mailboxDrop();
+                }
+            }
+            AsyncLog.info("Recuperados {} mensajes no entregados para {}", undelivered.size(), username);
+        } catch (IOException e) {
+            AsyncLog.error("No se pudieron leer los mensajes recuperados de {}: {}", username, e.getMessage());
+        }
+    }
+    
+    /**
+     * Aplica la política de desborde a un usuario atrasado en un registro
+     * (la sala general o una sala propia)
+     * Se invoca al abrir cada segmento del registro, con su candado tomado
+     */
+    private void handleLaggingCursor(RoomLog<ChatMessage> log, RoomLog.Cursor cursor, long lag) {
+        // Los cursores de usuarios desconectados se recortan a su cuota
+        if (offline.trimLagging(log, cursor)) {
+            return;
+        }
+        UserSession session = (UserSession) cursor.attachment();
+        if (session == null) {
+            return;
+        }
+        long dropped;
+        switch (overflowPolicy) {
+            case DISCONNECT:
+                // El cursor se cierra ya para no retener el registro
+                log.closeCursor(cursor);
+                disconnectSlowConsumer(session, lag + " mensajes sin leer");
+                return;
+            case DROP_NEWEST:
+                dropped = session.keepOldest(log, cursor, maxQueuedMessages);
+                break;
+            default:
+                dropped = log.advance(cursor, log.end() - maxQueuedMessages);
+                break;
+        }
+        metrics.queueOverflow(dropped);
+        queueOverflowLog.log(AsyncLog.Level.WARN, "{} tenía {} mensajes sin leer: {} descartados ({})",
+                session.getUsername(), lag, dropped, overflowPolicy);
+        if (isPushDelivery()) {
+            deliveryEngine.wake(session.getUsername());
+        }
+    }
+    
+    /**
+     * Desconecta a un usuario que no consume sus mensajes (fuera del hilo que lo detectó)
+     */
+    private void disconnectSlowConsumer(UserSession session, String reason) {
+        if (!session.markDisconnecting()) {
+            return;
+        }
+        metrics.slowConsumerDisconnect();
+        queueOverflowLog.log(AsyncLog.Level.WARN, "Desconectando a {}: {}", session.getUsername(), reason);
+        CompletableFuture.runAsync(() -> unregisterSession(session));
+    }
+    
+    /**
+     * Cuenta los mensajes entregados en una consulta o callback y avanza el cursor del journal
+     */
+    private void recordDelivered(String username, List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        metrics.delivered(messages.size(), messages.get(0).getTimestamp());
+        // Un callback o una consulta que entregó mensajes también prueba que el cliente sigue activo
+        renewLease(username);
+        if (journal != null) {
+            journal.acknowledge(username, messages.get(messages.size() - 1).getSequenceId());
+        }
+        if (AsyncLog.isEnabled(AsyncLog.Level.DEBUG)) {
+            AsyncLog.debug("Entregados {} mensajes a {}", messages.size(), username);
+        }
+    }
+    
+    /**
+     * Límite de tasa para un usuario; null si la tasa es 0 (sin límite)
+     */
+    private static TokenBucket newLimit(double ratePerSecond, int burst) {
+        return ratePerSecond > 0 ? new TokenBucket(ratePerSecond, burst) : null;
+    }
+    
+    /**
+     * Rechaza el envío si el remitente superó su límite
+     * Se revisa antes de asignar secuencia o copiar el mensaje a cualquier cola
+     */
+    private void checkRate(String from, TokenBucket limit, boolean broadcast) throws RateLimitedException {
+        if (limit == null) {
+            return;
+        }
+        long waitNanos = limit.tryAcquire();
+        if (waitNanos == 0) {
+            return;
+        }
+        long retryAfterMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        metrics.throttled(broadcast);
+        throttleLog.log(AsyncLog.Level.WARN, "{} superó el límite de {}; envío rechazado",
+                from, broadcast ? "broadcasts" : "mensajes directos");
+        throw new RateLimitedException("Demasiados mensajes, espera " + retryAfterMillis + " ms", retryAfterMillis);
+    }
+    
+    /**
+     * Renueva el lease de un usuario conectado (consulta, envío o heartbeat)
+     * @return false si el usuario no está conectado
+     */
+    private boolean renewLease(String username) {
+        UserSession session = username != null ? sessions.get(username) : null;
+        if (session == null) {
+            return false;
+        }
+        session.renewLease();
+        return true;
+    }
+    
+    /**
+     * Desconecta a un usuario cuyo lease venció (en el hilo de la rueda de leases)
+     */
+    private void expireSession(UserSession session) {
+        if (!session.markDisconnecting()) {
+            return;
+        }
+        // Solo si sigue siendo su sesión: pudo haber vuelto con otra mientras vencía
+        if (unregisterSession(session)) {
+            metrics.leaseExpired();
+            AsyncLog.warn("Lease vencido: {} desconectado (sin actividad)", session.getUsername());
+        }
+    }
+    
+    /**
+     * Desconecta a un usuario cuya conexión se cerró (transporte NIO)
+     * Solo si su sesión sigue usando esa referencia: pudo haber vuelto por otra conexión
+     */
+    void disconnectClient(String username, ChatClientInterface clientRef) {
+        UserSession session = sessions.get(username);
+        if (session == null || session.getClientRef() != clientRef || !session.markDisconnecting()) {
+            return;
+        }
+        // Entre la consulta y el retiro pudo volver con otra conexión: se retira solo esta sesión
+        if (unregisterSession(session)) {
+            AsyncLog.info("Conexión de {} cerrada: desconectado", username);
+        }
+    }
+    
+    /**
+     * Renueva el lease del cliente
+     */
+    @Override
+    public boolean heartbeat(String username) throws RemoteException {
+        return renewLease(username);
+    }
+    
+    /**
+     * Desregistra a un cliente cuyo callback falló (modo push)
+     */
+    private void handleUnreachableClient(String username) {
+        metrics.callbackFailure();
+        try {
+            unregisterClient(username);
+        } catch (RemoteException e) {
+            AsyncLog.error("No se pudo desregistrar a {}: {}", username, e.getMessage());
+        }
+    }
+    
+    /**
+     * Métricas del servidor (no forma parte de la interfaz remota)
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Indica el modo de entrega activo en el servidor
+     */
+    @Override
+    public String getDeliveryMode() throws RemoteException {
+        return deliveryMode;
+    }
+    
+    /**
+     * Extrae los mensajes pendientes de un usuario en orden de secuencia
+     * En modo push los consume el motor de entrega, así que devuelve vacío
+     */
+    private List<ChatMessage> drainPending(String username) {
+        if (isPushDelivery()) {
+            renewLease(username);
+            return Collections.emptyList();
+        }
+        UserSession session = sessions.get(username);
+        if (session == null) {
+            return Collections.emptyList();
+        }
+        session.renewLease();
         
-        System.out.println("[INFO] Notificacion de ingreso encolada para " + (connectedClients.size() - 1) + " usuarios");
+        // Broadcasts posteriores al cursor combinados con los directos del buzón
+        return session.drainAll(roomLog);
     }
     
     /**
-     * Notifica a todos los clientes que un usuario se desconectó (encolando mensaje)
+     * Espera mensajes nuevos para un usuario hasta maxWaitMillis (long-poll)
+     * El hilo de RMI queda en espera sobre un aviso del registro de consultas
      */
-    private void notifyUserLeft(String username) {
-        String systemMessage = "[SISTEMA] " + username + " ha salido del chat";
+    @Override
+    public MessageBatch fetchMessages(String username, long afterSeq, long maxWaitMillis, int maxBatch)
+            throws RemoteException {
+        UserSession session = sessions.get(username);
+        if (session == null || isPushDelivery()) {
+            renewLease(username);
+            return new MessageBatch();
+        }
+        session.renewLease();
+        int limit = Math.max(1, maxBatch);
+        long waitMillis = Math.min(Math.max(0, maxWaitMillis), maxLongPollMillis);
         
-        // Encolar notificación para todos los clientes restantes
-        for (String clientName : connectedClients.keySet()) {
-            pendingMessages.computeIfAbsent(clientName, k -> new ArrayList<>()).add(systemMessage);
+        List<ChatMessage> messages = session.take(roomLog, afterSeq, limit);
+        if (messages.isEmpty() && waitMillis > 0) {
+            // Registrar la espera antes de volver a revisar para no perder avisos
+            CompletableFuture<Void> signal = longPolls.park(username);
+            if (!session.hasPending(roomLog)) {
+                try {
+                    longPolls.await(username, signal, waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                longPolls.signal(username);
+            }
+            messages = session.take(roomLog, afterSeq, limit);
+            // La espera pudo consumir buena parte del lease
+            session.renewLease();
         }
         
-        // Eliminar cola de mensajes del usuario desconectado
-        pendingMessages.remove(username);
+        recordDelivered(username, messages);
+        return batchFor(session, messages);
+    }
+    
+    /**
+     * Igual que fetchMessages, pero sin ocupar un hilo mientras espera
+     * (transporte NIO): el lote se arma en el executor al llegar el aviso
+     * o al vencer el tiempo de espera
+     */
+    public CompletableFuture<MessageBatch> fetchMessagesAsync(String username, long afterSeq, long maxWaitMillis,
+                                                              int maxBatch, Executor executor) {
+        UserSession session = sessions.get(username);
+        if (session == null || isPushDelivery()) {
+            renewLease(username);
+            return CompletableFuture.completedFuture(new MessageBatch());
+        }
+        session.renewLease();
+        int limit = Math.max(1, maxBatch);
+        long waitMillis = Math.min(Math.max(0, maxWaitMillis), maxLongPollMillis);
+        
+        List<ChatMessage> messages = session.take(roomLog, afterSeq, limit);
+        if (!messages.isEmpty() || waitMillis == 0) {
+            recordDelivered(username, messages);
+            return CompletableFuture.completedFuture(batchFor(session, messages));
+        }
         
-        System.out.println("[INFO] Notificacion de salida encolada para " + connectedClients.size() + " usuarios");
+        // Registrar la espera antes de volver a revisar para no perder avisos
+        CompletableFuture<Void> signal = longPolls.park(username);
+        if (session.hasPending(roomLog)) {
+            longPolls.signal(username);
+        }
+        return signal.completeOnTimeout(null, waitMillis, TimeUnit.MILLISECONDS).thenApplyAsync(ignored -> {
+            longPolls.release(username, signal);
+            List<ChatMessage> ready = session.take(roomLog, afterSeq, limit);
+            session.renewLease();
+            recordDelivered(username, ready);
+            return batchFor(session, ready);
+        }, executor);
+    }
+    
+    /**
+     * Obtiene y limpia los mensajes pendientes para un usuario como lote binario
+     */
+    @Override
+    public MessageBatch getMessageBatch(String username) throws RemoteException {
+        long start = System.nanoTime();
+        List<ChatMessage> messages = drainPending(username);
+        recordDelivered(username, messages);
+        MessageBatch batch = batchFor(sessions.get(username), messages);
+        metrics.getMessageBatchTime(System.nanoTime() - start);
+        return batch;
+    }
+    
+    /**
+     * Lote para un usuario, comprimido al serializarse si acordó un códec y supera el umbral
+     */
+    private MessageBatch batchFor(UserSession session, List<ChatMessage> messages) {
+        MessageBatch batch = new MessageBatch(messages).onSerialized(serializedBytes);
+        BatchCompression.Codec codec = session != null ? session.getCompression() : null;
+        return codec != null ? batch.compressWith(codec, compressThreshold, compressedBytes) : batch;
+    }
+    
+    /**
+     * Acuerda la compresión de los lotes de un usuario: el primer códec del
+     * cliente que este servidor también tiene (ninguno si -Dchat.compress.threshold=0)
+     */
+    @Override
+    public String negotiateCompression(String username, List<String> codecs) throws RemoteException {
+        UserSession session = sessions.get(username);
+        if (session == null) {
+            throw new RemoteException("Usuario " + username + " no está conectado");
+        }
+        BatchCompression.Codec codec = compressThreshold > 0 ? BatchCompression.choose(codecs) : null;
+        session.setCompression(codec);
+        AsyncLog.debug("[COMPRESIÓN] {}: {}", username, codec != null ? codec.getId() : "sin comprimir");
+        return codec != null ? codec.getId() : null;
     }
     
     /**
      * Obtiene y limpia los mensajes pendientes para un usuario
+     * Formato anterior: cadenas ya formateadas bajo la clave "messages"
      */
     @Override
-    public synchronized Map<String, List<String>> getPendingMessages(String username) throws RemoteException {
+    public Map<String, List<String>> getPendingMessages(String username) throws RemoteException {
+        long start = System.nanoTime();
         Map<String, List<String>> result = new HashMap<>();
+        List<ChatMessage> messages = drainPending(username);
         
-        // Obtener mensajes pendientes
-        List<String> messages = pendingMessages.getOrDefault(username, new ArrayList<>());
-        
-        if (!messages.isEmpty()) {
-            result.put("messages", new ArrayList<>(messages));
-            // Limpiar mensajes entregados
-            pendingMessages.put(username, new ArrayList<>());
-            System.out.println("[INFO] Entregados " + messages.size() + " mensajes a " + username);
-        } else {
-            result.put("messages", new ArrayList<>());
+        List<String> formatted = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            formatted.add(formatLegacy(message));
         }
+        result.put("messages", formatted);
+        
+        recordDelivered(username, messages);
+        metrics.getPendingMessagesTime(System.nanoTime() - start);
         
         return result;
     }
     
+    /**
+     * Da a un mensaje el formato de texto que usaban los clientes anteriores
+     */
+    private static String formatLegacy(ChatMessage message) {
+        switch (message.getType()) {
+            case DIRECT:
+                return "[DIRECTO de " + message.getSenderId() + "] " + message.getText();
+            case DIRECT_SENT:
+                return "[Tú → " + message.getRecipientId() + " (Directo)] " + message.getText();
+            case USER_JOINED:
+                return "[SISTEMA] " + message.getSenderId() + " se ha unido al chat";
+            case USER_LEFT:
+                return "[SISTEMA] " + message.getSenderId() + " ha salido del chat";
+            case ROOM:
+                return "[#" + message.getRecipientId() + "] " + message.getSenderId() + ": " + message.getText();
+            default:
+                return "[BROADCAST] " + message.getSenderId() + ": " + message.getText();
+        }
+    }
+    
     /**
      * Método main - Inicia el servidor de chat
      */
@@ -195,6 +1252,12 @@ public class ChatServer extends UnicastRemoteObject implements ChatServerInterfa
             
             // Configurar la propiedad del sistema para RMI
             System.setProperty("java.rmi.server.hostname", serverIP);
+            // Las llamadas salientes (callbacks y enlaces del cluster) no esperan para siempre:
+            // el socket de un cliente congelado vence junto con el plazo del callback
+            if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null && CALLBACK_TIMEOUT_MILLIS > 0) {
+                System.setProperty("sun.rmi.transport.tcp.responseTimeout",
+                        Long.toString(CALLBACK_TIMEOUT_MILLIS * 2));
+            }
             
             // Crear el registro RMI
             Registry registry = LocateRegistry.createRegistry(port);
@@ -205,6 +1268,33 @@ public class ChatServer extends UnicastRemoteObject implements ChatServerInterfa
             // Registrar el servidor
             registry.rebind("ChatServer", server);
             
+            // Transporte NIO junto a RMI si se indica -Dchat.nio.port (antes del cluster, que anuncia su puerto)
+            Integer nioPort = Integer.getInteger("chat.nio.port");
+            if (nioPort != null) {
+                NioChatServer nio = new NioChatServer(server, serverIP, nioPort);
+                server.attachNio(nio);
+                AsyncLog.info("Transporte NIO escuchando en {}:{}", serverIP, nio.getPort());
+            }
+            
+            // Cluster: -Dchat.cluster.nodes=host1:1099,host2:1100 (este nodo es <IP>:<puerto>)
+            String clusterNodes = System.getProperty("chat.cluster.nodes");
+            if (clusterNodes != null) {
+                List<String> nodes = new ArrayList<>();
+                for (String node : clusterNodes.split(",")) {
+                    nodes.add(node.trim());
+                }
+                server.joinCluster(serverIP + ":" + port, nodes, registry);
+            }
+            
+            // Métricas por JMX y, si se indica -Dchat.metrics.port, por HTTP (GET /metrics)
+            server.getMetrics().registerMBean();
+            Integer metricsPort = Integer.getInteger("chat.metrics.port");
+            if (metricsPort != null) {
+                String metricsHost = System.getProperty("chat.metrics.host", "127.0.0.1");
+                new MetricsEndpoint(server.getMetrics(), metricsHost, metricsPort);
+                AsyncLog.info("Métricas disponibles en http://{}:{}/metrics", metricsHost, metricsPort);
+            }
+            
             System.out.println("========================================");
             System.out.println("    SERVIDOR DE CHAT RMI ACTIVO");
             System.out.println("========================================");
@@ -212,7 +1302,7 @@ public class ChatServer extends UnicastRemoteObject implements ChatServerInterfa
             System.out.println("Puerto: " + port);
             System.out.println("========================================");
             System.out.println("Esperando conexiones de clientes...\n");
-            
+        
         } catch (Exception e) {
             System.err.println("[ERROR] Error en el servidor:");
             e.printStackTrace();
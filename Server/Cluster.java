@@ -0,0 +1,265 @@
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Nodo de un cluster de servidores de chat
+ * Todos los nodos conocen la misma lista (host:puerto) y ubican a cada
+ * usuario con el mismo anillo de hash consistente, así que sin coordinarse
+ * coinciden en cuál es su nodo. Los mensajes que afectan a usuarios de otros
+ * nodos se reenvían por un enlace con lotes hacia cada uno (ClusterLink).
+ * Cada enlace numera sus mensajes y el receptor descarta los que ya aplicó,
+ * así un lote reintentado no se entrega dos veces.
+ */
+public class Cluster {
+    
+    // Nombre con el que cada nodo publica su receptor en su registro RMI
+    public static final String BINDING_NAME = "ChatCluster";
+    
+    /**
+     * Lo que el servidor local hace con lo que llega de otros nodos
+     */
+    public interface Handler {
+        /**
+         * Mensaje reenviado por otro nodo (en el orden en que ese nodo los envió)
+         */
+        void onRemoteMessage(String node, ChatMessage message);
+        
+        /**
+         * Lista completa de usuarios conectados a otro nodo y de los miembros de sus salas
+         */
+        void onRemoteUsers(String node, List<String> users, Map<String, List<String>> rooms);
+        
+        /**
+         * Referencia de un usuario conectado a este nodo (null si no está)
+         */
+        ChatClientInterface localClientReference(String username);
+    }
+    
+    private final String selfId;
+    private final ConsistentHashRing ring;
+    
+    // Enlaces de salida hacia los demás nodos: Map<nodo, enlace>
+    private final Map<String, ClusterLink> links = new LinkedHashMap<>();
+    
+    private final Receiver receiver;
+    
+    // Puerto NIO de los demás nodos (los que lo anunciaron): Map<nodo, puerto>
+    private final Map<String, Integer> nioPorts = new ConcurrentHashMap<>();
+    
+    // Mensajes repetidos de reintentos, descartados al recibir
+    private final LongAdder duplicates = new LongAdder();
+    
+    /**
+     * Las opciones se leen de -Dchat.cluster.vnodes (puntos por nodo en el anillo),
+     * -Dchat.cluster.linger (ms de espera para juntar un lote), -Dchat.cluster.batch
+     * (mensajes por llamada) y -Dchat.cluster.queue (pendientes por nodo)
+     * @param selfId Este nodo (host:puerto), debe estar en la lista
+     * @param nodes Todos los nodos del cluster, en cualquier orden
+     * @param localUsers Usuarios conectados a este nodo
+     * @param localRooms Miembros de cada sala en este nodo
+     * @param localNioPort Puerto NIO de este nodo (0 si no atiende NIO)
+     */
+    public Cluster(String selfId, List<String> nodes, Handler handler, Supplier<List<String>> localUsers,
+                   Supplier<Map<String, List<String>>> localRooms, IntSupplier localNioPort) throws RemoteException {
+        if (!nodes.contains(selfId)) {
+            throw new IllegalArgumentException("El nodo " + selfId + " no está en la lista del cluster " + nodes);
+        }
+        this.selfId = selfId;
+        this.ring = new ConsistentHashRing(nodes, Integer.getInteger("chat.cluster.vnodes", 128));
+        
+        int capacity = Integer.getInteger("chat.cluster.queue", 100000);
+        long lingerMillis = Long.getLong("chat.cluster.linger", 5L);
+        int maxBatch = Integer.getInteger("chat.cluster.batch", 1000);
+        for (String node : ring.getNodes()) {
+            if (!node.equals(selfId)) {
+                links.put(node, new ClusterLink(selfId, node, capacity, lingerMillis, maxBatch,
+                        localUsers, localRooms, localNioPort));
+            }
+        }
+        this.receiver = new Receiver(handler);
+    }
+    
+    /**
+     * Publica el receptor de este nodo en su registro RMI
+     */
+    public void bind(Registry registry) throws RemoteException {
+        registry.rebind(BINDING_NAME, receiver);
+    }
+    
+    public String getSelfId() {
+        return selfId;
+    }
+    
+    /**
+     * Nodo al que pertenece un usuario
+     */
+    public String homeOf(String username) {
+        return ring.nodeFor(username);
+    }
+    
+    public boolean isLocal(String username) {
+        return selfId.equals(homeOf(username));
+    }
+    
+    /**
+     * Puerto NIO de otro nodo
+     * @return 0 si no atiende NIO o aún no lo anunció (se anuncia al conectar su enlace hacia este)
+     */
+    public int nioPortOf(String node) {
+        return nioPorts.getOrDefault(node, 0);
+    }
+    
+    /**
+     * Reenvía un mensaje a todos los demás nodos
+     */
+    public void forwardToAll(ChatMessage message) {
+        for (ClusterLink link : links.values()) {
+            link.send(message);
+        }
+    }
+    
+    /**
+     * Reenvía un mensaje a un nodo
+     */
+    public void forwardTo(String node, ChatMessage message) {
+        ClusterLink link = links.get(node);
+        if (link != null) {
+            link.send(message);
+        }
+    }
+    
+    /**
+     * Pide a otro nodo la referencia de uno de sus usuarios (llamada directa, sin lote)
+     * @return null si el nodo no responde o el usuario no está conectado ahí
+     */
+    public ChatClientInterface remoteClientReference(String node, String username) {
+        ClusterLink link = links.get(node);
+        if (link == null) {
+            return null;
+        }
+        try {
+            return link.peer().getClientReference(username);
+        } catch (Exception e) {
+            AsyncLog.warn("No se pudo consultar al nodo {} por {}: {}", node, username, e.getMessage());
+            return null;
+        }
+    }
+    
+    public Collection<ClusterLink> getLinks() {
+        return links.values();
+    }
+    
+    public long getDuplicatesTotal() {
+        return duplicates.sum();
+    }
+    
+    /**
+     * Host de un identificador host:puerto
+     */
+    public static String hostOf(String node) {
+        return node.substring(0, node.lastIndexOf(':'));
+    }
+    
+    /**
+     * Puerto de un identificador host:puerto
+     */
+    public static int portOf(String node) {
+        return Integer.parseInt(node.substring(node.lastIndexOf(':') + 1));
+    }
+    
+    /**
+     * Detiene los enlaces de salida y deja de recibir
+     */
+    public void shutdown() {
+        for (ClusterLink link : links.values()) {
+            link.shutdown();
+        }
+        try {
+            UnicastRemoteObject.unexportObject(receiver, true);
+        } catch (RemoteException e) {
+            AsyncLog.warn("No se pudo cerrar el receptor del cluster: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Lo recibido de un nodo: siguiente número de mensaje esperado en su enlace
+     */
+    private static final class Inbound {
+        long epoch;
+        long next;
+    }
+    
+    /**
+     * Receptor de los lotes de los demás nodos
+     */
+    private final class Receiver extends UnicastRemoteObject implements ClusterPeerInterface {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final transient Handler handler;
+        
+        // Por nodo de origen: Map<nodo, recibido>
+        private final transient Map<String, Inbound> inbound = new ConcurrentHashMap<>();
+        
+        Receiver(Handler handler) throws RemoteException {
+            super();
+            this.handler = handler;
+        }
+        
+        @Override
+        public void forward(String fromNode, long epoch, long firstSequence, MessageBatch batch)
+                throws RemoteException {
+            checkNode(fromNode);
+            List<ChatMessage> messages = batch.getMessages();
+            Inbound from = inbound.computeIfAbsent(fromNode, node -> new Inbound());
+            // Un reintento puede llegar mientras la llamada anterior aún se aplica: se espera y se descarta lo repetido
+            synchronized (from) {
+                if (from.epoch != epoch) {
+                    // Primer lote del enlace (o el nodo se reinició y volvió a numerar)
+                    from.epoch = epoch;
+                    from.next = firstSequence;
+                }
+                int skip = (int) Math.min(messages.size(), Math.max(0, from.next - firstSequence));
+                if (skip > 0) {
+                    duplicates.add(skip);
+                }
+                for (int i = skip; i < messages.size(); i++) {
+                    handler.onRemoteMessage(fromNode, messages.get(i));
+                }
+                from.next = Math.max(from.next, firstSequence + messages.size());
+            }
+        }
+        
+        @Override
+        public void syncUsers(String fromNode, int nioPort, List<String> users, Map<String, List<String>> rooms)
+                throws RemoteException {
+            checkNode(fromNode);
+            if (nioPort > 0) {
+                nioPorts.put(fromNode, nioPort);
+            } else {
+                nioPorts.remove(fromNode);
+            }
+            handler.onRemoteUsers(fromNode, users, rooms);
+        }
+        
+        @Override
+        public ChatClientInterface getClientReference(String username) throws RemoteException {
+            return handler.localClientReference(username);
+        }
+        
+        private void checkNode(String node) throws RemoteException {
+            if (!links.containsKey(node)) {
+                throw new RemoteException("Nodo desconocido para el cluster: " + node);
+            }
+        }
+    }
+}
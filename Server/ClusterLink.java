@@ -0,0 +1,200 @@
+import java.rmi.Naming;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Enlace de salida hacia otro nodo del cluster
+ * Los mensajes se encolan sin bloquear (un buzón MPSC) y un hilo propio los
+ * envía por lotes: al despertar espera linger ms a que lleguen más y manda
+ * todo lo encolado en una sola llamada RMI (hasta maxBatch por llamada).
+ * Si el nodo no responde, conserva el lote y reintenta; al reconectar envía
+ * primero la lista de usuarios de este nodo y de sus salas (y su puerto NIO). Cada mensaje lleva
+ * un número en el enlace para que el nodo descarte los que ya aplicó.
+ */
+public class ClusterLink {
+    
+    private final String selfId;
+    private final String nodeId;
+    private final String url;
+    private final Mailbox<ChatMessage> queue;
+    private final long lingerNanos;
+    private final int maxBatch;
+    private final Supplier<List<String>> localUsers;
+    private final Supplier<Map<String, List<String>>> localRooms;
+    private final IntSupplier localNioPort;
+    
+    // Identifica a este enlace ante el receptor (la numeración empieza de nuevo con cada uno)
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    
+    // Número del siguiente mensaje que sale de la cola (solo lo usa el hilo de envío)
+    private long nextSequence;
+    
+    // Referencia al nodo remoto (null si hay que volver a buscarla)
+    private volatile ClusterPeerInterface peer;
+    
+    // true mientras el hilo espera mensajes (para no despertarlo sin necesidad)
+    private volatile boolean idle;
+    private volatile boolean running = true;
+    private final Thread sender;
+    
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    
+    // Nodo caído o cola llena: como máximo un aviso por segundo
+    private final AsyncLog.RateLimited linkLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    
+    /**
+     * @param selfId Nodo local (host:puerto)
+     * @param nodeId Nodo remoto (host:puerto)
+     * @param capacity Máximo de mensajes pendientes mientras el nodo no responde
+     * @param lingerMillis Espera para juntar mensajes antes de enviar un lote
+     * @param maxBatch Máximo de mensajes por llamada
+     * @param localUsers Usuarios conectados a este nodo (se envían al reconectar)
+     * @param localRooms Miembros de cada sala en este nodo (se envían al reconectar)
+     * @param localNioPort Puerto NIO de este nodo, 0 si no atiende NIO (se envía al reconectar)
+     */
+    public ClusterLink(String selfId, String nodeId, int capacity, long lingerMillis, int maxBatch,
+                       Supplier<List<String>> localUsers, Supplier<Map<String, List<String>>> localRooms,
+                       IntSupplier localNioPort) {
+        this.selfId = selfId;
+        this.nodeId = nodeId;
+        this.url = "//" + nodeId + "/" + Cluster.BINDING_NAME;
+        this.queue = new Mailbox<>(capacity);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.localUsers = localUsers;
+        this.localRooms = localRooms;
+        this.localNioPort = localNioPort;
+        
+        sender = new Thread(this::run, "chat-cluster-" + nodeId);
+        sender.setDaemon(true);
+        sender.start();
+    }
+    
+    /**
+     * Encola un mensaje para el nodo (sin bloquear)
+     */
+    public void send(ChatMessage message) {
+        if (!queue.offer(message)) {
+            dropped.increment();
+            linkLog.log(AsyncLog.Level.WARN, "Cola hacia el nodo {} llena ({}), mensaje descartado",
+                    nodeId, queue.capacity());
+            return;
+        }
+        if (idle) {
+            LockSupport.unpark(sender);
+        }
+    }
+    
+    /**
+     * Referencia al nodo remoto, buscándola si hace falta (para consultas directas)
+     */
+    public ClusterPeerInterface peer() throws Exception {
+        ClusterPeerInterface current = peer;
+        return current != null ? current : (ClusterPeerInterface) Naming.lookup(url);
+    }
+    
+    private void run() {
+        List<ChatMessage> unsent = Collections.emptyList();
+        // Número en el enlace del primer mensaje no enviado
+        long unsentSequence = 0;
+        long backoffMillis = 100;
+        while (running) {
+            if (unsent.isEmpty()) {
+                unsent = nextBatch();
+                if (unsent.isEmpty()) {
+                    continue;
+                }
+                unsentSequence = nextSequence;
+                nextSequence += unsent.size();
+            }
+            try {
+                ClusterPeerInterface current = peer;
+                if (current == null) {
+                    current = (ClusterPeerInterface) Naming.lookup(url);
+                    current.syncUsers(selfId, localNioPort.getAsInt(), localUsers.get(), localRooms.get());
+                    peer = current;
+                    AsyncLog.info("Enlace con el nodo {} establecido", nodeId);
+                }
+                while (!unsent.isEmpty()) {
+                    int size = Math.min(unsent.size(), maxBatch);
+                    current.forward(selfId, epoch, unsentSequence, new MessageBatch(unsent.subList(0, size)));
+                    batches.increment();
+                    forwarded.add(size);
+                    unsent = unsent.subList(size, unsent.size());
+                    unsentSequence += size;
+                }
+                backoffMillis = 100;
+            } catch (Exception e) {
+                // Se conserva lo no enviado; al reconectar se sincronizan los usuarios y se reenvía
+                // (si el nodo aplicó el lote y se perdió la respuesta, descarta lo repetido por su número)
+                peer = null;
+                linkLog.log(AsyncLog.Level.WARN, "Nodo {} no disponible: {} (reintento en {} ms)",
+                        nodeId, e.getMessage(), backoffMillis);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+                backoffMillis = Math.min(backoffMillis * 2, 5000);
+            }
+        }
+    }
+    
+    /**
+     * Espera mensajes y devuelve lo encolado tras la espera de agrupación
+     */
+    private List<ChatMessage> nextBatch() {
+        if (queue.size() == 0) {
+            idle = true;
+            // Volver a revisar tras marcarse en espera para no perder un aviso
+            if (queue.size() == 0) {
+                LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+            }
+            idle = false;
+            if (queue.size() == 0) {
+                return Collections.emptyList();
+            }
+        }
+        if (lingerNanos > 0 && queue.size() < maxBatch) {
+            LockSupport.parkNanos(lingerNanos);
+        }
+        return queue.drainAll();
+    }
+    
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    public boolean isConnected() {
+        return peer != null;
+    }
+    
+    public int getQueued() {
+        return queue.size();
+    }
+    
+    public long getForwardedTotal() {
+        return forwarded.sum();
+    }
+    
+    public long getBatchesTotal() {
+        return batches.sum();
+    }
+    
+    public long getDroppedTotal() {
+        return dropped.sum();
+    }
+    
+    /**
+     * Detiene el hilo de envío (lo pendiente se descarta)
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(sender);
+    }
+}
@@ -0,0 +1,39 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interfaz remota entre nodos del cluster (registrada como "ChatCluster")
+ * Cada nodo reenvía a los demás, por lotes, los mensajes que les corresponden
+ */
+public interface ClusterPeerInterface extends Remote {
+    
+    /**
+     * Recibe un lote de mensajes de otro nodo, en el orden en que se enviaron
+     * Los mensajes del enlace se numeran desde firstSequence: un lote reintentado
+     * que ya se aplicó (se perdió la respuesta) se descarta en vez de repetirse
+     * @param fromNode Nodo que envía (host:puerto)
+     * @param epoch Identifica al enlace de salida; cambia si el nodo se reinicia y su numeración vuelve a empezar
+     * @param firstSequence Número del primer mensaje del lote en el enlace
+     * @param batch Broadcasts, directos, mensajes de salas y avisos de entrada y salida (del chat y de salas)
+     */
+    void forward(String fromNode, long epoch, long firstSequence, MessageBatch batch) throws RemoteException;
+    
+    /**
+     * Reemplaza la lista de usuarios conectados a otro nodo y sus salas
+     * Se envía al (re)conectar el enlace, antes de cualquier lote
+     * @param fromNode Nodo que envía
+     * @param nioPort Puerto NIO de ese nodo (0 si no atiende NIO), para redirigir a clientes NIO
+     * @param users Usuarios conectados a ese nodo
+     * @param rooms Miembros de cada sala en ese nodo: Map<sala, usuarios>
+     */
+    void syncUsers(String fromNode, int nioPort, List<String> users, Map<String, List<String>> rooms)
+            throws RemoteException;
+    
+    /**
+     * Obtiene la referencia de un usuario conectado a este nodo (mensajes P2P)
+     * @return Referencia al cliente o null si no está conectado aquí
+     */
+    ChatClientInterface getClientReference(String username) throws RemoteException;
+}
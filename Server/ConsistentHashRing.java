@@ -0,0 +1,66 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Anillo de hash consistente para ubicar usuarios en los nodos del cluster
+ * Cada nodo ocupa varios puntos (nodos virtuales) del anillo; un usuario
+ * pertenece al primer punto igual o posterior al hash de su nombre. Agregar
+ * o quitar un nodo solo mueve a los usuarios de los tramos que cambian.
+ * Es inmutable: todos los nodos con la misma lista calculan lo mismo.
+ */
+public class ConsistentHashRing {
+    
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes;
+    
+    /**
+     * @param nodes Identificadores de los nodos (host:puerto)
+     * @param virtualNodes Puntos por nodo (más puntos, reparto más parejo)
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("El anillo necesita al menos un nodo");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+    }
+    
+    /**
+     * Nodo al que pertenece una clave (nombre de usuario)
+     */
+    public String nodeFor(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+    
+    public List<String> getNodes() {
+        return nodes;
+    }
+    
+    /**
+     * Hash de 64 bits: FNV-1a sobre los bytes UTF-8 y la mezcla final de MurmurHash3
+     * (FNV solo agrupa claves parecidas como "u1", "u2" en el mismo tramo)
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
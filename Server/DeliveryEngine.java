@@ -0,0 +1,297 @@
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Motor de entrega push del servidor
+ * Cada cliente lee su cursor del registro de la sala, los de sus salas y su buzón de directos;
+ * un grupo fijo de hilos emisores invoca los callbacks de ChatClientInterface
+ * en orden de secuencia, con a lo sumo un hilo por cliente a la vez
+ * Un callback que supera el plazo desconecta a su cliente y el grupo suma un
+ * hilo de reemplazo hasta que la llamada trabada termine, así un cliente
+ * congelado no retiene un emisor compartido
+ */
+public class DeliveryEngine {
+    
+    // Máximo de mensajes entregados por turno antes de ceder el hilo
+    private static final int MAX_EVENTS_PER_TURN = 64;
+    
+    // Marca de callbackStartedAt para una llamada que ya superó el plazo
+    private static final long STALLED = -1L;
+    
+    // Canales de salida por usuario: Map<username, canal>
+    private final Map<String, ClientChannel> channels;
+    
+    // Canales que un emisor está procesando (los que revisa el watchdog)
+    private final Set<ClientChannel> active = ConcurrentHashMap.newKeySet();
+    
+    // Registro compartido de la sala
+    private final RoomLog<ChatMessage> roomLog;
+    
+    // Hilos emisores compartidos por todos los canales (más uno por cada llamada trabada)
+    private final ThreadPoolExecutor senders;
+    
+    // Plazo de cada callback en milisegundos (0 = sin plazo)
+    private final long callbackTimeoutMillis;
+    
+    // Revisa los callbacks en curso que superan el plazo (null si no hay plazo)
+    private final ScheduledExecutorService watchdog;
+    
+    // Acción a ejecutar cuando un callback falla (cliente inalcanzable)
+    private final Consumer<String> onClientFailure;
+    
+    // Acción a ejecutar tras entregar un lote (métricas y journal)
+    private final BiConsumer<String, List<ChatMessage>> onDelivered;
+    
+    // Aviso de callback fallido: como máximo uno por segundo (varios clientes pueden caer a la vez)
+    private final AsyncLog.RateLimited callbackFailureLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    
+    /**
+     * Constructor del motor de entrega
+     * @param roomLog Registro compartido de la sala
+     * @param senderThreads Número de hilos emisores
+     * @param callbackTimeoutMillis Plazo de cada callback (0 = sin plazo)
+     * @param onClientFailure Acción a ejecutar cuando un cliente no responde
+     * @param onDelivered Acción a ejecutar con cada lote entregado a un usuario
+     */
+    public DeliveryEngine(RoomLog<ChatMessage> roomLog, int senderThreads, long callbackTimeoutMillis,
+                          Consumer<String> onClientFailure, BiConsumer<String, List<ChatMessage>> onDelivered) {
+        this.channels = new ConcurrentHashMap<>();
+        this.roomLog = roomLog;
+        this.onClientFailure = onClientFailure;
+        this.onDelivered = onDelivered;
+        this.callbackTimeoutMillis = Math.max(0, callbackTimeoutMillis);
+        
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "chat-sender-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        
+        if (this.callbackTimeoutMillis > 0) {
+            watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "chat-sender-watchdog");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(50, this.callbackTimeoutMillis / 4);
+            watchdog.scheduleWithFixedDelay(this::checkStalledCallbacks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            watchdog = null;
+        }
+    }
+    
+    /**
+     * Registra la sesión de un cliente para recibir callbacks
+     * Se entregan su cursor en el registro de la sala, su buzón de directos
+     * y los mensajes que la sesión ya extrajo
+     */
+    public void register(UserSession session) {
+        channels.put(session.getUsername(), new ClientChannel(session));
+    }
+    
+    /**
+     * Elimina el canal de una sesión; lo pendiente ya no se entrega
+     * Si el usuario ya tiene otra sesión, su canal no se toca
+     */
+    public void unregister(UserSession session) {
+        ClientChannel channel = channels.get(session.getUsername());
+        if (channel != null && channel.session == session && channels.remove(session.getUsername(), channel)) {
+            channel.closed = true;
+        }
+    }
+    
+    /**
+     * Despierta a todos los canales tras publicar en el registro de la sala
+     */
+    public void wakeAll() {
+        for (ClientChannel channel : channels.values()) {
+            channel.schedule();
+        }
+    }
+    
+    /**
+     * Despierta el canal de un usuario tras encolar en su buzón
+     */
+    public void wake(String username) {
+        ClientChannel channel = channels.get(username);
+        if (channel != null) {
+            channel.schedule();
+        }
+    }
+    
+    /**
+     * Detiene los hilos emisores
+     */
+    public void shutdown() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+        senders.shutdownNow();
+    }
+    
+    /**
+     * Desconecta a los clientes cuyo callback en curso superó el plazo
+     * El hilo trabado queda fuera del grupo: se suma un emisor hasta que vuelva
+     */
+    private void checkStalledCallbacks() {
+        long now = System.currentTimeMillis();
+        for (ClientChannel channel : active) {
+            long started = channel.callbackStartedAt.get();
+            if (started > 0 && now - started > callbackTimeoutMillis
+                    && channel.callbackStartedAt.compareAndSet(started, STALLED)) {
+                channel.closed = true;
+                channels.remove(channel.username, channel);
+                resizeSenders(1);
+                callbackFailureLog.log(AsyncLog.Level.WARN, "Callback de {} sin respuesta tras {} ms",
+                        channel.username, now - started);
+                try {
+                    onClientFailure.accept(channel.username);
+                } catch (RuntimeException e) {
+                    AsyncLog.error("Error al desconectar a {}: {}", channel.username, e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Suma o quita hilos emisores (reemplazos de llamadas trabadas)
+     */
+    private void resizeSenders(int delta) {
+        synchronized (senders) {
+            int size = senders.getCorePoolSize() + delta;
+            // El máximo nunca puede quedar por debajo del núcleo
+            if (delta > 0) {
+                senders.setMaximumPoolSize(size);
+                senders.setCorePoolSize(size);
+            } else {
+                senders.setCorePoolSize(size);
+                senders.setMaximumPoolSize(size);
+            }
+        }
+    }
+    
+    /**
+     * Invoca el callback que corresponde al tipo de mensaje
+     */
+    private static void deliver(ChatClientInterface client, ChatMessage message) throws RemoteException {
+        switch (message.getType()) {
+            case BROADCAST:
+                client.receiveMessage(message.getSenderId(), message.getText(), false);
+                break;
+            case DIRECT:
+                client.receiveMessage(message.getSenderId(), message.getText(), true);
+                break;
+            case USER_JOINED:
+                client.userJoined(message.getSenderId());
+                break;
+            case USER_LEFT:
+                client.userLeft(message.getSenderId());
+                break;
+            case ROOM:
+                client.receiveRoomMessage(message.getRecipientId(), message.getSenderId(), message.getText());
+                break;
+            default:
+                // DIRECT_SENT: en modo push el remitente muestra su propia confirmación
+                break;
+        }
+    }
+    
+    /**
+     * Canal de salida de un cliente
+     * Como máximo un hilo emisor lo procesa a la vez, lo que conserva el orden
+     */
+    private class ClientChannel implements Runnable {
+        private final UserSession session;
+        private final String username;
+        private final ChatClientInterface clientRef;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile boolean closed = false;
+        
+        // Inicio del callback en curso (0 si no hay, STALLED si superó el plazo)
+        private final AtomicLong callbackStartedAt = new AtomicLong();
+        
+        ClientChannel(UserSession session) {
+            this.session = session;
+            this.username = session.getUsername();
+            this.clientRef = session.getClientRef();
+        }
+        
+        void schedule() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            List<ChatMessage> batch = session.takeForPush(roomLog, MAX_EVENTS_PER_TURN);
+            if (!batch.isEmpty() && !deliverBatch(batch)) {
+                return;
+            }
+            
+            scheduled.set(false);
+            // Reprogramar si quedan mensajes o llegaron nuevos durante el turno
+            if (session.hasPending(roomLog)) {
+                schedule();
+            }
+        }
+        
+        /**
+         * Entrega un lote en orden
+         * @return false si el canal se cerró (cliente caído, trabado o desconectado)
+         */
+        private boolean deliverBatch(List<ChatMessage> batch) {
+            active.add(this);
+            try {
+                for (ChatMessage message : batch) {
+                    if (closed) {
+                        return false;
+                    }
+                    String error = null;
+                    callbackStartedAt.set(System.currentTimeMillis());
+                    try {
+                        deliver(clientRef, message);
+                    } catch (RemoteException | RuntimeException e) {
+                        error = String.valueOf(e.getMessage());
+                    }
+                    if (callbackStartedAt.getAndSet(0) == STALLED) {
+                        // El watchdog ya desconectó al cliente y sumó un emisor en lugar de este hilo
+                        resizeSenders(-1);
+                        return false;
+                    }
+                    if (error != null) {
+                        callbackFailureLog.log(AsyncLog.Level.ERROR, "Callback fallido para {}: {}", username, error);
+                        closed = true;
+                        channels.remove(username, this);
+                        onClientFailure.accept(username);
+                        return false;
+                    }
+                }
+            } finally {
+                active.remove(this);
+            }
+            onDelivered.accept(username, batch);
+            return true;
+        }
+    }
+}
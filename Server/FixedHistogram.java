@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de cubetas fijas para métricas del servidor
+ * Cada cubeta es un LongAdder (contadores repartidos entre hilos), así que
+ * registrar un valor no asigna memoria ni compite por una misma variable
+ */
+public class FixedHistogram {
+    
+    // Serie 1-2-5 hasta 10^7 (microsegundos: hasta 10 s)
+    public static final long[] DEFAULT_BOUNDS = series125(10_000_000L);
+    
+    // Límites superiores inclusivos de cada cubeta; la última cubeta es el desborde
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum;
+    
+    public FixedHistogram() {
+        this(DEFAULT_BOUNDS);
+    }
+    
+    /**
+     * @param bounds Límites superiores en orden creciente
+     */
+    public FixedHistogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+        this.sum = new LongAdder();
+    }
+    
+    /**
+     * Registra un valor (sin asignar memoria)
+     */
+    public void record(long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        buckets[index].increment();
+        sum.add(value);
+    }
+    
+    public long count() {
+        long total = 0;
+        for (LongAdder bucket : buckets) {
+            total += bucket.sum();
+        }
+        return total;
+    }
+    
+    public long sum() {
+        return sum.sum();
+    }
+    
+    /**
+     * Percentil aproximado: límite superior de la cubeta que lo contiene
+     * @param percentile Percentil entre 0 y 100
+     * @return 0 si no hay muestras, Long.MAX_VALUE si cae en el desborde
+     */
+    public long percentile(double percentile) {
+        long[] counts = counts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bounds[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    /**
+     * Escribe el histograma en formato de texto (cubetas acumuladas, suma y cuenta)
+     */
+    public void writeTo(StringBuilder out, String name) {
+        long[] counts = counts();
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            out.append(name).append("_bucket{le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts[bounds.length];
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum ").append(sum()).append('\n');
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+    
+    private long[] counts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+    
+    /**
+     * Límites 0, 1, 2, 5, 10, 20, 50... hasta max
+     */
+    public static long[] series125(long max) {
+        long[] values = new long[64];
+        int n = 0;
+        values[n++] = 0;
+        for (long decade = 1; decade <= max; decade *= 10) {
+            for (long step : new long[] {1, 2, 5}) {
+                if (decade * step <= max) {
+                    values[n++] = decade * step;
+                }
+            }
+        }
+        return Arrays.copyOf(values, n);
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Rueda de tiempo para vencer leases de sesión
+ * Cada lease queda en la casilla del tick en que vence. Renovar solo escribe
+ * el nuevo vencimiento (sin candados, en el camino de cada consulta); al
+ * llegar su tick, el lease renovado se pasa a la casilla que corresponde y
+ * el vencido se entrega a onExpired. Cada tick recorre solo su casilla, no
+ * todas las sesiones.
+ */
+public class LeaseWheel<T> {
+    
+    /**
+     * Lease de un dueño (la sesión de un usuario)
+     */
+    public static final class Lease<T> {
+        private final T owner;
+        private volatile long deadline;
+        private volatile boolean cancelled;
+        private final long durationMillis;
+        
+        private Lease(T owner, long durationMillis) {
+            this.owner = owner;
+            this.durationMillis = durationMillis;
+            this.deadline = System.currentTimeMillis() + durationMillis;
+        }
+        
+        /**
+         * Extiende el lease una duración completa desde ahora
+         */
+        public void renew() {
+            deadline = System.currentTimeMillis() + durationMillis;
+        }
+        
+        /**
+         * Anula el lease (el dueño se fue); se descarta en su próximo tick
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+        
+        public T owner() {
+            return owner;
+        }
+    }
+    
+    private final long durationMillis;
+    private final long tickMillis;
+    
+    // Casillas de la rueda; una vuelta cubre más que la duración de un lease
+    private final List<Lease<T>>[] slots;
+    
+    // Último tick procesado
+    private long currentTick;
+    
+    private final Consumer<T> onExpired;
+    private final ScheduledExecutorService reaper;
+    
+    /**
+     * @param durationMillis Duración de cada lease
+     * @param tickMillis Resolución de la rueda (un lease vence a lo sumo un tick tarde)
+     * @param onExpired Acción con el dueño de cada lease vencido (en el hilo de la rueda)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LeaseWheel(long durationMillis, long tickMillis, Consumer<T> onExpired) {
+        this.durationMillis = Math.max(1, durationMillis);
+        this.tickMillis = Math.max(1, tickMillis);
+        this.onExpired = onExpired;
+        
+        int slotCount = (int) (this.durationMillis / this.tickMillis) + 2;
+        slots = new List[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        currentTick = System.currentTimeMillis() / this.tickMillis;
+        
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-lease-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleAtFixedRate(this::advance, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Crea un lease vigente por una duración completa
+     */
+    public Lease<T> add(T owner) {
+        Lease<T> lease = new Lease<>(owner, durationMillis);
+        synchronized (this) {
+            file(lease);
+        }
+        return lease;
+    }
+    
+    /**
+     * Coloca un lease en la casilla del tick en que vence
+     */
+    private void file(Lease<T> lease) {
+        long tick = Math.max(lease.deadline / tickMillis, currentTick + 1);
+        slots[(int) (tick % slots.length)].add(lease);
+    }
+    
+    /**
+     * Procesa los ticks transcurridos: vence o reubica los leases de cada casilla
+     */
+    private void advance() {
+        long nowTick = System.currentTimeMillis() / tickMillis;
+        List<T> expired = new ArrayList<>();
+        synchronized (this) {
+            while (currentTick < nowTick) {
+                currentTick++;
+                int index = (int) (currentTick % slots.length);
+                List<Lease<T>> due = slots[index];
+                slots[index] = new ArrayList<>();
+                for (Lease<T> lease : due) {
+                    if (lease.cancelled) {
+                        continue;
+                    }
+                    if (lease.deadline / tickMillis <= currentTick) {
+                        expired.add(lease.owner);
+                    } else {
+                        file(lease);
+                    }
+                }
+            }
+        }
+        // Fuera del candado: la acción puede desregistrar y crear otros leases
+        for (T owner : expired) {
+            try {
+                onExpired.accept(owner);
+            } catch (RuntimeException e) {
+                AsyncLog.error("Error al vencer un lease: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Detiene la rueda
+     */
+    public void shutdown() {
+        reaper.shutdownNow();
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Registro de consultas en espera (long-poll)
+ * Cada usuario en espera tiene un CompletableFuture que se completa al llegar
+ * un mensaje; no se crean hilos ni temporizadores propios por consulta
+ */
+public class LongPollRegistry {
+    
+    // Consultas en espera: Map<username, aviso>
+    private final Map<String, CompletableFuture<Void>> parked;
+    
+    public LongPollRegistry() {
+        parked = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Registra una espera para el usuario
+     * Debe llamarse antes de revisar si hay mensajes para no perder avisos
+     */
+    public CompletableFuture<Void> park(String username) {
+        CompletableFuture<Void> signal = new CompletableFuture<>();
+        CompletableFuture<Void> previous = parked.put(username, signal);
+        if (previous != null) {
+            // Una consulta anterior del mismo usuario termina de inmediato
+            previous.complete(null);
+        }
+        return signal;
+    }
+    
+    /**
+     * Espera el aviso o el tiempo límite y quita el registro
+     */
+    public void await(String username, CompletableFuture<Void> signal, long maxWaitMillis)
+            throws InterruptedException {
+        try {
+            signal.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Sin mensajes nuevos en el tiempo indicado
+        } finally {
+            parked.remove(username, signal);
+        }
+    }
+    
+    /**
+     * Quita el registro de una espera que terminó sin bloquear un hilo (ver await)
+     */
+    public void release(String username, CompletableFuture<Void> signal) {
+        parked.remove(username, signal);
+    }
+    
+    /**
+     * Despierta la consulta en espera de un usuario
+     */
+    public void signal(String username) {
+        CompletableFuture<Void> signal = parked.remove(username);
+        if (signal != null) {
+            signal.complete(null);
+        }
+    }
+    
+    /**
+     * Despierta todas las consultas en espera (mensaje para la sala)
+     * Solo recorre los usuarios en espera, no a todos los conectados
+     */
+    public void signalAll() {
+        Iterator<CompletableFuture<Void>> it = parked.values().iterator();
+        while (it.hasNext()) {
+            CompletableFuture<Void> signal = it.next();
+            it.remove();
+            signal.complete(null);
+        }
+    }
+    
+    /**
+     * Número de consultas en espera
+     */
+    public int parkedCount() {
+        return parked.size();
+    }
+}
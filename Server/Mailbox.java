@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Buzón de mensajes de un usuario
+ * Cola acotada de múltiples productores y un solo consumidor (MPSC):
+ * encolar nunca espera (un getAndSet sobre la cola) y drainAll entrega
+ * de una vez todo lo encolado hasta ese momento, en orden de llegada
+ */
+public class Mailbox<T> {
+    
+    // Nodo de la lista enlazada; el primero siempre es un nodo vacío
+    private static final class Node<T> {
+        T value;
+        volatile Node<T> next;
+        
+        Node(T value) {
+            this.value = value;
+        }
+    }
+    
+    // Último nodo encolado (compartido por los productores)
+    private final AtomicReference<Node<T>> tail;
+    
+    // Nodo vacío previo al primer mensaje (solo lo toca el consumidor)
+    private Node<T> head;
+    
+    // Mensajes encolados y aún no drenados
+    private final AtomicInteger size;
+    
+    // Máximo de mensajes que admite el buzón
+    private final int capacity;
+    
+    /**
+     * Constructor del buzón
+     * @param capacity Máximo de mensajes pendientes
+     */
+    public Mailbox(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser positiva: " + capacity);
+        }
+        Node<T> stub = new Node<>(null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+        this.size = new AtomicInteger();
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Encola un mensaje sin bloquear
+     * @return false si el buzón está lleno y el mensaje se descartó
+     */
+    public boolean offer(T value) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        Node<T> node = new Node<>(value);
+        Node<T> prev = tail.getAndSet(node);
+        prev.next = node;
+        return true;
+    }
+    
+    /**
+     * Extrae todos los mensajes encolados antes de la llamada
+     * Solo un consumidor a la vez; los productores no se bloquean
+     * @return Lista con los mensajes en orden de llegada (vacía si no hay)
+     */
+    public synchronized List<T> drainAll() {
+        Node<T> last = tail.get();
+        if (last == head) {
+            return Collections.emptyList();
+        }
+        
+        List<T> drained = new ArrayList<>(Math.max(size.get(), 1));
+        Node<T> current = head;
+        while (current != last) {
+            Node<T> next = current.next;
+            if (next == null) {
+                // Un productor ya movió la cola pero aún no enlaza su nodo
+                Thread.onSpinWait();
+                continue;
+            }
+            drained.add(next.value);
+            next.value = null;
+            current = next;
+        }
+        head = last;
+        size.addAndGet(-drained.size());
+        return drained;
+    }
+    
+    /**
+     * Número aproximado de mensajes pendientes
+     */
+    public int size() {
+        return size.get();
+    }
+    
+    /**
+     * Capacidad máxima del buzón
+     */
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,667 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Journal en disco de los mensajes del servidor
+ * Archivos de solo agregado divididos en segmentos. Un hilo escritor junta
+ * lo que llega mientras escribe y hace un solo fsync por grupo (group commit).
+ * Además de los mensajes guarda, cada cierto tiempo, hasta qué secuencia se
+ * entregó a cada usuario; al arrancar se reconstruyen esos cursores y lo no
+ * entregado se reenvía cuando el usuario vuelve a registrarse.
+ *
+ * Registro: largo(4) crc32(4) cuerpo; el cuerpo empieza con el tipo de registro
+ */
+public class MessageJournal {
+    
+    /**
+     * Cuándo se fuerza el journal a disco
+     */
+    public enum Durability {
+        NONE,       // Lo decide el sistema operativo
+        BATCH,      // fsync como máximo cada syncInterval, sin esperar
+        EVERY;      // Cada mensaje espera su fsync (compartido por los que llegan juntos)
+        
+        public static Durability parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+    
+    private static final byte RECORD_MESSAGE = 1;
+    private static final byte RECORD_CURSOR = 2;     // usuario, última secuencia entregada
+    private static final byte RECORD_FORGET = 3;     // usuario que dejó de seguirse
+    
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    
+    // Registros sin escribir a partir de los cuales quien agrega espera al escritor
+    private static final int MAX_PENDING_RECORDS = 64 * 1024;
+    
+    /**
+     * Segmento en disco con la mayor secuencia de mensaje que contiene
+     */
+    private static final class Segment {
+        final Path path;
+        final long number;
+        volatile long maxSequence = -1;
+        
+        Segment(Path path, long number) {
+            this.path = path;
+            this.number = number;
+        }
+    }
+    
+    private final Path directory;
+    private final Durability durability;
+    private final long segmentBytes;
+    private final long syncIntervalMillis;
+    
+    // Segmentos en orden; el último es el que se escribe
+    private final List<Segment> segments = new ArrayList<>();
+    private FileChannel channel;
+    private long segmentPosition;
+    
+    // Última secuencia entregada a cada usuario seguido
+    private final Map<String, Long> cursors = new ConcurrentHashMap<>();
+    
+    // Cursores recuperados al arrancar cuyo usuario aún no volvió
+    private final Map<String, Long> recovered = new ConcurrentHashMap<>();
+    
+    // Momento desde el que los cursores recuperados dejan de retener segmentos
+    private final long recoveredDeadline;
+    
+    // Segmentos que existían al arrancar (donde están los mensajes recuperados)
+    private final List<Segment> recoveredSegments;
+    
+    // Siguiente secuencia libre según lo recuperado
+    private final long nextSequence;
+    
+    // Registros en espera del escritor; tickets en orden de llegada
+    private final Object lock = new Object();
+    private List<byte[]> pending = new ArrayList<>();
+    private long enqueued;
+    private long synced;
+    private boolean running = true;
+    private IOException failure;
+    
+    // Algún cursor cambió desde la última escritura
+    private final AtomicBoolean cursorsDirty = new AtomicBoolean();
+    
+    // Cursores ya escritos (solo los toca el escritor)
+    private final Map<String, Long> writtenCursors = new HashMap<>();
+    
+    private final Thread writer;
+    
+    /**
+     * Abre el journal y recupera su estado; los cursores recuperados no vencen
+     */
+    public MessageJournal(Path directory, Durability durability, long segmentBytes, long syncIntervalMillis)
+            throws IOException {
+        this(directory, durability, segmentBytes, syncIntervalMillis, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Abre el journal y recupera su estado
+     * @param segmentBytes Tamaño a partir del cual se abre un segmento nuevo
+     * @param syncIntervalMillis Intervalo de fsync (BATCH) y de escritura de cursores
+     * @param recoveredTtlMillis Tiempo que se espera a un usuario recuperado antes de olvidarlo
+     */
+    public MessageJournal(Path directory, Durability durability, long segmentBytes, long syncIntervalMillis,
+                          long recoveredTtlMillis) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentBytes = Math.max(1024, segmentBytes);
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+        Files.createDirectories(directory);
+        
+        nextSequence = recover();
+        recoveredSegments = new ArrayList<>(segments);
+        recovered.putAll(cursors);
+        long now = System.currentTimeMillis();
+        recoveredDeadline = recoveredTtlMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + recoveredTtlMillis;
+        
+        // Se escribe siempre en un segmento nuevo, empezando por los cursores vigentes
+        openSegment(segments.isEmpty() ? 0 : segments.get(segments.size() - 1).number + 1);
+        writeCursorCheckpoint(true);
+        channel.force(false);
+        deleteObsoleteSegments();
+        
+        writer = new Thread(this::writeLoop, "chat-journal");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "chat-journal-close"));
+    }
+    
+    /**
+     * Secuencia desde la que debe seguir numerando el servidor
+     */
+    public long nextSequence() {
+        return nextSequence;
+    }
+    
+    /**
+     * Agrega un mensaje al journal
+     * Con durabilidad EVERY no vuelve hasta que el mensaje está en disco; con
+     * las demás solo espera si el escritor quedó muy atrasado (ráfagas)
+     */
+    public void append(ChatMessage message) throws IOException {
+        byte[] record = encodeMessage(message);
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+            pending.add(record);
+            long ticket = ++enqueued;
+            lock.notifyAll();
+            long waitFor = durability == Durability.EVERY ? ticket : ticket - MAX_PENDING_RECORDS;
+            while (synced < waitFor && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrumpido esperando al escritor del journal", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+    
+    /**
+     * Empieza a seguir a un usuario: se le deben los mensajes posteriores a lastDelivered
+     */
+    public void track(String username, long lastDelivered) {
+        cursors.put(username, lastDelivered);
+        markCursorsDirty();
+    }
+    
+    /**
+     * Registra hasta qué secuencia se entregó a un usuario (se escribe en el próximo ciclo)
+     */
+    public void acknowledge(String username, long sequence) {
+        if (cursors.computeIfPresent(username, (user, previous) -> Math.max(previous, sequence)) != null) {
+            cursorsDirty.set(true);
+        }
+    }
+    
+    /**
+     * Deja de seguir a un usuario (salió del chat)
+     */
+    public void forget(String username) {
+        cursors.remove(username);
+        recovered.remove(username);
+        markCursorsDirty();
+    }
+    
+    private void markCursorsDirty() {
+        cursorsDirty.set(true);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+    
+    /**
+     * Lee del disco los mensajes recuperados que el usuario no recibió
+     * Después el usuario se sigue como cualquier otro desde su cursor recuperado
+     * @return null si no hay nada recuperado (o ya venció): hay que seguirlo con track
+     */
+    public List<ChatMessage> takeUndelivered(String username) throws IOException {
+        Long after;
+        synchronized (recovered) {
+            after = recovered.remove(username);
+        }
+        if (after == null) {
+            return null;
+        }
+        List<ChatMessage> result = new ArrayList<>();
+        for (Segment segment : recoveredSegments) {
+            if (segment.maxSequence <= after || !Files.exists(segment.path)) {
+                continue;
+            }
+            readSegment(segment.path, body -> {
+                if (body[0] == RECORD_MESSAGE) {
+                    ChatMessage message = decodeMessage(body);
+                    if (message.getSequenceId() > after && isFor(message, username)) {
+                        result.add(message);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+    
+    /**
+     * Indica si un mensaje del journal le corresponde a un usuario
+     */
+    private static boolean isFor(ChatMessage message, String username) {
+        switch (message.getType()) {
+            case DIRECT:
+                return username.equals(message.getRecipientId());
+            case DIRECT_SENT:
+                return username.equals(message.getSenderId());
+            case USER_JOINED:
+                return !username.equals(message.getSenderId());
+            case ROOM:
+                // Las salas no sobreviven a la sesión: no se recuperan
+                return false;
+            default:
+                return true;
+        }
+    }
+    
+    /**
+     * Escribe lo pendiente, fuerza a disco y detiene el escritor
+     */
+    public void close() {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // ---- Escritor ----
+    
+    private void writeLoop() {
+        long lastSync = System.nanoTime();
+        boolean unsynced = false;
+        while (true) {
+            List<byte[]> batch;
+            long upTo;
+            boolean stopping;
+            synchronized (lock) {
+                if (pending.isEmpty() && running) {
+                    try {
+                        lock.wait(syncIntervalMillis);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                upTo = enqueued;
+                stopping = !running;
+            }
+            
+            try {
+                if (!batch.isEmpty()) {
+                    writeRecords(batch);
+                    unsynced = true;
+                }
+                if (cursorsDirty.getAndSet(false) && writeCursorCheckpoint(false)) {
+                    unsynced = true;
+                }
+                
+                long now = System.nanoTime();
+                boolean sync = unsynced && (durability == Durability.EVERY || stopping
+                        || (durability == Durability.BATCH && now - lastSync >= syncIntervalMillis * 1_000_000L));
+                if (sync) {
+                    channel.force(false);
+                    lastSync = now;
+                    unsynced = false;
+                }
+                synchronized (lock) {
+                    synced = upTo;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                AsyncLog.error("Error al escribir el journal: {}", e.getMessage());
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            
+            if (stopping) {
+                try {
+                    channel.force(true);
+                    channel.close();
+                } catch (IOException e) {
+                    AsyncLog.error("Error al cerrar el journal: {}", e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Escribe un grupo de registros con una escritura por bloque
+     */
+    private void writeRecords(List<byte[]> batch) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (byte[] record : batch) {
+            long written = segmentPosition + buffer.position();
+            if (written > 0 && written + record.length > segmentBytes) {
+                drain(buffer);
+                rollSegment();
+            }
+            if (record.length > buffer.remaining()) {
+                drain(buffer);
+                if (record.length > buffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(record));
+                    noteSequence(record);
+                    continue;
+                }
+            }
+            buffer.put(record);
+            noteSequence(record);
+        }
+        drain(buffer);
+    }
+    
+    private void drain(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segmentPosition += channel.write(buffer);
+        }
+    }
+    
+    /**
+     * Actualiza la mayor secuencia del segmento activo con un registro de mensaje
+     */
+    private void noteSequence(byte[] record) {
+        if (record[HEADER_BYTES] == RECORD_MESSAGE) {
+            long sequence = ByteBuffer.wrap(record, HEADER_BYTES + 1, 8).getLong();
+            Segment active = segments.get(segments.size() - 1);
+            active.maxSequence = Math.max(active.maxSequence, sequence);
+        }
+    }
+    
+    /**
+     * Escribe los cursores que cambiaron (o todos, al abrir un segmento)
+     * @return true si escribió algo
+     */
+    private boolean writeCursorCheckpoint(boolean all) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+            Long written = writtenCursors.get(cursor.getKey());
+            if (all || !cursor.getValue().equals(written)) {
+                records.add(encodeCursor(RECORD_CURSOR, cursor.getKey(), cursor.getValue()));
+                writtenCursors.put(cursor.getKey(), cursor.getValue());
+            }
+        }
+        for (String user : new ArrayList<>(writtenCursors.keySet())) {
+            if (!cursors.containsKey(user)) {
+                records.add(encodeCursor(RECORD_FORGET, user, -1));
+                writtenCursors.remove(user);
+            }
+        }
+        if (records.isEmpty()) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(records.stream().mapToInt(r -> r.length).sum());
+        for (byte[] record : records) {
+            buffer.put(record);
+        }
+        buffer.flip();
+        writeFully(buffer);
+        return true;
+    }
+    
+    /**
+     * Cierra el segmento activo, abre otro y borra los que ya nadie necesita
+     */
+    private void rollSegment() throws IOException {
+        expireRecovered();
+        channel.force(false);
+        channel.close();
+        openSegment(segments.get(segments.size() - 1).number + 1);
+        writeCursorCheckpoint(true);
+        deleteObsoleteSegments();
+    }
+    
+    private void openSegment(long number) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", number, SEGMENT_SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segmentPosition = 0;
+        segments.add(new Segment(path, number));
+    }
+    
+    /**
+     * Olvida a los usuarios recuperados que no volvieron dentro del plazo
+     * Si no, un usuario que no vuelve retiene para siempre los segmentos desde su cursor
+     */
+    private void expireRecovered() {
+        if (recovered.isEmpty() || System.currentTimeMillis() < recoveredDeadline) {
+            return;
+        }
+        int expired = 0;
+        synchronized (recovered) {
+            for (Map.Entry<String, Long> cursor : recovered.entrySet()) {
+                if (recovered.remove(cursor.getKey(), cursor.getValue())) {
+                    cursors.remove(cursor.getKey(), cursor.getValue());
+                    expired++;
+                }
+            }
+        }
+        if (expired > 0) {
+            cursorsDirty.set(true);
+            AsyncLog.info("Journal: {} usuarios recuperados no volvieron a tiempo, se dejan de seguir", expired);
+        }
+    }
+    
+    /**
+     * Borra los segmentos cerrados cuyos mensajes ya se entregaron a todos
+     * Cada segmento empieza con todos los cursores, así los anteriores no hacen falta
+     */
+    private void deleteObsoleteSegments() {
+        long lowest = Long.MAX_VALUE;
+        for (Long cursor : cursors.values()) {
+            lowest = Math.min(lowest, cursor);
+        }
+        while (segments.size() > 1 && segments.get(0).maxSequence <= lowest) {
+            Segment obsolete = segments.remove(0);
+            try {
+                Files.deleteIfExists(obsolete.path);
+            } catch (IOException e) {
+                AsyncLog.warn("No se pudo borrar el segmento {}: {}", obsolete.path, e.getMessage());
+            }
+        }
+    }
+    
+    // ---- Recuperación ----
+    
+    /**
+     * Lee los segmentos existentes: cursores y última secuencia
+     * Un registro incompleto al final (caída a mitad de escritura) se descarta
+     * @return Siguiente secuencia libre
+     */
+    private long recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        
+        long[] maxSequence = {-1};
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Segment segment = new Segment(file, Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            readSegment(file, body -> {
+                switch (body[0]) {
+                    case RECORD_MESSAGE:
+                        long sequence = ByteBuffer.wrap(body, 1, 8).getLong();
+                        segment.maxSequence = Math.max(segment.maxSequence, sequence);
+                        maxSequence[0] = Math.max(maxSequence[0], sequence);
+                        break;
+                    case RECORD_CURSOR:
+                        DataInputStream cursor = bodyInput(body);
+                        cursors.put(cursor.readUTF(), cursor.readLong());
+                        break;
+                    case RECORD_FORGET:
+                        cursors.remove(bodyInput(body).readUTF());
+                        break;
+                    default:
+                        throw new IOException("Registro desconocido en " + file + ": " + body[0]);
+                }
+            });
+            segments.add(segment);
+        }
+        
+        if (!files.isEmpty()) {
+            AsyncLog.info("Journal recuperado: {} segmentos, {} usuarios con mensajes pendientes, última secuencia {}",
+                    files.size(), cursors.size(), maxSequence[0]);
+        }
+        return maxSequence[0] + 1;
+    }
+    
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(byte[] body) throws IOException;
+    }
+    
+    /**
+     * Recorre los registros válidos de un segmento hasta el primero incompleto o dañado
+     */
+    private static void readSegment(Path file, RecordVisitor visitor) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            while (true) {
+                header.clear();
+                if (!readFully(in, header)) {
+                    return;
+                }
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    return;
+                }
+                ByteBuffer body = ByteBuffer.allocate(length);
+                if (!readFully(in, body)) {
+                    return;
+                }
+                crc.reset();
+                crc.update(body.array());
+                if ((int) crc.getValue() != checksum) {
+                    AsyncLog.warn("Registro dañado en {}, se ignora el resto del segmento", file);
+                    return;
+                }
+                visitor.visit(body.array());
+            }
+        }
+    }
+    
+    private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // ---- Codificación ----
+    
+    /**
+     * Lee todos los mensajes válidos de un archivo de registros
+     * Lo usa también el almacén de usuarios desconectados para sus archivos
+     */
+    static List<ChatMessage> readMessages(Path file) throws IOException {
+        List<ChatMessage> messages = new ArrayList<>();
+        readSegment(file, body -> {
+            if (body[0] == RECORD_MESSAGE) {
+                messages.add(decodeMessage(body));
+            }
+        });
+        return messages;
+    }
+    
+    /**
+     * Registro completo (largo, crc32 y cuerpo) de un mensaje
+     * Formato del cuerpo: seq(8) tipo(1) remitente(UTF) [destinatario(UTF)] hora(8) largo(4) bytes
+     */
+    static byte[] encodeMessage(ChatMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + message.getPayload().length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_MESSAGE);
+        out.writeLong(message.getSequenceId());
+        out.writeByte(message.getType().ordinal());
+        out.writeUTF(message.getSenderId());
+        out.writeBoolean(message.getRecipientId() != null);
+        if (message.getRecipientId() != null) {
+            out.writeUTF(message.getRecipientId());
+        }
+        out.writeLong(message.getTimestamp());
+        out.writeInt(message.getPayload().length);
+        out.write(message.getPayload());
+        return frame(bytes.toByteArray());
+    }
+    
+    private static ChatMessage decodeMessage(byte[] body) throws IOException {
+        DataInputStream in = bodyInput(body);
+        long sequence = in.readLong();
+        ChatMessage.Type type = ChatMessage.Type.fromCode(in.readUnsignedByte());
+        String sender = in.readUTF();
+        String recipient = in.readBoolean() ? in.readUTF() : null;
+        long timestamp = in.readLong();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return new ChatMessage(sequence, type, sender, recipient, timestamp, payload);
+    }
+    
+    /**
+     * Lectura del cuerpo de un registro después del byte de tipo
+     */
+    private static DataInputStream bodyInput(byte[] body) {
+        return new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1));
+    }
+    
+    private static byte[] encodeCursor(byte recordType, String username, long sequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(recordType);
+        out.writeUTF(username);
+        out.writeLong(sequence);
+        return frame(bytes.toByteArray());
+    }
+    
+    /**
+     * Antepone largo y crc32 al cuerpo de un registro
+     */
+    private static byte[] frame(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        record.putInt(body.length);
+        record.putInt((int) crc.getValue());
+        record.put(body);
+        return record.array();
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utilidades para combinar mensajes de distintas colas en orden de secuencia
+ */
+public final class MessageOrder {
+    
+    private MessageOrder() {
+    }
+    
+    /**
+     * Combina dos listas ordenadas por secuencia en una sola
+     * Si una de las dos está vacía devuelve la otra sin copiar
+     */
+    public static List<ChatMessage> merge(List<ChatMessage> first, List<ChatMessage> second) {
+        if (second.isEmpty()) {
+            return first;
+        }
+        if (first.isEmpty()) {
+            return second;
+        }
+        
+        List<ChatMessage> merged = new ArrayList<>(first.size() + second.size());
+        int i = 0;
+        int j = 0;
+        while (i < first.size() && j < second.size()) {
+            if (first.get(i).getSequenceId() <= second.get(j).getSequenceId()) {
+                merged.add(first.get(i++));
+            } else {
+                merged.add(second.get(j++));
+            }
+        }
+        while (i < first.size()) {
+            merged.add(first.get(i++));
+        }
+        while (j < second.size()) {
+            merged.add(second.get(j++));
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,53 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Endpoint HTTP de métricas en texto plano (GET /metrics)
+ * Usa el servidor HTTP incluido en el JDK con un solo hilo de fondo
+ */
+public class MetricsEndpoint {
+    
+    private final HttpServer httpServer;
+    
+    /**
+     * Inicia el endpoint
+     * @param host Dirección donde escuchar (por ejemplo 127.0.0.1)
+     * @param port Puerto HTTP
+     */
+    public MetricsEndpoint(ServerMetrics metrics, String host, int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        httpServer.createContext("/metrics", exchange -> handle(exchange, metrics));
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "chat-metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        httpServer.start();
+    }
+    
+    private static void handle(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        try {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    public void stop() {
+        httpServer.stop(0);
+    }
+}
@@ -0,0 +1,695 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transporte NIO del servidor de chat (alternativa a RMI)
+ * Un solo hilo con un Selector atiende todas las conexiones: lee tramas de
+ * WireProtocol y escribe respuestas y avisos juntando varias tramas en cada
+ * escritura. Las operaciones corren en un grupo fijo de hilos y el long-poll
+ * no ocupa ninguno mientras espera (fetchMessagesAsync). Las peticiones de
+ * una conexión se ejecutan de a una y en orden de llegada; si acumula demasiadas
+ * sin ejecutar se deja de leer su socket hasta que baje a la mitad.
+ * En modo push los callbacks de ChatClientInterface se escriben como avisos
+ * en la misma conexión, sin abrir otra hacia el cliente.
+ */
+public class NioChatServer {
+    
+    // Tamaño inicial del buffer de lectura de cada conexión (se duplica a medida que llega una trama mayor)
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    
+    // Máximo de tramas por escritura
+    private static final int MAX_WRITE_BATCH = 64;
+    
+    private final ChatServer server;
+    private final Selector selector;
+    private final ServerSocketChannel acceptor;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    
+    // Bytes sin escribir por conexión antes de considerar al cliente inalcanzable
+    private final long maxQueuedBytes;
+    
+    // Peticiones leídas y sin terminar por conexión antes de dejar de leer su socket
+    private final int maxInFlight;
+    
+    // Conexiones con tramas por escribir: las agregan otros hilos, las escribe el del selector
+    private final Queue<Connection> flushRequests = new ConcurrentLinkedQueue<>();
+    
+    // Conexiones que pueden volver a leer: las agregan los hilos de trabajo, las atiende el del selector
+    private final Queue<Connection> readResumes = new ConcurrentLinkedQueue<>();
+    
+    // Tramas para escribir de una vez (solo en el hilo del selector)
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_WRITE_BATCH];
+    
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    
+    private volatile boolean running = true;
+    
+    // Conexión cerrada por error: como máximo un aviso por segundo
+    private final AsyncLog.RateLimited connectionErrorLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    
+    /**
+     * Inicia el transporte
+     * Hilos de trabajo con -Dchat.nio.workers, bytes pendientes por conexión con
+     * -Dchat.nio.maxQueued (al superarlo el cliente se considera inalcanzable) y
+     * peticiones sin terminar por conexión con -Dchat.nio.maxInFlight (al llegar
+     * ahí se deja de leer la conexión)
+     * @param host Dirección donde escuchar
+     * @param port Puerto TCP (0 para uno libre, ver getPort)
+     */
+    public NioChatServer(ChatServer server, String host, int port) throws IOException {
+        this.server = server;
+        this.maxQueuedBytes = Long.getLong("chat.nio.maxQueued", 8L * 1024 * 1024);
+        this.maxInFlight = Math.max(1, Integer.getInteger("chat.nio.maxInFlight", 64));
+        
+        selector = Selector.open();
+        acceptor = ServerSocketChannel.open();
+        acceptor.bind(new InetSocketAddress(host, port), 1024);
+        acceptor.configureBlocking(false);
+        acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        
+        int threads = Integer.getInteger("chat.nio.workers",
+                Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "chat-nio-worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        
+        selectorThread = new Thread(this::run, "chat-nio-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+    
+    /**
+     * Puerto en el que escucha
+     */
+    public int getPort() {
+        return acceptor.socket().getLocalPort();
+    }
+    
+    public int getConnectionCount() {
+        return connections.size();
+    }
+    
+    public long getFramesInTotal() {
+        return framesIn.sum();
+    }
+    
+    public long getFramesOutTotal() {
+        return framesOut.sum();
+    }
+    
+    /**
+     * Bucle del selector: acepta, lee y escribe sin bloquearse
+     */
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Connection pending;
+                while ((pending = flushRequests.poll()) != null) {
+                    pending.flush();
+                }
+                while ((pending = readResumes.poll()) != null) {
+                    try {
+                        pending.resumeReading();
+                    } catch (IOException | CancelledKeyException e) {
+                        pending.close();
+                    }
+                }
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        connectionErrorLog.log(AsyncLog.Level.WARN, "Conexión NIO cerrada: {}", e.getMessage());
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                AsyncLog.error("Error en el selector NIO: {}", e.getMessage());
+            } catch (RuntimeException e) {
+                if (running) {
+                    AsyncLog.error("Error inesperado en el selector NIO: {}", e);
+                }
+            }
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = acceptor.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connections.add(new Connection(channel));
+        }
+    }
+    
+    /**
+     * Ejecuta una petición en un hilo de trabajo y envía la respuesta
+     */
+    private void handle(Connection connection, WireProtocol.Reader request) {
+        int callId = request.getCallId();
+        WireProtocol.Writer reply;
+        try {
+            reply = execute(connection, request);
+            if (reply == null) {
+                // La respuesta se envía al completarse (long-poll)
+                return;
+            }
+        } catch (Exception e) {
+            reply = failure(callId, e);
+        }
+        connection.reply(reply);
+    }
+    
+    /**
+     * Invoca la operación de ChatServerInterface que corresponde a la trama
+     * @return Respuesta, o null si se enviará más tarde
+     */
+    private WireProtocol.Writer execute(Connection connection, WireProtocol.Reader request) throws Exception {
+        int callId = request.getCallId();
+        WireProtocol.Writer reply = new WireProtocol.Writer(WireProtocol.OK, callId);
+        switch (request.getType()) {
+            case WireProtocol.REGISTER: {
+                String username = request.text();
+                ClientProxy proxy = new ClientProxy(connection, username);
+                boolean registered = server.registerClient(username, proxy);
+                if (registered) {
+                    connection.clients.put(username, proxy);
+                }
+                reply.writeBoolean(registered);
+                return reply;
+            }
+            case WireProtocol.UNREGISTER: {
+                String username = request.text();
+                connection.clients.remove(username);
+                server.unregisterClient(username);
+                return reply;
+            }
+            case WireProtocol.BROADCAST:
+                server.broadcastMessage(request.text(), request.text());
+                return reply;
+            case WireProtocol.DIRECT:
+                server.sendDirectMessage(request.text(), request.text(), request.text());
+                return reply;
+            case WireProtocol.SEND_BATCH: {
+                String from = request.text();
+                int count = request.readInt();
+                if (count < 0 || count > request.available()) {
+                    throw new IOException("Cantidad de mensajes inválida: " + count);
+                }
+                List<OutboundMessage> messages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    OutboundMessage message = new OutboundMessage();
+                    message.readExternal(request);
+                    messages.add(message);
+                }
+                List<SendResult> results = server.sendBatch(from, messages);
+                reply.writeInt(results.size());
+                for (SendResult result : results) {
+                    result.writeExternal(reply);
+                }
+                return reply;
+            }
+            case WireProtocol.JOIN_ROOM:
+                reply.writeBoolean(server.joinRoom(request.text(), request.text()));
+                return reply;
+            case WireProtocol.LEAVE_ROOM:
+                server.leaveRoom(request.text(), request.text());
+                return reply;
+            case WireProtocol.POST_TO_ROOM:
+                server.postToRoom(request.text(), request.text(), request.text());
+                return reply;
+            case WireProtocol.ROOM_MEMBERS:
+                return reply.names(server.getRoomMembers(request.text()));
+            case WireProtocol.ONLINE_USERS:
+                return reply.names(server.getOnlineUsers());
+            case WireProtocol.PRESENCE_CHANGES:
+                server.getPresenceChanges(request.readLong(), request.readLong()).writeExternal(reply);
+                return reply;
+            case WireProtocol.PENDING_MESSAGES: {
+                Map<String, List<String>> pending = server.getPendingMessages(request.text());
+                reply.writeInt(pending.size());
+                for (Map.Entry<String, List<String>> entry : pending.entrySet()) {
+                    reply.text(entry.getKey()).names(entry.getValue());
+                }
+                return reply;
+            }
+            case WireProtocol.MESSAGE_BATCH:
+                server.getMessageBatch(request.text()).writeExternal(reply);
+                return reply;
+            case WireProtocol.FETCH_MESSAGES: {
+                String username = request.text();
+                long afterSeq = request.readLong();
+                long maxWaitMillis = request.readLong();
+                int maxBatch = request.readInt();
+                server.fetchMessagesAsync(username, afterSeq, maxWaitMillis, maxBatch, workers)
+                        .whenComplete((batch, error) -> {
+                            if (error != null) {
+                                connection.reply(failure(callId, error instanceof CompletionException
+                                        && error.getCause() != null ? error.getCause() : error));
+                                return;
+                            }
+                            WireProtocol.Writer response = new WireProtocol.Writer(WireProtocol.OK, callId);
+                            try {
+                                batch.writeExternal(response);
+                            } catch (IOException e) {
+                                response = failure(callId, e);
+                            }
+                            connection.reply(response);
+                        });
+                return null;
+            }
+            case WireProtocol.HEARTBEAT:
+                reply.writeBoolean(server.heartbeat(request.text()));
+                return reply;
+            case WireProtocol.NEGOTIATE_COMPRESSION:
+                return reply.text(server.negotiateCompression(request.text(), request.names()));
+            case WireProtocol.DELIVERY_MODE:
+                return reply.text(server.getDeliveryMode());
+            default:
+                throw new IOException("Operación desconocida: " + request.getType());
+        }
+    }
+    
+    /**
+     * Respuesta de error; las excepciones de la aplicación conservan su tipo
+     */
+    private static WireProtocol.Writer failure(int callId, Throwable error) {
+        try {
+            if (error instanceof RateLimitedException) {
+                WireProtocol.Writer reply = new WireProtocol.Writer(WireProtocol.RATE_LIMITED, callId);
+                reply.text(error.getMessage());
+                reply.writeLong(((RateLimitedException) error).getRetryAfterMillis());
+                return reply;
+            }
+            if (error instanceof RedirectException) {
+                WireProtocol.Writer reply = new WireProtocol.Writer(WireProtocol.REDIRECT, callId);
+                reply.text(((RedirectException) error).getHost());
+                reply.writeInt(((RedirectException) error).getPort());
+                reply.writeInt(((RedirectException) error).getNioPort());
+                return reply;
+            }
+            return new WireProtocol.Writer(WireProtocol.ERROR, callId).text(String.valueOf(error.getMessage()));
+        } catch (IOException e) {
+            // Escribir en memoria no falla
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Detiene el transporte y cierra todas las conexiones
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        workers.shutdownNow();
+        try {
+            acceptor.close();
+            selector.close();
+        } catch (IOException e) {
+            AsyncLog.warn("Error al cerrar el transporte NIO: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Conexión de un cliente
+     * Lee y escribe solo en el hilo del selector; los demás hilos encolan tramas
+     */
+    private final class Connection {
+        
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        
+        // Bytes leídos que aún no forman una trama completa (o que esperan a que se vuelva a leer)
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        
+        // Peticiones leídas y aún sin ejecutar, en orden de llegada
+        private final Queue<WireProtocol.Reader> requests = new ConcurrentLinkedQueue<>();
+        
+        // Peticiones encoladas más la que se está ejecutando
+        private final AtomicInteger inFlight = new AtomicInteger();
+        
+        // true mientras no se lee el socket por tener maxInFlight peticiones
+        private volatile boolean readPaused;
+        private final AtomicBoolean resumeRequested = new AtomicBoolean();
+        
+        // Tramas encoladas por cualquier hilo y tramas que se están escribiendo
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean flushRequested = new AtomicBoolean();
+        private boolean writeInterest = false;
+        
+        // Usuarios registrados por esta conexión: Map<username, referencia>
+        private final Map<String, ClientProxy> clients = new ConcurrentHashMap<>();
+        
+        private final AtomicBoolean closed = new AtomicBoolean();
+        
+        Connection(SocketChannel channel) throws ClosedChannelException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+        
+        /**
+         * Lee lo disponible y encola cada trama completa (en el hilo del selector)
+         */
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            readFrames();
+        }
+        
+        /**
+         * Encola las tramas completas del buffer mientras no se llegue a maxInFlight
+         * Lo que queda (una trama incompleta o las que no se encolaron) espera en el buffer
+         */
+        private void readFrames() throws IOException {
+            in.flip();
+            while (!readPaused && in.remaining() >= 4) {
+                int length = WireProtocol.checkLength(in.getInt(in.position()));
+                if (in.remaining() < 4 + length) {
+                    if (in.remaining() == in.capacity()) {
+                        // Trama mayor que el buffer lleno: duplicarlo (hasta el tamaño de la trama)
+                        // a medida que llegan sus bytes, no de una vez por lo que anuncia la cabecera
+                        int capacity = (int) Math.min(4L + length, 2L * in.capacity());
+                        in = ByteBuffer.allocate(capacity).put(in);
+                        return;
+                    }
+                    break;
+                }
+                in.getInt();
+                byte type = in.get();
+                int callId = in.getInt();
+                byte[] body = new byte[length - (WireProtocol.HEADER_BYTES - 4)];
+                in.get(body);
+                framesIn.increment();
+                if (!submit(new WireProtocol.Reader(type, callId, body))) {
+                    return;
+                }
+                if (inFlight.get() >= maxInFlight) {
+                    pauseReading();
+                }
+            }
+            in.compact();
+            if (in.position() == 0 && in.capacity() > READ_BUFFER_BYTES) {
+                in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            }
+        }
+        
+        /**
+         * Encola una petición; si no hay otra en curso, un hilo de trabajo empieza a ejecutarlas
+         * @return false si el transporte se está deteniendo (la conexión se cierra)
+         */
+        private boolean submit(WireProtocol.Reader request) {
+            requests.add(request);
+            if (inFlight.getAndIncrement() == 0) {
+                try {
+                    workers.execute(this::runRequests);
+                } catch (RejectedExecutionException e) {
+                    close();
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Ejecuta las peticiones encoladas de a una y en orden (en un hilo de trabajo)
+         * Termina cuando no quedan; la siguiente que llegue vuelve a pedir un hilo
+         */
+        private void runRequests() {
+            while (true) {
+                handle(this, requests.poll());
+                int remaining = inFlight.decrementAndGet();
+                if (readPaused && remaining <= maxInFlight / 2 && resumeRequested.compareAndSet(false, true)) {
+                    readResumes.add(this);
+                    selector.wakeup();
+                }
+                if (remaining == 0) {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * Deja de leer el socket hasta que se ejecuten la mitad de las peticiones (en el hilo del selector)
+         */
+        private void pauseReading() {
+            readPaused = true;
+            // Si los hilos ya terminaron antes de ver la marca, nadie pediría reanudar
+            if (inFlight.get() <= maxInFlight / 2) {
+                readPaused = false;
+                return;
+            }
+            updateInterest();
+        }
+        
+        /**
+         * Vuelve a leer: primero lo que quedó en el buffer, luego el socket (en el hilo del selector)
+         */
+        void resumeReading() throws IOException {
+            resumeRequested.set(false);
+            if (!readPaused || closed.get()) {
+                return;
+            }
+            readPaused = false;
+            readFrames();
+            updateInterest();
+        }
+        
+        /**
+         * Ajusta los eventos del selector a la lectura pausada y a lo pendiente de escribir
+         */
+        private void updateInterest() {
+            key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (writeInterest ? SelectionKey.OP_WRITE : 0));
+        }
+        
+        /**
+         * Encola una trama desde cualquier hilo y pide al selector que la escriba
+         * @throws IOException si la conexión se cerró o el cliente no está leyendo
+         */
+        void send(WireProtocol.Writer frame) throws IOException {
+            if (closed.get()) {
+                throw new IOException("conexión cerrada");
+            }
+            ByteBuffer bytes = frame.toFrame();
+            if (queuedBytes.addAndGet(bytes.remaining()) > maxQueuedBytes) {
+                queuedBytes.addAndGet(-bytes.remaining());
+                throw new IOException("Cola de salida llena (" + maxQueuedBytes + " bytes)");
+            }
+            outbound.add(bytes);
+            // Un solo aviso al selector por ráfaga de tramas
+            if (flushRequested.compareAndSet(false, true)) {
+                flushRequests.add(this);
+                selector.wakeup();
+            }
+        }
+        
+        /**
+         * Envía una respuesta; si el cliente no la puede recibir se cierra la conexión
+         */
+        void reply(WireProtocol.Writer frame) {
+            try {
+                send(frame);
+            } catch (IOException e) {
+                close();
+            }
+        }
+        
+        /**
+         * Escribe las tramas encoladas (en el hilo del selector)
+         * Lo que no entra en el socket queda para cuando vuelva a ser escribible
+         */
+        void flush() {
+            flushRequested.set(false);
+            if (closed.get()) {
+                return;
+            }
+            ByteBuffer next;
+            while ((next = outbound.poll()) != null) {
+                writing.add(next);
+            }
+            try {
+                while (!writing.isEmpty()) {
+                    int count = 0;
+                    for (ByteBuffer frame : writing) {
+                        gather[count++] = frame;
+                        if (count == MAX_WRITE_BATCH) {
+                            break;
+                        }
+                    }
+                    long written = channel.write(gather, 0, count);
+                    boolean full = gather[count - 1].hasRemaining();
+                    Arrays.fill(gather, 0, count, null);
+                    queuedBytes.addAndGet(-written);
+                    while (!writing.isEmpty() && !writing.peekFirst().hasRemaining()) {
+                        writing.pollFirst();
+                        framesOut.increment();
+                    }
+                    if (full) {
+                        break;
+                    }
+                }
+                boolean pending = !writing.isEmpty();
+                if (pending != writeInterest) {
+                    writeInterest = pending;
+                    updateInterest();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+        
+        /**
+         * Cierra la conexión; sus usuarios se desconectan sin esperar a que venza su lease
+         */
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ya estaba cerrada
+            }
+            connections.remove(this);
+            outbound.clear();
+            for (Map.Entry<String, ClientProxy> client : clients.entrySet()) {
+                try {
+                    workers.execute(() -> server.disconnectClient(client.getKey(), client.getValue()));
+                } catch (RejectedExecutionException e) {
+                    // El transporte se está deteniendo
+                }
+            }
+        }
+    }
+    
+    /**
+     * Referencia de un usuario conectado por NIO
+     * Los callbacks se escriben como avisos en la conexión; si el cliente no
+     * los lee a tiempo se lanza RemoteException como con un cliente RMI caído
+     */
+    private static final class ClientProxy implements ChatClientInterface {
+        
+        private final Connection connection;
+        private final String username;
+        
+        ClientProxy(Connection connection, String username) {
+            this.connection = connection;
+            this.username = username;
+        }
+        
+        @Override
+        public void receiveMessage(String from, String message, boolean isDirect) throws RemoteException {
+            try {
+                WireProtocol.Writer frame = push(WireProtocol.PUSH_MESSAGE).text(from).text(message);
+                frame.writeBoolean(isDirect);
+                connection.send(frame);
+            } catch (IOException e) {
+                throw unreachable(e);
+            }
+        }
+        
+        @Override
+        public void receiveRoomMessage(String room, String from, String message) throws RemoteException {
+            try {
+                connection.send(push(WireProtocol.PUSH_ROOM_MESSAGE).text(room).text(from).text(message));
+            } catch (IOException e) {
+                throw unreachable(e);
+            }
+        }
+        
+        @Override
+        public void userJoined(String user) throws RemoteException {
+            try {
+                connection.send(push(WireProtocol.PUSH_USER_JOINED).text(user));
+            } catch (IOException e) {
+                throw unreachable(e);
+            }
+        }
+        
+        @Override
+        public void userLeft(String user) throws RemoteException {
+            try {
+                connection.send(push(WireProtocol.PUSH_USER_LEFT).text(user));
+            } catch (IOException e) {
+                throw unreachable(e);
+            }
+        }
+        
+        @Override
+        public String getUsername() {
+            return username;
+        }
+        
+        // Aviso dirigido a este usuario (una conexión puede tener varios)
+        private WireProtocol.Writer push(byte type) throws IOException {
+            return new WireProtocol.Writer(type, 0).text(username);
+        }
+        
+        private RemoteException unreachable(IOException cause) {
+            return new RemoteException("Cliente NIO " + username + " inalcanzable: " + cause.getMessage(), cause);
+        }
+    }
+}
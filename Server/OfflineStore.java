@@ -0,0 +1,408 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Almacén de mensajes para usuarios desconectados (store-and-forward)
+ * Al salir, un usuario queda como conocido con un cursor en el registro de la
+ * sala donde se detuvo: un broadcast no cuesta nada por usuario desconectado,
+ * el registro lo conserva hasta que vuelva. Solo sus directos se guardan
+ * aparte: los primeros en memoria y, pasado un umbral, en un archivo propio
+ * que escribe un hilo de fondo. Al volver a registrarse recibe todo en orden.
+ * Cada usuario tiene una cuota de mensajes y lo guardado vence a las TTL ms.
+ */
+public class OfflineStore {
+    
+    /**
+     * Usuario desconectado: su cursor en el registro y sus directos guardados
+     * (los más antiguos en memoria y el resto en disco)
+     */
+    private final class OfflineUser {
+        final String username;
+        final RoomLog.Cursor cursor;
+        final ArrayDeque<ChatMessage> memory = new ArrayDeque<>();
+        Path spillFile;
+        int spilled;
+        long lastActivity;
+        boolean closed;
+        
+        OfflineUser(String username, RoomLog.Cursor cursor) {
+            this.username = username;
+            this.cursor = cursor;
+            this.lastActivity = System.currentTimeMillis();
+        }
+        
+        int directs() {
+            return memory.size() + spilled;
+        }
+        
+        /**
+         * Quita de memoria los directos vencidos (los de disco vencen al leerlos o al borrar al usuario)
+         */
+        void expireMemory(long oldestAllowed) {
+            while (!memory.isEmpty() && memory.peekFirst().getTimestamp() < oldestAllowed) {
+                memory.pollFirst();
+                storedDirects.decrementAndGet();
+                expired.increment();
+            }
+        }
+        
+        /**
+         * Deja de retener el registro y descarta lo guardado (el archivo lo borra el hilo de escritura)
+         */
+        void release() {
+            closed = true;
+            log.closeCursor(cursor);
+            storedDirects.addAndGet(-directs());
+            memory.clear();
+            spilled = 0;
+            if (spillFile != null) {
+                Path file = spillFile;
+                spillFile = null;
+                writer.execute(() -> discard(this, file));
+            }
+        }
+    }
+    
+    // Usuarios conocidos y desconectados: Map<username, usuario>
+    private final Map<String, OfflineUser> users = new ConcurrentHashMap<>();
+    
+    // Registro de la sala donde se leen los broadcasts guardados
+    private final RoomLog<ChatMessage> log;
+    
+    private final Path directory;
+    private final int memoryLimit;
+    private final int quota;
+    private final long ttlMillis;
+    private final int maxOpenFiles;
+    
+    // Directos guardados en memoria o en disco
+    private final AtomicLong storedDirects = new AtomicLong();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    
+    // Escribe los directos que no caben en memoria, en orden; un solo hilo
+    private final ThreadPoolExecutor writer;
+    
+    // Archivos abiertos del hilo de escritura, el usado hace más tiempo primero (acotado a maxOpenFiles)
+    private final LinkedHashMap<OfflineUser, OutputStream> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    
+    private final ScheduledExecutorService sweeper;
+    
+    // Aviso de cuota llena o de error de escritura: como máximo uno por segundo
+    private final AsyncLog.RateLimited quotaLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    private final AsyncLog.RateLimited writeErrorLog = AsyncLog.rateLimited(1, TimeUnit.SECONDS);
+    
+    /**
+     * @param log Registro de la sala (los broadcasts se leen de ahí al volver)
+     * @param directory Carpeta para los directos que no caben en memoria
+     * @param memoryLimit Directos por usuario que se guardan en memoria antes de pasar a disco
+     * @param quota Máximo de mensajes entregados al volver (los directos que la superan se descartan)
+     * @param ttlMillis Tiempo que se conserva un mensaje (y un usuario sin mensajes nuevos)
+     * @param maxOpenFiles Archivos de directos abiertos a la vez como máximo
+     */
+    public OfflineStore(RoomLog<ChatMessage> log, Path directory, int memoryLimit, int quota, long ttlMillis,
+                        int maxOpenFiles) throws IOException {
+        this.log = log;
+        this.directory = Files.createDirectories(directory);
+        this.memoryLimit = Math.max(0, memoryLimit);
+        this.quota = Math.max(1, quota);
+        this.ttlMillis = Math.max(1, ttlMillis);
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        
+        BlockingQueue<Runnable> writes = new LinkedBlockingQueue<>();
+        writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, writes, r -> {
+            Thread t = new Thread(r, "chat-offline-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-offline-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.min(this.ttlMillis, TimeUnit.MINUTES.toMillis(1));
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Marca a un usuario como desconectado: desde ahora se le guardan los mensajes
+     * @param position Posición en el registro donde dejó de leer (la de su cursor, aún abierto)
+     */
+    public void userLeft(String username, long position) {
+        users.computeIfAbsent(username, name -> {
+            RoomLog.Cursor cursor = log.openCursorAt(position);
+            OfflineUser user = new OfflineUser(name, cursor);
+            cursor.attach(user);
+            return user;
+        });
+    }
+    
+    /**
+     * Guarda un directo para un usuario desconectado
+     * @return false si el usuario no está desconectado (se conectó o es desconocido)
+     */
+    public boolean store(String username, ChatMessage message) {
+        OfflineUser user = users.get(username);
+        if (user == null) {
+            return false;
+        }
+        synchronized (user) {
+            if (user.closed) {
+                return false;
+            }
+            if (user.directs() >= quota) {
+                dropped.increment();
+                quotaLog.log(AsyncLog.Level.WARN, "Cuota de mensajes guardados llena para {} ({}), mensaje descartado",
+                        username, quota);
+                return true;
+            }
+            // Una vez que algo pasó a disco, lo siguiente también va a disco para conservar el orden
+            if (user.spillFile == null && user.memory.size() < memoryLimit) {
+                user.memory.add(message);
+            } else {
+                if (user.spillFile == null) {
+                    user.spillFile = directory.resolve("offline-" + Integer.toHexString(System.identityHashCode(user))
+                            + "-" + System.nanoTime() + ".msgs");
+                }
+                user.spilled++;
+                Path file = user.spillFile;
+                writer.execute(() -> append(user, file, message));
+            }
+            user.lastActivity = System.currentTimeMillis();
+            stored.increment();
+            storedDirects.incrementAndGet();
+            return true;
+        }
+    }
+    
+    /**
+     * Al registrarse: devuelve lo guardado en orden y deja de guardarle mensajes
+     * Los broadcasts se leen del registro hasta logEnd, donde empieza el cursor
+     * de la nueva sesión, así ninguno llega dos veces ni se pierde
+     * @param logEnd Posición inicial del cursor de la nueva sesión
+     */
+    public List<ChatMessage> userReturned(String username, long logEnd) {
+        OfflineUser user = users.remove(username);
+        if (user == null) {
+            return Collections.emptyList();
+        }
+        List<ChatMessage> broadcasts;
+        List<ChatMessage> memory;
+        Path file;
+        synchronized (user) {
+            broadcasts = new ArrayList<>();
+            for (ChatMessage message : log.readUntil(user.cursor, logEnd)) {
+                // Los avisos de entrada y salida no se guardan: la lista de usuarios se pide al volver
+                if (message.getType() == ChatMessage.Type.BROADCAST) {
+                    broadcasts.add(message);
+                }
+            }
+            memory = new ArrayList<>(user.memory);
+            file = user.spillFile;
+            // El archivo se lee y se borra abajo, no en release
+            user.spillFile = null;
+            user.release();
+        }
+        
+        List<ChatMessage> directs = memory;
+        if (file != null) {
+            directs.addAll(readSpilled(user, file));
+        }
+        
+        // Solo lo que no venció, hasta la cuota (los más recientes)
+        long oldestAllowed = System.currentTimeMillis() - ttlMillis;
+        List<ChatMessage> all = MessageOrder.merge(broadcasts, directs);
+        List<ChatMessage> alive = new ArrayList<>(Math.min(all.size(), quota));
+        int expiredCount = 0;
+        for (ChatMessage message : all) {
+            if (message.getTimestamp() < oldestAllowed) {
+                expiredCount++;
+            } else {
+                alive.add(message);
+            }
+        }
+        expired.add(expiredCount);
+        if (alive.size() > quota) {
+            dropped.add(alive.size() - quota);
+            alive = new ArrayList<>(alive.subList(alive.size() - quota, alive.size()));
+        }
+        stored.add(broadcasts.size());
+        return alive;
+    }
+    
+    /**
+     * Aplica la cuota a un cursor atrasado del registro si es de un usuario desconectado
+     * (se invoca desde el aviso de atraso del registro, con su candado tomado)
+     * @return false si el cursor no es de este almacén
+     */
+    public boolean trimLagging(RoomLog<ChatMessage> lagging, RoomLog.Cursor cursor) {
+        if (!(cursor.attachment() instanceof OfflineUser)) {
+            return false;
+        }
+        // Se conservan los más recientes; los más antiguos se saltan
+        dropped.add(lagging.advance(cursor, lagging.end() - quota));
+        return true;
+    }
+    
+    /**
+     * Escribe un directo al final del archivo del usuario (en el hilo de escritura)
+     */
+    private void append(OfflineUser user, Path file, ChatMessage message) {
+        try {
+            OutputStream out = openFiles.get(user);
+            if (out == null) {
+                out = new BufferedOutputStream(Files.newOutputStream(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), 8192);
+                openFiles.put(user, out);
+                closeEldestFiles();
+            }
+            out.write(MessageJournal.encodeMessage(message));
+        } catch (IOException e) {
+            dropped.increment();
+            writeErrorLog.log(AsyncLog.Level.ERROR, "No se pudo guardar un mensaje para {}: {}",
+                    user.username, e.getMessage());
+        }
+    }
+    
+    /**
+     * Cierra los archivos usados hace más tiempo si hay demasiados abiertos (en el hilo de escritura)
+     */
+    private void closeEldestFiles() {
+        Iterator<Map.Entry<OfflineUser, OutputStream>> eldest = openFiles.entrySet().iterator();
+        while (openFiles.size() > maxOpenFiles && eldest.hasNext()) {
+            Map.Entry<OfflineUser, OutputStream> entry = eldest.next();
+            eldest.remove();
+            closeQuietly(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Cierra el archivo de un usuario, lo lee y lo borra (espera al hilo de escritura,
+     * que antes termina de escribir los directos encolados de ese usuario)
+     */
+    private List<ChatMessage> readSpilled(OfflineUser user, Path file) {
+        Future<List<ChatMessage>> read = writer.submit(() -> {
+            closeQuietly(user, openFiles.remove(user));
+            try {
+                return Files.exists(file) ? MessageJournal.readMessages(file) : Collections.<ChatMessage>emptyList();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        });
+        try {
+            return read.get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            AsyncLog.error("No se pudieron leer los mensajes guardados de {}: {}", user.username, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Cierra y borra el archivo de un usuario olvidado (en el hilo de escritura)
+     */
+    private void discard(OfflineUser user, Path file) {
+        closeQuietly(user, openFiles.remove(user));
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            AsyncLog.warn("No se pudo borrar {}: {}", file, e.getMessage());
+        }
+    }
+    
+    private void closeQuietly(OfflineUser user, OutputStream out) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            writeErrorLog.log(AsyncLog.Level.ERROR, "No se pudo cerrar el archivo de {}: {}",
+                    user.username, e.getMessage());
+        }
+    }
+    
+    /**
+     * Vence mensajes y olvida a los usuarios sin directos nuevos en el TTL
+     */
+    private void sweep() {
+        long oldestAllowed = System.currentTimeMillis() - ttlMillis;
+        for (OfflineUser user : users.values()) {
+            synchronized (user) {
+                if (user.closed) {
+                    continue;
+                }
+                expired.add(log.skipWhile(user.cursor, message -> message.getTimestamp() < oldestAllowed));
+                user.expireMemory(oldestAllowed);
+                if (user.lastActivity < oldestAllowed) {
+                    // Sin directos nuevos en el TTL (los de disco ya vencieron): olvidar al usuario
+                    // aunque el registro siga recibiendo broadcasts, que en una sala activa nunca se agotan
+                    expired.add(user.directs());
+                    user.release();
+                    users.remove(user.username, user);
+                }
+            }
+        }
+    }
+    
+    public int getOfflineUsers() {
+        return users.size();
+    }
+    
+    /**
+     * Mensajes guardados: directos y broadcasts del registro que esperan a un usuario desconectado
+     */
+    public long getStoredMessages() {
+        long waiting = storedDirects.get();
+        for (OfflineUser user : users.values()) {
+            // Al volver se entregan a lo sumo quota
+            waiting += Math.min(quota, log.backlog(user.cursor));
+        }
+        return waiting;
+    }
+    
+    public long getStoredTotal() {
+        return stored.sum();
+    }
+    
+    public long getDroppedTotal() {
+        return dropped.sum();
+    }
+    
+    public long getExpiredTotal() {
+        return expired.sum();
+    }
+    
+    /**
+     * Detiene la limpieza periódica y la escritura
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+        writer.shutdown();
+    }
+}
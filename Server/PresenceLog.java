@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Registro versionado de entradas y salidas de usuarios
+ * Cada cambio incrementa la versión y queda en un historial circular; un
+ * cliente pide los cambios desde su versión y solo recibe la lista completa
+ * si el historial ya no los contiene o la época no coincide (servidor reiniciado)
+ */
+public class PresenceLog {
+    
+    // Época de esta instancia del servidor
+    private final long epoch;
+    
+    // Usuarios conectados según el registro
+    private final Set<String> members;
+    
+    // Historial circular: el cambio número v está en (v - 1) % capacidad
+    private final String[] historyUsers;
+    private final boolean[] historyJoined;
+    
+    // Número de cambios registrados (versión actual)
+    private volatile long version;
+    
+    /**
+     * @param historySize Máximo de cambios conservados para respuestas incrementales
+     */
+    public PresenceLog(int historySize) {
+        // Distinta en cada arranque y nunca 0 (el valor que usa un cliente nuevo)
+        this.epoch = (System.currentTimeMillis() ^ System.nanoTime()) | 1L;
+        this.members = new LinkedHashSet<>();
+        this.historyUsers = new String[Math.max(1, historySize)];
+        this.historyJoined = new boolean[historyUsers.length];
+    }
+    
+    /**
+     * Actualiza la presencia de un usuario según su estado actual
+     * El estado se consulta dentro del candado, así un registro y una salida
+     * concurrentes del mismo nombre no quedan en orden invertido
+     * @param isConnected Indica si el usuario está conectado ahora
+     */
+    public synchronized void update(String username, Predicate<String> isConnected) {
+        boolean connected = isConnected.test(username);
+        if (connected ? members.add(username) : members.remove(username)) {
+            record(username, connected);
+        }
+    }
+    
+    private void record(String username, boolean joined) {
+        int index = (int) (version % historyUsers.length);
+        historyUsers[index] = username;
+        historyJoined[index] = joined;
+        version++;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Cambios posteriores a una versión
+     * @param clientEpoch Época que conoce el cliente (0 si ninguna)
+     * @param sinceVersion Versión que tiene el cliente (-1 si ninguna)
+     * @return Cambios netos, o la lista completa si no se pueden calcular
+     */
+    public PresenceUpdate changesSince(long clientEpoch, long sinceVersion) {
+        // Sin cambios: responder sin tomar el candado
+        long current = version;
+        if (clientEpoch == epoch && sinceVersion == current) {
+            return new PresenceUpdate(epoch, current, false, Collections.emptyList(), Collections.emptyList());
+        }
+        
+        synchronized (this) {
+            current = version;
+            if (clientEpoch != epoch || sinceVersion < 0 || sinceVersion > current
+                    || current - sinceVersion > historyUsers.length) {
+                return new PresenceUpdate(epoch, current, true, new ArrayList<>(members), Collections.emptyList());
+            }
+            
+            // Efecto neto: cuenta el último cambio de cada usuario
+            Map<String, Boolean> net = new LinkedHashMap<>();
+            for (long v = sinceVersion; v < current; v++) {
+                int index = (int) (v % historyUsers.length);
+                net.put(historyUsers[index], historyJoined[index]);
+            }
+            List<String> added = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            for (Map.Entry<String, Boolean> change : net.entrySet()) {
+                (change.getValue() ? added : removed).add(change.getKey());
+            }
+            return new PresenceUpdate(epoch, current, false, added, removed);
+        }
+    }
+}
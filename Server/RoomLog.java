@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Registro compartido de mensajes de la sala
+ * Cada mensaje se agrega una sola vez con un número de secuencia y cada
+ * lector avanza su propio cursor, así un broadcast cuesta O(1) sin importar
+ * cuántos usuarios haya. Los segmentos que ya leyeron todos se liberan.
+ * Un cursor que se atrasa más de maxLag mensajes se informa al abrir cada
+ * segmento, para que un usuario detenido no retenga el registro entero.
+ */
+public class RoomLog<T> {
+    
+    // Tamaño de segmento (potencia de 2)
+    private static final int SEGMENT_SHIFT = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    
+    /**
+     * Posición de lectura de un usuario dentro del registro
+     */
+    public static final class Cursor {
+        private volatile long position;
+        private volatile Object attachment;
+        
+        private Cursor(long position) {
+            this.position = position;
+        }
+        
+        /**
+         * Secuencia del siguiente mensaje que leerá este cursor
+         */
+        public long position() {
+            return position;
+        }
+        
+        /**
+         * Asocia un objeto al cursor (la sesión del usuario)
+         */
+        public void attach(Object attachment) {
+            this.attachment = attachment;
+        }
+        
+        public Object attachment() {
+            return attachment;
+        }
+    }
+    
+    /**
+     * Aviso de un cursor atrasado más de lo permitido
+     */
+    @FunctionalInterface
+    public interface LagListener<T> {
+        /**
+         * Se invoca con el candado del registro tomado; no debe agregar mensajes
+         * @param log Registro en el que está atrasado el cursor
+         * @param lag Mensajes publicados que el cursor aún no leyó
+         */
+        void onLagging(RoomLog<T> log, Cursor cursor, long lag);
+    }
+    
+    // Segmentos activos: Map<índice de segmento, mensajes>
+    private final Map<Long, AtomicReferenceArray<T>> segments;
+    
+    // Cursores abiertos (uno por usuario)
+    private final Set<Cursor> cursors;
+    
+    // Siguiente secuencia a asignar
+    private final AtomicLong nextSequence;
+    
+    // Primera secuencia que aún se conserva en memoria
+    private volatile long firstRetained;
+    
+    // Atraso máximo de un cursor antes de avisar (Long.MAX_VALUE: sin límite)
+    private final long maxLag;
+    private final LagListener<T> lagListener;
+    
+    public RoomLog() {
+        this(Long.MAX_VALUE, null);
+    }
+    
+    /**
+     * @param maxLag Mensajes que un cursor puede tener sin leer antes de avisar
+     * @param lagListener Acción con cada cursor atrasado (puede avanzarlo o cerrarlo)
+     */
+    public RoomLog(long maxLag, LagListener<T> lagListener) {
+        segments = new ConcurrentHashMap<>();
+        cursors = ConcurrentHashMap.newKeySet();
+        nextSequence = new AtomicLong();
+        firstRetained = 0;
+        this.maxLag = maxLag;
+        this.lagListener = lagListener;
+    }
+    
+    /**
+     * Agrega un mensaje al final del registro
+     * @return Número de secuencia asignado
+     */
+    public long append(T message) {
+        long sequence = nextSequence.getAndIncrement();
+        long segmentIndex = sequence >>> SEGMENT_SHIFT;
+        AtomicReferenceArray<T> segment = segments.get(segmentIndex);
+        if (segment == null) {
+            segment = segments.computeIfAbsent(segmentIndex, k -> new AtomicReferenceArray<>(SEGMENT_SIZE));
+        }
+        segment.set((int) (sequence & SEGMENT_MASK), message);
+        
+        // Al abrir un segmento nuevo se liberan los que ya leyeron todos
+        if ((sequence & SEGMENT_MASK) == 0) {
+            trim();
+        }
+        return sequence;
+    }
+    
+    /**
+     * Abre un cursor que solo verá los mensajes agregados desde ahora
+     */
+    public Cursor openCursor() {
+        Cursor cursor = new Cursor(nextSequence.get());
+        cursors.add(cursor);
+        return cursor;
+    }
+    
+    /**
+     * Abre un cursor en una posición ya publicada (la de otro cursor aún abierto)
+     * Si esa parte del registro ya se liberó, empieza en lo más antiguo que se conserva
+     */
+    public Cursor openCursorAt(long position) {
+        Cursor cursor = new Cursor(Math.min(Math.max(position, firstRetained), nextSequence.get()));
+        cursors.add(cursor);
+        return cursor;
+    }
+    
+    /**
+     * Cierra un cursor para que deje de retener mensajes
+     */
+    public void closeCursor(Cursor cursor) {
+        cursors.remove(cursor);
+    }
+    
+    /**
+     * Salta un mensaje si es el siguiente que leería el cursor
+     * Se usa para que un usuario no reciba su propio aviso de ingreso
+     */
+    public void skip(Cursor cursor, long sequence) {
+        synchronized (cursor) {
+            if (cursor.position == sequence) {
+                cursor.position = sequence + 1;
+            }
+        }
+    }
+    
+    /**
+     * Avanza el cursor hasta una secuencia sin leer lo intermedio
+     * @return Número de mensajes saltados
+     */
+    public long advance(Cursor cursor, long target) {
+        synchronized (cursor) {
+            long position = Math.max(cursor.position, firstRetained);
+            long limit = Math.min(target, nextSequence.get());
+            if (limit <= position) {
+                return 0;
+            }
+            cursor.position = limit;
+            return limit - position;
+        }
+    }
+    
+    /**
+     * Siguiente secuencia a asignar (fin del registro)
+     */
+    public long end() {
+        return nextSequence.get();
+    }
+    
+    /**
+     * Lee los mensajes posteriores al cursor y lo avanza
+     * @param max Máximo de mensajes a devolver
+     * @return Mensajes en orden de secuencia (vacía si no hay nuevos)
+     */
+    public List<T> read(Cursor cursor, int max) {
+        synchronized (cursor) {
+            long position = Math.max(cursor.position, firstRetained);
+            List<T> result = null;
+            
+            while (result == null || result.size() < max) {
+                AtomicReferenceArray<T> segment = segments.get(position >>> SEGMENT_SHIFT);
+                T message = segment != null ? segment.get((int) (position & SEGMENT_MASK)) : null;
+                if (message == null) {
+                    // Fin de lo publicado (o secuencia aún en escritura)
+                    break;
+                }
+                if (result == null) {
+                    result = new ArrayList<>();
+                }
+                result.add(message);
+                position++;
+            }
+            
+            cursor.position = position;
+            return result != null ? result : Collections.emptyList();
+        }
+    }
+    
+    /**
+     * Lee todos los mensajes anteriores a una secuencia y avanza el cursor hasta ella
+     * A diferencia de read, espera las secuencias ya asignadas que aún se están
+     * escribiendo: así se une sin huecos con un cursor abierto en end
+     * @param end Secuencia final (exclusiva), a lo sumo end()
+     */
+    public List<T> readUntil(Cursor cursor, long end) {
+        synchronized (cursor) {
+            long position = Math.max(cursor.position, firstRetained);
+            List<T> result = new ArrayList<>((int) Math.max(0, Math.min(end - position, SEGMENT_SIZE)));
+            while (position < end) {
+                AtomicReferenceArray<T> segment = segments.get(position >>> SEGMENT_SHIFT);
+                T message = segment != null ? segment.get((int) (position & SEGMENT_MASK)) : null;
+                if (message == null) {
+                    // Secuencia asignada por append y aún sin escribir
+                    Thread.onSpinWait();
+                    continue;
+                }
+                result.add(message);
+                position++;
+            }
+            cursor.position = Math.max(cursor.position, end);
+            return result;
+        }
+    }
+    
+    /**
+     * Avanza el cursor mientras el siguiente mensaje cumpla la condición
+     * @return Número de mensajes saltados
+     */
+    public long skipWhile(Cursor cursor, Predicate<T> condition) {
+        synchronized (cursor) {
+            long start = Math.max(cursor.position, firstRetained);
+            long position = start;
+            while (true) {
+                AtomicReferenceArray<T> segment = segments.get(position >>> SEGMENT_SHIFT);
+                T message = segment != null ? segment.get((int) (position & SEGMENT_MASK)) : null;
+                if (message == null || !condition.test(message)) {
+                    break;
+                }
+                position++;
+            }
+            cursor.position = position;
+            return position - start;
+        }
+    }
+    
+    /**
+     * Indica si hay mensajes publicados que el cursor aún no leyó
+     */
+    public boolean hasPending(Cursor cursor) {
+        long position = Math.max(cursor.position, firstRetained);
+        AtomicReferenceArray<T> segment = segments.get(position >>> SEGMENT_SHIFT);
+        return segment != null && segment.get((int) (position & SEGMENT_MASK)) != null;
+    }
+    
+    /**
+     * Número de mensajes publicados que el cursor aún no leyó
+     */
+    public long backlog(Cursor cursor) {
+        return Math.max(0, nextSequence.get() - Math.max(cursor.position, firstRetained));
+    }
+    
+    /**
+     * Número de mensajes conservados en memoria
+     */
+    public long retained() {
+        return nextSequence.get() - firstRetained;
+    }
+    
+    /**
+     * Libera los segmentos completos que todos los cursores ya leyeron
+     * Antes avisa de los cursores atrasados, que pueden avanzarse o cerrarse
+     */
+    private synchronized void trim() {
+        if (lagListener != null) {
+            long end = nextSequence.get();
+            for (Cursor cursor : cursors) {
+                long lag = end - Math.max(cursor.position, firstRetained);
+                if (lag > maxLag) {
+                    lagListener.onLagging(this, cursor, lag);
+                }
+            }
+        }
+        
+        long lowest = nextSequence.get();
+        for (Cursor cursor : cursors) {
+            lowest = Math.min(lowest, cursor.position);
+        }
+        
+        long firstSegment = firstRetained >>> SEGMENT_SHIFT;
+        long limitSegment = lowest >>> SEGMENT_SHIFT;
+        if (limitSegment <= firstSegment) {
+            return;
+        }
+        firstRetained = limitSegment << SEGMENT_SHIFT;
+        for (long index = firstSegment; index < limitSegment; index++) {
+            segments.remove(index);
+        }
+    }
+}
@@ -0,0 +1,525 @@
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas del servidor de chat
+ * Los contadores son LongAdder y las latencias histogramas de cubetas fijas:
+ * registrar en el camino de cada mensaje no asigna memoria ni usa candados.
+ * Las profundidades de cola se calculan al consultar, recorriendo las sesiones.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    
+    public static final String OBJECT_NAME = "ChatServer:type=Metrics";
+    
+    // Profundidad de cola: 0, 1, 2, 5... hasta 100000 mensajes
+    private static final long[] QUEUE_DEPTH_BOUNDS = FixedHistogram.series125(100_000L);
+    
+    private final Map<String, UserSession> sessions;
+    private final RoomLog<ChatMessage> roomLog;
+    private final Map<String, ChatRoom> rooms;
+    private final OfflineStore offline;
+    
+    // Cluster y usuarios de otros nodos (null si el servidor trabaja solo)
+    private volatile Cluster cluster;
+    private volatile Map<String, String> remoteUsers;
+    
+    // Transporte NIO (null si solo se atiende por RMI)
+    private volatile NioChatServer nio;
+    
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder directMessages = new LongAdder();
+    private final LongAdder roomMessages = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder bytesSerialized = new LongAdder();
+    private final LongAdder callbackFailures = new LongAdder();
+    private final LongAdder mailboxDrops = new LongAdder();
+    private final LongAdder queueOverflowDrops = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    private final LongAdder leasesExpired = new LongAdder();
+    private final LongAdder throttledBroadcasts = new LongAdder();
+    private final LongAdder throttledDirects = new LongAdder();
+    private final LongAdder sendBatches = new LongAdder();
+    private final LongAdder sendBatchMessages = new LongAdder();
+    private final LongAdder compressedBatches = new LongAdder();
+    private final LongAdder compressionRawBytes = new LongAdder();
+    private final LongAdder compressionCompressedBytes = new LongAdder();
+    
+    // Latencias en microsegundos y espera en milisegundos
+    private final FixedHistogram getPendingMessagesLatency = new FixedHistogram();
+    private final FixedHistogram getMessageBatchLatency = new FixedHistogram();
+    private final FixedHistogram deliveryDelay = new FixedHistogram();
+    
+    private final RateMeter broadcastRate = new RateMeter(broadcasts);
+    private final RateMeter directRate = new RateMeter(directMessages);
+    
+    public ServerMetrics(Map<String, UserSession> sessions, RoomLog<ChatMessage> roomLog,
+                         Map<String, ChatRoom> rooms, OfflineStore offline) {
+        this.sessions = sessions;
+        this.roomLog = roomLog;
+        this.rooms = rooms;
+        this.offline = offline;
+    }
+    
+    /**
+     * Agrega las métricas de los enlaces del cluster
+     */
+    public void attachCluster(Cluster cluster, Map<String, String> remoteUsers) {
+        this.remoteUsers = remoteUsers;
+        this.cluster = cluster;
+    }
+    
+    /**
+     * Agrega las métricas del transporte NIO
+     */
+    public void attachTransport(NioChatServer nio) {
+        this.nio = nio;
+    }
+    
+    // ----- Registro (camino de cada mensaje) -----
+    
+    public void broadcastSent() {
+        broadcasts.increment();
+    }
+    
+    public void directSent() {
+        directMessages.increment();
+    }
+    
+    public void roomMessageSent() {
+        roomMessages.increment();
+    }
+    
+    public void mailboxDrop() {
+        mailboxDrops.increment();
+    }
+    
+    public void queueOverflow(long dropped) {
+        queueOverflowDrops.add(dropped);
+    }
+    
+    public void slowConsumerDisconnect() {
+        slowConsumerDisconnects.increment();
+    }
+    
+    public void throttled(boolean broadcast) {
+        (broadcast ? throttledBroadcasts : throttledDirects).increment();
+    }
+    
+    public void sendBatch(int messages) {
+        sendBatches.increment();
+        sendBatchMessages.add(messages);
+    }
+    
+    public void leaseExpired() {
+        leasesExpired.increment();
+    }
+    
+    public void callbackFailure() {
+        callbackFailures.increment();
+    }
+    
+    public void addBytesSerialized(long bytes) {
+        bytesSerialized.add(bytes);
+    }
+    
+    /**
+     * Registra un lote comprimido: bytes sin comprimir y bytes enviados
+     */
+    public void batchCompressed(long rawBytes, long compressedBytes) {
+        compressedBatches.increment();
+        compressionRawBytes.add(rawBytes);
+        compressionCompressedBytes.add(compressedBytes);
+    }
+    
+    /**
+     * Registra mensajes entregados y la espera del más antiguo desde que se creó
+     * @param oldestTimestamp Hora de creación del mensaje más antiguo (ms)
+     */
+    public void delivered(int count, long oldestTimestamp) {
+        if (count > 0) {
+            delivered.add(count);
+            deliveryDelay.record(Math.max(0, System.currentTimeMillis() - oldestTimestamp));
+        }
+    }
+    
+    public void getPendingMessagesTime(long nanos) {
+        getPendingMessagesLatency.record(nanos / 1000);
+    }
+    
+    public void getMessageBatchTime(long nanos) {
+        getMessageBatchLatency.record(nanos / 1000);
+    }
+    
+    // ----- Consulta (JMX y texto) -----
+    
+    @Override
+    public int getConnectedUsers() {
+        return sessions.size();
+    }
+    
+    @Override
+    public long getBroadcastsTotal() {
+        return broadcasts.sum();
+    }
+    
+    @Override
+    public long getDirectMessagesTotal() {
+        return directMessages.sum();
+    }
+    
+    @Override
+    public long getRoomMessagesTotal() {
+        return roomMessages.sum();
+    }
+    
+    @Override
+    public int getRooms() {
+        return rooms.size();
+    }
+    
+    @Override
+    public double getBroadcastsPerSecond() {
+        return broadcastRate.rate();
+    }
+    
+    @Override
+    public double getDirectMessagesPerSecond() {
+        return directRate.rate();
+    }
+    
+    @Override
+    public long getMessagesDeliveredTotal() {
+        return delivered.sum();
+    }
+    
+    @Override
+    public long getPendingMessagesTotal() {
+        long total = 0;
+        for (UserSession session : sessions.values()) {
+            total += session.pendingCount(roomLog);
+        }
+        return total;
+    }
+    
+    @Override
+    public long getMaxPendingQueueDepth() {
+        long max = 0;
+        for (UserSession session : sessions.values()) {
+            max = Math.max(max, session.pendingCount(roomLog));
+        }
+        return max;
+    }
+    
+    @Override
+    public long getGetPendingMessagesP50Micros() {
+        return getPendingMessagesLatency.percentile(50);
+    }
+    
+    @Override
+    public long getGetPendingMessagesP99Micros() {
+        return getPendingMessagesLatency.percentile(99);
+    }
+    
+    @Override
+    public long getGetMessageBatchP50Micros() {
+        return getMessageBatchLatency.percentile(50);
+    }
+    
+    @Override
+    public long getGetMessageBatchP99Micros() {
+        return getMessageBatchLatency.percentile(99);
+    }
+    
+    @Override
+    public long getDeliveryDelayP99Millis() {
+        return deliveryDelay.percentile(99);
+    }
+    
+    @Override
+    public long getBytesSerializedTotal() {
+        return bytesSerialized.sum();
+    }
+    
+    @Override
+    public long getCallbackFailuresTotal() {
+        return callbackFailures.sum();
+    }
+    
+    @Override
+    public long getMailboxDropsTotal() {
+        return mailboxDrops.sum();
+    }
+    
+    @Override
+    public long getQueueOverflowDropsTotal() {
+        return queueOverflowDrops.sum();
+    }
+    
+    @Override
+    public long getSlowConsumerDisconnectsTotal() {
+        return slowConsumerDisconnects.sum();
+    }
+    
+    @Override
+    public long getThrottledBroadcastsTotal() {
+        return throttledBroadcasts.sum();
+    }
+    
+    @Override
+    public long getThrottledDirectsTotal() {
+        return throttledDirects.sum();
+    }
+    
+    @Override
+    public long getSendBatchesTotal() {
+        return sendBatches.sum();
+    }
+    
+    @Override
+    public long getSendBatchMessagesTotal() {
+        return sendBatchMessages.sum();
+    }
+    
+    @Override
+    public long getBatchesCompressedTotal() {
+        return compressedBatches.sum();
+    }
+    
+    @Override
+    public long getBatchRawBytesTotal() {
+        return compressionRawBytes.sum();
+    }
+    
+    @Override
+    public long getBatchCompressedBytesTotal() {
+        return compressionCompressedBytes.sum();
+    }
+    
+    @Override
+    public long getLeasesExpiredTotal() {
+        return leasesExpired.sum();
+    }
+    
+    @Override
+    public int getRemoteUsers() {
+        Map<String, String> users = remoteUsers;
+        return users != null ? users.size() : 0;
+    }
+    
+    @Override
+    public long getClusterForwardedTotal() {
+        long total = 0;
+        for (ClusterLink link : clusterLinks()) {
+            total += link.getForwardedTotal();
+        }
+        return total;
+    }
+    
+    @Override
+    public long getClusterBatchesTotal() {
+        long total = 0;
+        for (ClusterLink link : clusterLinks()) {
+            total += link.getBatchesTotal();
+        }
+        return total;
+    }
+    
+    @Override
+    public long getClusterDroppedTotal() {
+        long total = 0;
+        for (ClusterLink link : clusterLinks()) {
+            total += link.getDroppedTotal();
+        }
+        return total;
+    }
+    
+    @Override
+    public long getClusterDuplicatesTotal() {
+        Cluster current = cluster;
+        return current != null ? current.getDuplicatesTotal() : 0;
+    }
+    
+    @Override
+    public long getClusterQueued() {
+        long total = 0;
+        for (ClusterLink link : clusterLinks()) {
+            total += link.getQueued();
+        }
+        return total;
+    }
+    
+    @Override
+    public int getClusterLinksDown() {
+        int down = 0;
+        for (ClusterLink link : clusterLinks()) {
+            if (!link.isConnected()) {
+                down++;
+            }
+        }
+        return down;
+    }
+    
+    @Override
+    public int getNioConnections() {
+        NioChatServer current = nio;
+        return current != null ? current.getConnectionCount() : 0;
+    }
+    
+    @Override
+    public long getNioFramesInTotal() {
+        NioChatServer current = nio;
+        return current != null ? current.getFramesInTotal() : 0;
+    }
+    
+    @Override
+    public long getNioFramesOutTotal() {
+        NioChatServer current = nio;
+        return current != null ? current.getFramesOutTotal() : 0;
+    }
+    
+    private Iterable<ClusterLink> clusterLinks() {
+        Cluster current = cluster;
+        return current != null ? current.getLinks() : Collections.emptyList();
+    }
+    
+    @Override
+    public int getOfflineUsers() {
+        return offline.getOfflineUsers();
+    }
+    
+    @Override
+    public long getOfflineMessagesStored() {
+        return offline.getStoredMessages();
+    }
+    
+    @Override
+    public long getOfflineDropsTotal() {
+        return offline.getDroppedTotal();
+    }
+    
+    @Override
+    public long getOfflineExpiredTotal() {
+        return offline.getExpiredTotal();
+    }
+    
+    /**
+     * Todas las métricas en formato de texto plano (compatible con Prometheus)
+     */
+    public String toText() {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "chat_connected_users", sessions.size());
+        counter(out, "chat_broadcasts_total", broadcasts.sum());
+        counter(out, "chat_direct_messages_total", directMessages.sum());
+        out.append("# TYPE chat_broadcasts_per_second gauge\nchat_broadcasts_per_second ")
+           .append(String.format(Locale.ROOT, "%.2f", broadcastRate.rate())).append('\n');
+        out.append("# TYPE chat_direct_messages_per_second gauge\nchat_direct_messages_per_second ")
+           .append(String.format(Locale.ROOT, "%.2f", directRate.rate())).append('\n');
+        counter(out, "chat_room_messages_total", roomMessages.sum());
+        gauge(out, "chat_rooms", rooms.size());
+        counter(out, "chat_messages_delivered_total", delivered.sum());
+        counter(out, "chat_bytes_serialized_total", bytesSerialized.sum());
+        counter(out, "chat_callback_failures_total", callbackFailures.sum());
+        counter(out, "chat_mailbox_drops_total", mailboxDrops.sum());
+        counter(out, "chat_queue_overflow_drops_total", queueOverflowDrops.sum());
+        counter(out, "chat_slow_consumer_disconnects_total", slowConsumerDisconnects.sum());
+        counter(out, "chat_leases_expired_total", leasesExpired.sum());
+        counter(out, "chat_throttled_broadcasts_total", throttledBroadcasts.sum());
+        counter(out, "chat_throttled_directs_total", throttledDirects.sum());
+        counter(out, "chat_send_batches_total", sendBatches.sum());
+        counter(out, "chat_send_batch_messages_total", sendBatchMessages.sum());
+        counter(out, "chat_batches_compressed_total", compressedBatches.sum());
+        counter(out, "chat_batch_raw_bytes_total", compressionRawBytes.sum());
+        counter(out, "chat_batch_compressed_bytes_total", compressionCompressedBytes.sum());
+        gauge(out, "chat_room_log_retained", roomLog.retained());
+        if (cluster != null) {
+            gauge(out, "chat_cluster_remote_users", getRemoteUsers());
+            counter(out, "chat_cluster_forwarded_total", getClusterForwardedTotal());
+            counter(out, "chat_cluster_batches_total", getClusterBatchesTotal());
+            counter(out, "chat_cluster_dropped_total", getClusterDroppedTotal());
+            counter(out, "chat_cluster_duplicates_total", getClusterDuplicatesTotal());
+            gauge(out, "chat_cluster_queued", getClusterQueued());
+            gauge(out, "chat_cluster_links_down", getClusterLinksDown());
+        }
+        if (nio != null) {
+            gauge(out, "chat_nio_connections", getNioConnections());
+            counter(out, "chat_nio_frames_in_total", getNioFramesInTotal());
+            counter(out, "chat_nio_frames_out_total", getNioFramesOutTotal());
+        }
+        gauge(out, "chat_offline_users", offline.getOfflineUsers());
+        gauge(out, "chat_offline_messages_stored", offline.getStoredMessages());
+        counter(out, "chat_offline_messages_total", offline.getStoredTotal());
+        counter(out, "chat_offline_drops_total", offline.getDroppedTotal());
+        counter(out, "chat_offline_expired_total", offline.getExpiredTotal());
+        
+        // Profundidad de la cola pendiente de cada usuario
+        FixedHistogram queueDepth = new FixedHistogram(QUEUE_DEPTH_BOUNDS);
+        long max = 0;
+        for (UserSession session : sessions.values()) {
+            long depth = session.pendingCount(roomLog);
+            queueDepth.record(depth);
+            max = Math.max(max, depth);
+        }
+        gauge(out, "chat_pending_queue_depth_max", max);
+        queueDepth.writeTo(out, "chat_pending_queue_depth");
+        
+        getPendingMessagesLatency.writeTo(out, "chat_get_pending_messages_latency_us");
+        getMessageBatchLatency.writeTo(out, "chat_get_message_batch_latency_us");
+        deliveryDelay.writeTo(out, "chat_delivery_delay_ms");
+        return out.toString();
+    }
+    
+    private static void counter(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+    
+    private static void gauge(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+    
+    /**
+     * Registra las métricas como MBean en el servidor JMX de la plataforma
+     */
+    public void registerMBean() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (mbeanServer.isRegistered(name)) {
+            mbeanServer.unregisterMBean(name);
+        }
+        mbeanServer.registerMBean(this, name);
+    }
+    
+    /**
+     * Tasa por segundo de un contador, medida entre consultas (ventana mínima de 1 s)
+     */
+    private static final class RateMeter {
+        
+        private static final long MIN_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+        
+        private final LongAdder counter;
+        private long lastCount;
+        private long lastNanos = System.nanoTime();
+        private double lastRate;
+        
+        RateMeter(LongAdder counter) {
+            this.counter = counter;
+        }
+        
+        synchronized double rate() {
+            long now = System.nanoTime();
+            long elapsed = now - lastNanos;
+            if (elapsed >= MIN_WINDOW_NANOS) {
+                long count = counter.sum();
+                lastRate = (count - lastCount) * 1e9 / elapsed;
+                lastCount = count;
+                lastNanos = now;
+            }
+            return lastRate;
+        }
+    }
+}
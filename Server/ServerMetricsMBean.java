@@ -0,0 +1,90 @@
+/**
+ * Interfaz JMX de las métricas del servidor (ChatServer:type=Metrics)
+ * Visible con jconsole o VisualVM
+ */
+public interface ServerMetricsMBean {
+    
+    int getConnectedUsers();
+    
+    long getBroadcastsTotal();
+    
+    long getDirectMessagesTotal();
+    
+    long getRoomMessagesTotal();
+    
+    int getRooms();
+    
+    double getBroadcastsPerSecond();
+    
+    double getDirectMessagesPerSecond();
+    
+    long getMessagesDeliveredTotal();
+    
+    long getPendingMessagesTotal();
+    
+    long getMaxPendingQueueDepth();
+    
+    long getGetPendingMessagesP50Micros();
+    
+    long getGetPendingMessagesP99Micros();
+    
+    long getGetMessageBatchP50Micros();
+    
+    long getGetMessageBatchP99Micros();
+    
+    long getDeliveryDelayP99Millis();
+    
+    long getBytesSerializedTotal();
+    
+    long getCallbackFailuresTotal();
+    
+    long getMailboxDropsTotal();
+    
+    long getQueueOverflowDropsTotal();
+    
+    long getSlowConsumerDisconnectsTotal();
+    
+    long getLeasesExpiredTotal();
+    
+    long getThrottledBroadcastsTotal();
+    
+    long getThrottledDirectsTotal();
+    
+    long getSendBatchesTotal();
+    
+    long getSendBatchMessagesTotal();
+    
+    long getBatchesCompressedTotal();
+    
+    long getBatchRawBytesTotal();
+    
+    long getBatchCompressedBytesTotal();
+    
+    int getRemoteUsers();
+    
+    long getClusterForwardedTotal();
+    
+    long getClusterBatchesTotal();
+    
+    long getClusterDroppedTotal();
+    
+    long getClusterDuplicatesTotal();
+    
+    long getClusterQueued();
+    
+    int getClusterLinksDown();
+    
+    int getNioConnections();
+    
+    long getNioFramesInTotal();
+    
+    long getNioFramesOutTotal();
+    
+    int getOfflineUsers();
+    
+    long getOfflineMessagesStored();
+    
+    long getOfflineDropsTotal();
+    
+    long getOfflineExpiredTotal();
+}
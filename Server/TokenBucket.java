@@ -0,0 +1,54 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Límite de tasa por token bucket sin candados
+ * En lugar de contar tokens y rellenarlos guarda un solo valor: el instante
+ * teórico en que el cubo vuelve a estar lleno. Cada permiso lo adelanta un
+ * intervalo (1 / tasa); si queda más de una ráfaga por delante del reloj,
+ * se rechaza. Es equivalente a un cubo de capacidad burst que se rellena a
+ * rate por segundo, y cada intento es una lectura y un compareAndSet.
+ */
+public class TokenBucket {
+    
+    // Nanosegundos que "cuesta" cada permiso
+    private final long intervalNanos;
+    
+    // Adelanto máximo respecto del reloj (capacidad del cubo)
+    private final long burstNanos;
+    
+    // Instante (System.nanoTime) en que el cubo vuelve a estar lleno
+    private final AtomicLong fullAt;
+    
+    /**
+     * @param ratePerSecond Permisos que se reponen por segundo
+     * @param burst Permisos que se pueden usar de golpe con el cubo lleno
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("La tasa debe ser positiva: " + ratePerSecond);
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+    
+    /**
+     * Intenta tomar un permiso
+     * @return 0 si se concedió; si no, nanosegundos hasta que habría uno
+     */
+    public long tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            // Un cubo lleno no acumula más que la ráfaga
+            long next = Math.max(current - now, 0) + intervalNanos;
+            if (next > burstNanos) {
+                return next - burstNanos;
+            }
+            if (fullAt.compareAndSet(current, now + next)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Estado por usuario en el servidor
+ * Agrupa el buzón de directos, el cursor en el registro de la sala, los
+ * cursores de las salas a las que se unió y el último lote entregado (para
+ * reenviarlo si la respuesta se perdió)
+ */
+public class UserSession {
+    
+    private final String username;
+    private final ChatClientInterface clientRef;
+    private final Mailbox<ChatMessage> mailbox;
+    private final RoomLog.Cursor cursor;
+    
+    // Salas a las que se unió con su cursor en el registro de cada una
+    private final Map<ChatRoom, RoomLog.Cursor> rooms = new ConcurrentHashMap<>();
+    
+    // Último lote entregado y aún no confirmado por el cliente
+    private List<ChatMessage> lastDelivered = Collections.emptyList();
+    
+    // Mensajes ya extraídos que no cupieron en el lote anterior
+    private volatile List<ChatMessage> carryOver = Collections.emptyList();
+    
+    // true cuando ya se decidió desconectarlo por atraso
+    private final AtomicBoolean disconnecting = new AtomicBoolean();
+    
+    // Lease de actividad: se renueva con cada consulta o heartbeat
+    private volatile LeaseWheel.Lease<UserSession> lease;
+    
+    // Límites de envío del usuario (null si no hay límite)
+    private final TokenBucket broadcastLimit;
+    private final TokenBucket directLimit;
+    
+    // Compresión de lotes acordada con el cliente (null = sin comprimir)
+    private volatile BatchCompression.Codec compression;
+    
+    public UserSession(String username, ChatClientInterface clientRef,
+                       Mailbox<ChatMessage> mailbox, RoomLog.Cursor cursor) {
+        this(username, clientRef, mailbox, cursor, null, null);
+    }
+    
+    public UserSession(String username, ChatClientInterface clientRef,
+                       Mailbox<ChatMessage> mailbox, RoomLog.Cursor cursor,
+                       TokenBucket broadcastLimit, TokenBucket directLimit) {
+        this.username = username;
+        this.clientRef = clientRef;
+        this.mailbox = mailbox;
+        this.cursor = cursor;
+        this.broadcastLimit = broadcastLimit;
+        this.directLimit = directLimit;
+    }
+    
+    public String getUsername() {
+        return username;
+    }
+    
+    public ChatClientInterface getClientRef() {
+        return clientRef;
+    }
+    
+    public Mailbox<ChatMessage> getMailbox() {
+        return mailbox;
+    }
+    
+    public RoomLog.Cursor getCursor() {
+        return cursor;
+    }
+    
+    public TokenBucket getBroadcastLimit() {
+        return broadcastLimit;
+    }
+    
+    public TokenBucket getDirectLimit() {
+        return directLimit;
+    }
+    
+    public BatchCompression.Codec getCompression() {
+        return compression;
+    }
+    
+    public void setCompression(BatchCompression.Codec compression) {
+        this.compression = compression;
+    }
+    
+    public LeaseWheel.Lease<UserSession> getLease() {
+        return lease;
+    }
+    
+    public void setLease(LeaseWheel.Lease<UserSession> lease) {
+        this.lease = lease;
+    }
+    
+    /**
+     * Renueva el lease de la sesión (el cliente sigue activo)
+     */
+    public void renewLease() {
+        LeaseWheel.Lease<UserSession> current = lease;
+        if (current != null) {
+            current.renew();
+        }
+    }
+    
+    void joinRoom(ChatRoom room, RoomLog.Cursor roomCursor) {
+        rooms.put(room, roomCursor);
+    }
+    
+    RoomLog.Cursor leaveRoom(ChatRoom room) {
+        return rooms.remove(room);
+    }
+    
+    /**
+     * Salas de las que es miembro
+     */
+    public Set<ChatRoom> getRooms() {
+        return rooms.keySet();
+    }
+    
+    /**
+     * Marca la sesión para desconectarla
+     * @return true solo la primera vez
+     */
+    public boolean markDisconnecting() {
+        return disconnecting.compareAndSet(false, true);
+    }
+    
+    /**
+     * Indica si hay mensajes listos para este usuario
+     */
+    public boolean hasPending(RoomLog<ChatMessage> roomLog) {
+        if (!carryOver.isEmpty() || mailbox.size() > 0 || roomLog.hasPending(cursor)) {
+            return true;
+        }
+        for (Map.Entry<ChatRoom, RoomLog.Cursor> room : rooms.entrySet()) {
+            if (room.getKey().getLog().hasPending(room.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Número aproximado de mensajes pendientes para este usuario (para métricas)
+     */
+    public long pendingCount(RoomLog<ChatMessage> roomLog) {
+        long count = carryOver.size() + mailbox.size() + roomLog.backlog(cursor);
+        for (Map.Entry<ChatRoom, RoomLog.Cursor> room : rooms.entrySet()) {
+            count += room.getKey().getLog().backlog(room.getValue());
+        }
+        return count;
+    }
+    
+    /**
+     * Lee hasta max mensajes de cada registro (sala general y salas propias) en orden
+     */
+    private List<ChatMessage> readLogs(RoomLog<ChatMessage> roomLog, int max) {
+        List<ChatMessage> messages = roomLog.read(cursor, max);
+        for (Map.Entry<ChatRoom, RoomLog.Cursor> room : rooms.entrySet()) {
+            messages = MessageOrder.merge(messages, room.getKey().getLog().read(room.getValue(), max));
+        }
+        return messages;
+    }
+    
+    /**
+     * Extrae hasta max mensajes en orden de secuencia: lo ya extraído, los
+     * registros y los directos del buzón
+     * Un registro que devolvió max mensajes puede tener más con secuencias
+     * menores que las de otras fuentes, así que el lote se corta en la menor
+     * última secuencia de esos registros; lo posterior queda en carryOver
+     */
+    private List<ChatMessage> takeInOrder(RoomLog<ChatMessage> roomLog, int max) {
+        List<ChatMessage> logs = roomLog.read(cursor, max);
+        long cut = lastIfFull(logs, max, Long.MAX_VALUE);
+        for (Map.Entry<ChatRoom, RoomLog.Cursor> room : rooms.entrySet()) {
+            List<ChatMessage> read = room.getKey().getLog().read(room.getValue(), max);
+            cut = lastIfFull(read, max, cut);
+            logs = MessageOrder.merge(logs, read);
+        }
+        
+        List<ChatMessage> all = MessageOrder.merge(MessageOrder.merge(carryOver, logs), mailbox.drainAll());
+        int end = 0;
+        while (end < all.size() && end < max && all.get(end).getSequenceId() <= cut) {
+            end++;
+        }
+        if (end < all.size()) {
+            carryOver = new ArrayList<>(all.subList(end, all.size()));
+            return new ArrayList<>(all.subList(0, end));
+        }
+        carryOver = Collections.emptyList();
+        return all;
+    }
+    
+    /**
+     * Menor entre cut y la última secuencia leída si la lectura llegó a max
+     */
+    private static long lastIfFull(List<ChatMessage> read, int max, long cut) {
+        if (read.size() < max) {
+            return cut;
+        }
+        return Math.min(cut, read.get(read.size() - 1).getSequenceId());
+    }
+    
+    /**
+     * Extrae hasta maxBatch mensajes en orden de secuencia
+     * Si afterSeq es anterior al último lote entregado, reenvía lo que faltó
+     * @param afterSeq Última secuencia que el cliente procesó (-1 si ninguna)
+     */
+    public synchronized List<ChatMessage> take(RoomLog<ChatMessage> roomLog, long afterSeq, int maxBatch) {
+        // El cliente no confirmó el lote anterior: reenviar lo posterior a afterSeq
+        if (!lastDelivered.isEmpty()
+                && afterSeq < lastDelivered.get(lastDelivered.size() - 1).getSequenceId()) {
+            List<ChatMessage> resend = new ArrayList<>();
+            for (ChatMessage message : lastDelivered) {
+                if (message.getSequenceId() > afterSeq) {
+                    resend.add(message);
+                }
+            }
+            if (!resend.isEmpty()) {
+                return resend;
+            }
+        }
+        
+        List<ChatMessage> fresh = takeInOrder(roomLog, maxBatch);
+        lastDelivered = fresh;
+        return fresh;
+    }
+    
+    /**
+     * Extrae el siguiente turno del motor push (hasta max mensajes en orden)
+     * Lo que queda después del corte se entrega en el turno siguiente
+     */
+    public synchronized List<ChatMessage> takeForPush(RoomLog<ChatMessage> roomLog, int max) {
+        return takeInOrder(roomLog, max);
+    }
+    
+    /**
+     * Conserva los mensajes más antiguos de un registro hasta el límite y salta el resto
+     * Los conservados pasan a la sesión, así el cursor deja de retener el registro
+     * @param log Registro en el que está atrasado (sala general o una sala propia)
+     * @param logCursor Cursor de esta sesión en ese registro
+     * @return Número de mensajes descartados
+     */
+    public synchronized long keepOldest(RoomLog<ChatMessage> log, RoomLog.Cursor logCursor, int limit) {
+        int room = limit - carryOver.size();
+        if (room > 0) {
+            List<ChatMessage> kept = log.read(logCursor, room);
+            if (!kept.isEmpty()) {
+                carryOver = new ArrayList<>(MessageOrder.merge(carryOver, kept));
+            }
+        }
+        return log.advance(logCursor, log.end());
+    }
+    
+    /**
+     * Extrae todos los mensajes pendientes (consulta periódica sin confirmación)
+     */
+    public synchronized List<ChatMessage> drainAll(RoomLog<ChatMessage> roomLog) {
+        List<ChatMessage> all = MessageOrder.merge(
+                MessageOrder.merge(carryOver, readLogs(roomLog, Integer.MAX_VALUE)), mailbox.drainAll());
+        carryOver = Collections.emptyList();
+        return all;
+    }
+}
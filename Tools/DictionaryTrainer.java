@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entrena un diccionario de compresión de lotes con los mensajes del journal
+ * Cuenta palabras y frases de 2 y 3 palabras en los textos y en los nombres
+ * de usuario, y guarda las que más bytes ahorrarían (frecuencia × largo),
+ * con las más valiosas al final, que es lo que deflate tiene más cerca.
+ *
+ * Uso: java DictionaryTrainer <directorio del journal> <archivo de salida>
+ * Opciones (-D):
+ *   train.size      Bytes del diccionario (16384, máximo 32768)
+ *   train.minCount  Apariciones mínimas de una frase (3)
+ *
+ * El archivo se usa con -Dchat.compress.dictionary en el servidor y en los clientes.
+ */
+public class DictionaryTrainer {
+    
+    private static final PrintStream REPORT = System.out;
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            REPORT.println("Uso: java DictionaryTrainer <directorio del journal> <archivo de salida>");
+            System.exit(1);
+        }
+        int size = Math.min(BatchCompression.MAX_DICTIONARY_BYTES, Integer.getInteger("train.size", 16384));
+        int minCount = Integer.getInteger("train.minCount", 3);
+        
+        Map<String, Integer> counts = new HashMap<>();
+        long messages = 0;
+        long textBytes = 0;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(Paths.get(args[0]), "*.journal")) {
+            for (Path segment : segments) {
+                for (ChatMessage message : MessageJournal.readMessages(segment)) {
+                    messages++;
+                    textBytes += message.getPayload().length;
+                    count(counts, message.getSenderId());
+                    countPhrases(counts, message.getText());
+                }
+            }
+        }
+        if (messages == 0) {
+            REPORT.println("No hay mensajes en " + args[0]);
+            System.exit(1);
+        }
+        
+        // Mejores frases por ahorro estimado hasta llenar el diccionario
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(counts.entrySet());
+        ranked.removeIf(entry -> entry.getValue() < minCount);
+        ranked.sort((a, b) -> Long.compare(score(b), score(a)));
+        List<byte[]> chosen = new ArrayList<>();
+        int used = 0;
+        for (Map.Entry<String, Integer> entry : ranked) {
+            byte[] bytes = (entry.getKey() + " ").getBytes(StandardCharsets.UTF_8);
+            if (used + bytes.length > size) {
+                continue;
+            }
+            chosen.add(bytes);
+            used += bytes.length;
+        }
+        
+        // La más valiosa al final
+        byte[] dictionary = new byte[used];
+        int offset = 0;
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            byte[] bytes = chosen.get(i);
+            System.arraycopy(bytes, 0, dictionary, offset, bytes.length);
+            offset += bytes.length;
+        }
+        Files.write(Paths.get(args[1]), dictionary);
+        REPORT.printf("%,d mensajes (%,d bytes de texto), %,d frases distintas%n", messages, textBytes, counts.size());
+        REPORT.printf("Diccionario: %,d frases, %,d bytes en %s%n", chosen.size(), used, args[1]);
+    }
+    
+    private static void countPhrases(Map<String, Integer> counts, String text) {
+        String[] words = text.trim().split("\\s+");
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].isEmpty()) {
+                continue;
+            }
+            count(counts, words[i]);
+            if (i + 1 < words.length) {
+                count(counts, words[i] + " " + words[i + 1]);
+            }
+            if (i + 2 < words.length) {
+                count(counts, words[i] + " " + words[i + 1] + " " + words[i + 2]);
+            }
+        }
+    }
+    
+    private static void count(Map<String, Integer> counts, String phrase) {
+        // Las frases de menos de 4 bytes no ahorran nada en deflate
+        if (phrase != null && phrase.length() >= 4) {
+            counts.merge(phrase, 1, Integer::sum);
+        }
+    }
+    
+    // Bytes que ahorraría la frase si cada aparición se copia del diccionario
+    private static long score(Map.Entry<String, Integer> entry) {
+        return (long) entry.getValue() * entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
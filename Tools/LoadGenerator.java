@@ -0,0 +1,404 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generador de carga sin interfaz gráfica para el servidor de chat
+ * Conecta N usuarios simulados por RMI (siempre en 127.0.0.1), envía
+ * broadcasts y directos a la tasa configurada y mide la latencia de
+ * entrega extremo a extremo (p50/p99/p999), el throughput y los errores.
+ *
+ * Opciones (-D):
+ *   load.users        Usuarios simulados (1000)
+ *   load.broadcasts   Broadcasts por segundo en total (20)
+ *   load.directs      Directos por segundo en total (500)
+ *   load.duration     Segundos de medición (30)
+ *   load.warmup       Segundos de calentamiento, no se miden (5)
+ *   load.size         Bytes de relleno por mensaje (32)
+ *   load.senders      Hilos que envían mensajes (4)
+ *   load.port         Puerto del registro RMI (1099)
+ *   load.embedded     true: inicia un ChatServer y su registro en este proceso (true)
+ *   load.pollInterval Intervalo de consulta en modo poll, en ms (100)
+ */
+public class LoadGenerator {
+    
+    private static final String HOST = "127.0.0.1";
+    
+    // Salida del reporte (el servidor embebido escribe en System.out y se silencia)
+    private static final PrintStream REPORT = System.out;
+    
+    private final int users;
+    private final double broadcastRate;
+    private final double directRate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final String padding;
+    private final int senderThreads;
+    private final long pollIntervalMillis;
+    private final boolean embedded;
+    
+    private ChatServerInterface server;
+    
+    // Otros nodos del cluster a los que se redirigió a algún usuario: Map<host:puerto, servidor>
+    private final Map<String, ChatServerInterface> nodes = new HashMap<>();
+    private String deliveryMode;
+    private final List<SimulatedUser> simulatedUsers = new ArrayList<>();
+    
+    // Inicio de la medición: solo cuentan los mensajes programados desde aquí
+    private volatile long measureStartNanos = Long.MAX_VALUE;
+    private volatile boolean running = true;
+    
+    // Latencia de entrega (envío programado -> recepción) y de la llamada RMI de envío
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram callLatency = new LatencyHistogram();
+    
+    private final LongAdder broadcastsSent = new LongAdder();
+    private final LongAdder directsSent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder sendThrottled = new LongAdder();
+    private final LongAdder receiveErrors = new LongAdder();
+    private final AtomicLong expectedDeliveries = new AtomicLong();
+    
+    public LoadGenerator() {
+        users = Integer.getInteger("load.users", 1000);
+        broadcastRate = Double.parseDouble(System.getProperty("load.broadcasts", "20"));
+        directRate = Double.parseDouble(System.getProperty("load.directs", "500"));
+        durationSeconds = Integer.getInteger("load.duration", 30);
+        warmupSeconds = Integer.getInteger("load.warmup", 5);
+        padding = "x".repeat(Integer.getInteger("load.size", 32));
+        senderThreads = Integer.getInteger("load.senders", 4);
+        pollIntervalMillis = Long.getLong("load.pollInterval", 100L);
+        embedded = Boolean.parseBoolean(System.getProperty("load.embedded", "true"));
+    }
+    
+    /**
+     * Usuario simulado: recibe por callback (push), por fetchMessages (longpoll)
+     * o consultando getMessageBatch (poll) según el modo del servidor
+     */
+    private class SimulatedUser extends UnicastRemoteObject implements ChatClientInterface {
+        
+        private final String username;
+        private long lastSeq = -1;
+        
+        // Nodo en el que quedó registrado (en un cluster puede no ser el inicial)
+        private ChatServerInterface home;
+        
+        SimulatedUser(String username) throws RemoteException {
+            super();
+            this.username = username;
+        }
+        
+        @Override
+        public void receiveMessage(String from, String message, boolean isDirect) throws RemoteException {
+            onMessage(message);
+        }
+        
+        @Override
+        public void receiveRoomMessage(String room, String from, String message) throws RemoteException {
+        }
+        
+        @Override
+        public void userJoined(String username) throws RemoteException {
+        }
+        
+        @Override
+        public void userLeft(String username) throws RemoteException {
+        }
+        
+        @Override
+        public String getUsername() throws RemoteException {
+            return username;
+        }
+        
+        void process(MessageBatch batch) {
+            for (ChatMessage message : batch.getMessages()) {
+                if (message.getType() == ChatMessage.Type.BROADCAST
+                        || message.getType() == ChatMessage.Type.DIRECT) {
+                    onMessage(message.getText());
+                }
+            }
+            if (!batch.isEmpty()) {
+                lastSeq = batch.getLastSequence();
+            }
+        }
+        
+        void longPoll() {
+            while (running) {
+                try {
+                    process(home.fetchMessages(username, lastSeq, 1000, 500));
+                } catch (RemoteException e) {
+                    receiveErrors.increment();
+                }
+            }
+        }
+        
+        void poll() {
+            try {
+                process(home.getMessageBatch(username));
+            } catch (RemoteException e) {
+                receiveErrors.increment();
+            }
+        }
+    }
+    
+    /**
+     * Registra la entrega de un mensaje generado por esta herramienta
+     * El texto empieza con el instante programado de envío (System.nanoTime)
+     */
+    private void onMessage(String text) {
+        long receivedNanos = System.nanoTime();
+        int separator = text.indexOf('|');
+        if (separator <= 0) {
+            return;
+        }
+        long scheduledNanos;
+        try {
+            scheduledNanos = Long.parseLong(text.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (scheduledNanos >= measureStartNanos) {
+            delivered.increment();
+            deliveryLatency.record((receivedNanos - scheduledNanos) / 1000);
+        }
+    }
+    
+    private void connect() throws Exception {
+        System.setProperty("java.rmi.server.hostname", HOST);
+        int port = Integer.getInteger("load.port", 1099);
+        
+        if (embedded) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            Registry registry = LocateRegistry.createRegistry(port);
+            registry.rebind("ChatServer", new ChatServer());
+            REPORT.println("[INFO] Servidor embebido en " + HOST + ":" + port);
+        }
+        
+        Registry registry = LocateRegistry.getRegistry(HOST, port);
+        server = (ChatServerInterface) registry.lookup("ChatServer");
+        deliveryMode = server.getDeliveryMode();
+        REPORT.println("[INFO] Conectado a " + HOST + ":" + port + " (entrega: " + deliveryMode + ")");
+    }
+    
+    private void registerUsers() throws Exception {
+        long start = System.nanoTime();
+        String prefix = "load" + ProcessHandle.current().pid() + "-";
+        for (int i = 0; i < users; i++) {
+            SimulatedUser user = new SimulatedUser(prefix + i);
+            user.home = server;
+            while (true) {
+                try {
+                    if (!user.home.registerClient(user.username, user)) {
+                        throw new IllegalStateException("No se pudo registrar " + user.username);
+                    }
+                    break;
+                } catch (RedirectException e) {
+                    // Cluster: el usuario pertenece a otro nodo
+                    user.home = node(e.getHost(), e.getPort());
+                }
+            }
+            simulatedUsers.add(user);
+        }
+        REPORT.println(String.format("[INFO] %d usuarios registrados en %.1f s (%d nodos)",
+                users, (System.nanoTime() - start) / 1e9, nodes.size() + 1));
+    }
+    
+    /**
+     * Servidor de otro nodo del cluster (una búsqueda por nodo)
+     */
+    private ChatServerInterface node(String host, int port) throws Exception {
+        String key = host + ":" + port;
+        ChatServerInterface node = nodes.get(key);
+        if (node == null) {
+            node = (ChatServerInterface) LocateRegistry.getRegistry(host, port).lookup("ChatServer");
+            nodes.put(key, node);
+        }
+        return node;
+    }
+    
+    private void startReceivers() {
+        if (ChatServerInterface.DELIVERY_LONG_POLL.equals(deliveryMode)) {
+            for (SimulatedUser user : simulatedUsers) {
+                Thread poller = new Thread(user::longPoll, "longpoll-" + user.username);
+                poller.setDaemon(true);
+                poller.start();
+            }
+        } else if (ChatServerInterface.DELIVERY_POLL.equals(deliveryMode)) {
+            Thread poller = new Thread(() -> {
+                while (running) {
+                    long next = System.nanoTime() + pollIntervalMillis * 1_000_000L;
+                    for (SimulatedUser user : simulatedUsers) {
+                        user.poll();
+                    }
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "load-poller");
+            poller.setDaemon(true);
+            poller.start();
+        }
+    }
+    
+    /**
+     * Envía mensajes a tasa fija (lazo abierto): cada mensaje lleva su instante
+     * programado, así un servidor lento aumenta la latencia medida en vez de
+     * frenar al generador
+     */
+    private void runSender(int index, long startNanos, long endNanos, CountDownLatch done) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double broadcastInterval = broadcastRate > 0 ? 1e9 * senderThreads / broadcastRate : Double.MAX_VALUE;
+        double directInterval = directRate > 0 ? 1e9 * senderThreads / directRate : Double.MAX_VALUE;
+        // Desfase por hilo para no enviar todos a la vez
+        double nextBroadcast = startNanos + broadcastInterval * index / senderThreads;
+        double nextDirect = startNanos + directInterval * index / senderThreads;
+        
+        try {
+            while (true) {
+                boolean broadcast = nextBroadcast <= nextDirect;
+                long scheduled = (long) (broadcast ? nextBroadcast : nextDirect);
+                if (scheduled >= endNanos) {
+                    break;
+                }
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                
+                SimulatedUser sender = simulatedUsers.get(random.nextInt(users));
+                String from = sender.username;
+                String text = scheduled + "|" + padding;
+                long callStart = System.nanoTime();
+                try {
+                    if (broadcast) {
+                        sender.home.broadcastMessage(from, text);
+                    } else {
+                        String to = simulatedUsers.get(random.nextInt(users)).username;
+                        sender.home.sendDirectMessage(from, to, text);
+                    }
+                    if (scheduled >= measureStartNanos) {
+                        callLatency.record((System.nanoTime() - callStart) / 1000);
+                        if (broadcast) {
+                            broadcastsSent.increment();
+                            expectedDeliveries.addAndGet(users);
+                        } else {
+                            directsSent.increment();
+                            expectedDeliveries.incrementAndGet();
+                        }
+                    }
+                } catch (RateLimitedException e) {
+                    // Límite por usuario del servidor (-Dchat.rate.*): no es un error de la prueba
+                    sendThrottled.increment();
+                } catch (RemoteException e) {
+                    sendErrors.increment();
+                }
+                
+                if (broadcast) {
+                    nextBroadcast += broadcastInterval;
+                } else {
+                    nextDirect += directInterval;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            done.countDown();
+        }
+    }
+    
+    public void run() throws Exception {
+        connect();
+        registerUsers();
+        startReceivers();
+        
+        REPORT.println(String.format("[INFO] Carga: %.0f broadcasts/s + %.0f directos/s durante %d s (+%d s de calentamiento)",
+                broadcastRate, directRate, durationSeconds, warmupSeconds));
+        long startNanos = System.nanoTime();
+        measureStartNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        
+        CountDownLatch done = new CountDownLatch(senderThreads);
+        for (int i = 0; i < senderThreads; i++) {
+            final int index = i;
+            Thread sender = new Thread(() -> runSender(index, startNanos, endNanos, done), "load-sender-" + i);
+            sender.setDaemon(true);
+            sender.start();
+        }
+        done.await();
+        
+        // Esperar las entregas en curso (hasta 10 s)
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (delivered.sum() < expectedDeliveries.get() && System.nanoTime() < drainDeadline) {
+            Thread.sleep(50);
+        }
+        running = false;
+        
+        report();
+        
+        // Un servidor externo sigue activo: dejarlo sin los usuarios simulados
+        if (!embedded) {
+            for (SimulatedUser user : simulatedUsers) {
+                try {
+                    user.home.unregisterClient(user.username);
+                } catch (RemoteException e) {
+                    receiveErrors.increment();
+                }
+            }
+        }
+    }
+    
+    private void report() {
+        double seconds = durationSeconds;
+        long deliveredCount = delivered.sum();
+        long expected = expectedDeliveries.get();
+        
+        REPORT.println("========================================");
+        REPORT.println("    RESULTADOS DE LA PRUEBA DE CARGA");
+        REPORT.println("========================================");
+        REPORT.println(String.format("Usuarios: %d (entrega: %s)", users, deliveryMode));
+        REPORT.println(String.format("Enviados: %,d broadcasts (%.1f/s), %,d directos (%.1f/s)",
+                broadcastsSent.sum(), broadcastsSent.sum() / seconds, directsSent.sum(), directsSent.sum() / seconds));
+        REPORT.println(String.format("Entregas: %,d de %,d esperadas (%.1f/s), perdidas: %,d",
+                deliveredCount, expected, deliveredCount / seconds, Math.max(0, expected - deliveredCount)));
+        REPORT.println(String.format("Errores: %,d al enviar, %,d al recibir; %,d envíos rechazados por límite de tasa",
+                sendErrors.sum(), receiveErrors.sum(), sendThrottled.sum()));
+        printLatency("Latencia de entrega", deliveryLatency);
+        printLatency("Latencia de la llamada de envío", callLatency);
+        REPORT.println("========================================");
+    }
+    
+    private static void printLatency(String title, LatencyHistogram histogram) {
+        REPORT.println(String.format("%s (us): p50=%,d p99=%,d p999=%,d max=%,d (%,d muestras)",
+                title, histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9),
+                histogram.max(), histogram.count()));
+    }
+    
+    public static void main(String[] args) {
+        try {
+            new LoadGenerator().run();
+            System.exit(0);
+        } catch (Exception e) {
+            REPORT.println("[ERROR] Error en la prueba de carga:");
+            e.printStackTrace(REPORT);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Prueba de estrés del buzón MPSC (Mailbox)
+ * Varios productores encolan a la vez mientras un consumidor drena; al final
+ * se comprueba que:
+ * - cada productor llega en su orden (FIFO por productor)
+ * - no se pierde ni se repite ningún mensaje aceptado
+ * - el buzón nunca supera su capacidad y los rechazados son los que no cabían
+ * Cada ronda corre una fase sin descartes (capacidad para todo) y otra con
+ * capacidad chica, donde offer rechaza mientras el consumidor no drena.
+ *
+ * Uso: ./run-stress.sh
+ * Opciones (-D):
+ *   stress.producers  Hilos productores (16)
+ *   stress.messages   Mensajes por productor (200000)
+ *   stress.capacity   Capacidad de la fase acotada (1024)
+ *   stress.rounds     Rondas (3)
+ *
+ * Termina con código 1 si alguna comprobación falla.
+ */
+public class MailboxStressTest {
+    
+    private static final PrintStream REPORT = System.out;
+    
+    private final int producers;
+    private final int messages;
+    
+    // Errores encontrados (el primero de cada fase se informa)
+    private int failures;
+    
+    public MailboxStressTest(int producers, int messages) {
+        this.producers = producers;
+        this.messages = messages;
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int producers = Integer.getInteger("stress.producers", 16);
+        int messages = Integer.getInteger("stress.messages", 200000);
+        int capacity = Integer.getInteger("stress.capacity", 1024);
+        int rounds = Integer.getInteger("stress.rounds", 3);
+        
+        MailboxStressTest test = new MailboxStressTest(producers, messages);
+        REPORT.printf("%d productores × %,d mensajes, %d rondas%n", producers, messages, rounds);
+        for (int round = 1; round <= rounds; round++) {
+            int unbounded = (int) Math.min(Integer.MAX_VALUE, (long) producers * messages);
+            test.run("ronda " + round + " sin descartes", unbounded);
+            test.run("ronda " + round + " capacidad " + capacity, capacity);
+        }
+        
+        if (test.failures > 0) {
+            REPORT.println("FALLÓ: " + test.failures + " comprobaciones");
+            System.exit(1);
+        }
+        REPORT.println("OK");
+    }
+    
+    /**
+     * Una fase: todos los productores contra un consumidor
+     */
+    private void run(String name, int capacity) throws InterruptedException {
+        Mailbox<Long> mailbox = new Mailbox<>(capacity);
+        long[] accepted = new long[producers];
+        long[] rejected = new long[producers];
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(producers);
+        
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                awaitQuietly(start);
+                long ok = 0;
+                long full = 0;
+                for (int seq = 0; seq < messages; seq++) {
+                    // Productor en los 32 bits altos, secuencia en los bajos
+                    if (mailbox.offer(((long) producer << 32) | seq)) {
+                        ok++;
+                    } else {
+                        full++;
+                    }
+                }
+                accepted[producer] = ok;
+                rejected[producer] = full;
+                done.countDown();
+            }, "stress-producer-" + p);
+            threads[p].start();
+        }
+        
+        // El consumidor drena en este hilo mientras los productores encolan
+        int[] lastSeq = new int[producers];
+        long[] received = new long[producers];
+        Arrays.fill(lastSeq, -1);
+        AtomicBoolean reported = new AtomicBoolean();
+        int maxBatch = 0;
+        long drains = 0;
+        long startNanos = System.nanoTime();
+        start.countDown();
+        boolean finished = false;
+        while (!finished) {
+            // Leer la marca antes de drenar: lo que quede tras ella ya está encolado
+            finished = done.getCount() == 0;
+            List<Long> batch = mailbox.drainAll();
+            // Un drenado trae lo que estaba en el buzón: nunca más que la capacidad
+            maxBatch = Math.max(maxBatch, batch.size());
+            drains++;
+            for (long value : batch) {
+                int producer = (int) (value >>> 32);
+                int seq = (int) value;
+                if (producer < 0 || producer >= producers) {
+                    fail(reported, name, "productor inválido " + producer);
+                    continue;
+                }
+                if (seq <= lastSeq[producer]) {
+                    fail(reported, name, "productor " + producer + ": " + seq
+                            + " llegó después de " + lastSeq[producer]);
+                }
+                lastSeq[producer] = seq;
+                received[producer]++;
+            }
+            if (batch.isEmpty()) {
+                Thread.onSpinWait();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        long totalAccepted = 0;
+        long totalRejected = 0;
+        for (int p = 0; p < producers; p++) {
+            totalAccepted += accepted[p];
+            totalRejected += rejected[p];
+            if (received[p] != accepted[p]) {
+                fail(reported, name, "productor " + p + ": " + accepted[p] + " aceptados, "
+                        + received[p] + " recibidos");
+            }
+        }
+        if (maxBatch > capacity) {
+            fail(reported, name, "un drenado trajo " + maxBatch + " mensajes con capacidad " + capacity);
+        }
+        if (mailbox.size() != 0) {
+            fail(reported, name, "quedaron " + mailbox.size() + " mensajes sin drenar");
+        }
+        if (capacity >= (long) producers * messages && totalRejected > 0) {
+            fail(reported, name, totalRejected + " rechazados sin superar la capacidad");
+        }
+        
+        REPORT.printf("%-28s %,12d aceptados %,12d rechazados %,9d drenados  lote máx %,8d  %,8.1f M msg/s  %s%n",
+                name, totalAccepted, totalRejected, drains, maxBatch,
+                (totalAccepted + totalRejected) * 1000.0 / Math.max(1, elapsedNanos),
+                reported.get() ? "FALLÓ" : "ok");
+    }
+    
+    private void fail(AtomicBoolean reported, String phase, String detail) {
+        failures++;
+        if (reported.compareAndSet(false, true)) {
+            REPORT.println("[" + phase + "] " + detail);
+        }
+    }
+    
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
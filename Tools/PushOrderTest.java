@@ -0,0 +1,144 @@
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Prueba de orden de entrega de UserSession
+ * Reparte una secuencia entre el registro de la sala general, el de una sala
+ * propia y el buzón de directos, con más atraso que un turno, y extrae por
+ * turnos (takeForPush y take); al final se comprueba que:
+ * - cada turno respeta el máximo
+ * - las secuencias llegan en orden estricto, aunque un registro atrasado
+ *   tenga mensajes más viejos que los directos o que la otra sala
+ * - no se pierde ni se repite ningún mensaje
+ *
+ * Uso: ./run-push-order.sh
+ * Opciones (-D):
+ *   order.messages  Mensajes por caso (1000)
+ *   order.turn      Máximo por turno (64)
+ *   order.seeds     Repartos aleatorios además de los fijos (20)
+ *
+ * Termina con código 1 si alguna comprobación falla.
+ */
+public class PushOrderTest {
+    
+    private static final PrintStream REPORT = System.out;
+    
+    // Fuentes de cada secuencia
+    private static final int GENERAL = 0;
+    private static final int ROOM = 1;
+    private static final int DIRECT = 2;
+    
+    private final int messages;
+    private final int turn;
+    
+    // Errores encontrados (el primero de cada caso se informa)
+    private int failures;
+    
+    public PushOrderTest(int messages, int turn) {
+        this.messages = messages;
+        this.turn = turn;
+    }
+    
+    public static void main(String[] args) {
+        int messages = Integer.getInteger("order.messages", 1000);
+        int turn = Integer.getInteger("order.turn", 64);
+        int seeds = Integer.getInteger("order.seeds", 20);
+        
+        PushOrderTest test = new PushOrderTest(messages, turn);
+        REPORT.printf("%,d mensajes por caso, turnos de %d%n", messages, turn);
+        
+        // Sala propia atrasada: sus mensajes son más viejos que los de la general y los directos
+        test.runBoth("sala atrasada", seq -> seq < messages / 3 ? ROOM : seq % 10 == 0 ? DIRECT : GENERAL);
+        // General atrasada y un directo al medio de su atraso
+        test.runBoth("general atrasada", seq -> seq < messages / 3 ? (seq == messages / 6 ? DIRECT : GENERAL)
+                : seq % 2 == 0 ? ROOM : GENERAL);
+        // Alternadas
+        test.runBoth("alternadas", seq -> seq % 3);
+        for (int s = 0; s < seeds; s++) {
+            Random random = new Random(s);
+            int[] sources = new int[messages];
+            for (int seq = 0; seq < messages; seq++) {
+                int pick = random.nextInt(10);
+                sources[seq] = pick < 1 ? DIRECT : pick < 5 ? ROOM : GENERAL;
+            }
+            test.runBoth("semilla " + s, seq -> sources[seq]);
+        }
+        
+        if (test.failures > 0) {
+            REPORT.println("FALLÓ: " + test.failures + " comprobaciones");
+            System.exit(1);
+        }
+        REPORT.println("OK");
+    }
+    
+    /**
+     * Fuente de cada secuencia de un caso
+     */
+    private interface Layout {
+        int sourceOf(int seq);
+    }
+    
+    private void runBoth(String name, Layout layout) {
+        run(name + " (push)", layout, true);
+        run(name + " (consulta)", layout, false);
+    }
+    
+    /**
+     * Un caso: carga el atraso y lo extrae por turnos comprobando el orden
+     */
+    private void run(String name, Layout layout, boolean push) {
+        RoomLog<ChatMessage> general = new RoomLog<>();
+        ChatRoom room = new ChatRoom("sala", Long.MAX_VALUE, null);
+        UserSession session = new UserSession("usuario", null, new Mailbox<>(messages), general.openCursor());
+        room.join(session);
+        
+        for (int seq = 0; seq < messages; seq++) {
+            switch (layout.sourceOf(seq)) {
+                case ROOM:
+                    room.append(ChatMessage.of(seq, ChatMessage.Type.ROOM, "otro", "sala", "m" + seq));
+                    break;
+                case DIRECT:
+                    session.getMailbox().offer(
+                            ChatMessage.of(seq, ChatMessage.Type.DIRECT, "otro", "usuario", "m" + seq));
+                    break;
+                default:
+                    general.append(ChatMessage.of(seq, ChatMessage.Type.BROADCAST, "otro", null, "m" + seq));
+                    break;
+            }
+        }
+        
+        long last = -1;
+        int received = 0;
+        int turns = 0;
+        boolean reported = false;
+        // Un turno vacío con mensajes pendientes también es un error: se cortan las vueltas
+        while (session.hasPending(general) && turns <= messages) {
+            List<ChatMessage> batch = push ? session.takeForPush(general, turn) : session.take(general, last, turn);
+            turns++;
+            if (batch.size() > turn) {
+                reported = fail(reported, name, "turno de " + batch.size() + " mensajes");
+            }
+            for (ChatMessage message : batch) {
+                if (message.getSequenceId() <= last) {
+                    reported = fail(reported, name, "secuencia " + message.getSequenceId()
+                            + " después de " + last);
+                }
+                last = Math.max(last, message.getSequenceId());
+                received++;
+            }
+        }
+        if (received != messages) {
+            fail(reported, name, received + " de " + messages + " mensajes recibidos");
+        }
+        REPORT.printf("%-28s %d turnos%n", name, turns);
+    }
+    
+    private boolean fail(boolean reported, String name, String detail) {
+        failures++;
+        if (!reported) {
+            REPORT.println("[" + name + "] " + detail);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+#!/bin/bash
+
+# Script para compilar y ejecutar los benchmarks del servidor de chat
+# Uso: ./run-bench.sh [ClaseBenchmark] (por defecto PollScalingBenchmark)
+# Opciones: -Dbench.warmup, -Dbench.iterations y -Dbench.time (ms) via JAVA_OPTS
+
+BENCHMARK=${1:-PollScalingBenchmark}
+
+echo "Compilando benchmarks..."
+echo "========================"
+
+# Ir al directorio base
+cd "$(dirname "$0")"
+
+mkdir -p build/bench
+javac -encoding UTF-8 -d build/bench Common/*.java Server/*.java Bench/*.java
+if [ $? -ne 0 ]; then
+    echo "[ERROR] Error al compilar los benchmarks"
+    exit 1
+fi
+
+echo "[INFO] Compilacion exitosa"
+echo ""
+echo "Ejecutando $BENCHMARK..."
+echo "========================"
+
+java $JAVA_OPTS -cp build/bench $BENCHMARK
@@ -10,21 +10,15 @@ cd "$(dirname "$0")"
 
 echo "[INFO] Compilando interfaces..."
 
-# Compilar las interfaces comunes primero
+# Compilar las interfaces y clases comunes primero
 cd Common
-javac ChatClientInterface.java
+javac *.java
 if [ $? -ne 0 ]; then
-    echo "[ERROR] Error al compilar ChatClientInterface.java"
+    echo "[ERROR] Error al compilar las clases comunes"
     exit 1
 fi
 
-javac ChatServerInterface.java
-if [ $? -ne 0 ]; then
-    echo "[ERROR] Error al compilar ChatServerInterface.java"
-    exit 1
-fi
-
-# Copiar interfaces al directorio del cliente
+# Copiar clases comunes al directorio del cliente
 cp *.class ../Client/
 cd ../Client
 
@@ -0,0 +1,46 @@
+#!/bin/bash
+
+# Script para iniciar un cluster de servidores de chat en esta máquina
+# Uso: ./run-cluster.sh [nodos] [puerto inicial] (por defecto 3 nodos desde el 1099)
+# Opciones de los servidores via JAVA_OPTS (por ejemplo -Dchat.delivery=longpoll)
+# Los clientes pueden conectarse a cualquier nodo; Ctrl+C detiene todos
+
+NODES=${1:-3}
+BASE_PORT=${2:-1099}
+HOST=127.0.0.1
+
+echo "Compilando servidor..."
+echo "======================"
+
+# Ir al directorio base
+cd "$(dirname "$0")"
+
+mkdir -p build/cluster
+javac -encoding UTF-8 -d build/cluster Common/*.java Server/*.java
+if [ $? -ne 0 ]; then
+    echo "[ERROR] Error al compilar el servidor"
+    exit 1
+fi
+
+# Lista de nodos: 127.0.0.1:1099,127.0.0.1:1100,...
+LIST=""
+for ((i = 0; i < NODES; i++)); do
+    LIST="$LIST${LIST:+,}$HOST:$((BASE_PORT + i))"
+done
+
+echo "[INFO] Compilacion exitosa"
+echo ""
+echo "Iniciando cluster: $LIST"
+echo "======================"
+
+PIDS=()
+for ((i = 0; i < NODES; i++)); do
+    PORT=$((BASE_PORT + i))
+    java $JAVA_OPTS -Djava.rmi.server.hostname=$HOST -Dchat.cluster.nodes=$LIST \
+        -cp build/cluster ChatServer $HOST $PORT > build/cluster/node-$PORT.log 2>&1 &
+    PIDS+=($!)
+    echo "[INFO] Nodo $HOST:$PORT iniciado (salida en build/cluster/node-$PORT.log)"
+done
+
+trap 'kill "${PIDS[@]}" 2>/dev/null' INT TERM EXIT
+wait
@@ -0,0 +1,26 @@
+#!/bin/bash
+
+# Script para compilar y ejecutar el generador de carga (sin interfaz gráfica)
+# Uso: ./run-load.sh
+# Opciones: -Dload.users, -Dload.broadcasts, -Dload.directs, -Dload.duration,
+# -Dload.embedded=false (usar un servidor ya iniciado en 127.0.0.1) via JAVA_OPTS
+
+echo "Compilando generador de carga..."
+echo "================================"
+
+# Ir al directorio base
+cd "$(dirname "$0")"
+
+mkdir -p build/load
+javac -encoding UTF-8 -d build/load Common/*.java Server/*.java Tools/*.java
+if [ $? -ne 0 ]; then
+    echo "[ERROR] Error al compilar el generador de carga"
+    exit 1
+fi
+
+echo "[INFO] Compilacion exitosa"
+echo ""
+echo "Ejecutando prueba de carga..."
+echo "================================"
+
+java $JAVA_OPTS -cp build/load LoadGenerator
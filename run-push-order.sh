@@ -0,0 +1,25 @@
+#!/bin/bash
+
+# Script para compilar y ejecutar la prueba de orden de entrega (UserSession)
+# Uso: ./run-push-order.sh
+# Opciones: -Dorder.messages, -Dorder.turn y -Dorder.seeds via JAVA_OPTS
+
+echo "Compilando prueba de orden..."
+echo "================================"
+
+# Ir al directorio base
+cd "$(dirname "$0")"
+
+mkdir -p build/stress
+javac -encoding UTF-8 -d build/stress Common/*.java Server/*.java Tools/*.java
+if [ $? -ne 0 ]; then
+    echo "[ERROR] Error al compilar la prueba de orden"
+    exit 1
+fi
+
+echo "[INFO] Compilacion exitosa"
+echo ""
+echo "Ejecutando prueba de orden..."
+echo "================================"
+
+java $JAVA_OPTS -cp build/stress PushOrderTest
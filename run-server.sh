@@ -29,21 +29,15 @@ echo "[INFO] Compilando archivos del servidor..."
 # Ir al directorio base
 cd "$(dirname "$0")"
 
-# Compilar las interfaces comunes primero
+# Compilar las interfaces y clases comunes primero
 cd Common
-javac ChatClientInterface.java
+javac *.java
 if [ $? -ne 0 ]; then
-    echo "[ERROR] Error al compilar ChatClientInterface.java"
+    echo "[ERROR] Error al compilar las clases comunes"
     exit 1
 fi
 
-javac ChatServerInterface.java
-if [ $? -ne 0 ]; then
-    echo "[ERROR] Error al compilar ChatServerInterface.java"
-    exit 1
-fi
-
-# Copiar interfaces al directorio del servidor
+# Copiar clases comunes al directorio del servidor
 cp *.class ../Server/
 cd ../Server
 
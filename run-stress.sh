@@ -0,0 +1,25 @@
+#!/bin/bash
+
+# Script para compilar y ejecutar la prueba de estrés del buzón MPSC (Mailbox)
+# Uso: ./run-stress.sh
+# Opciones: -Dstress.producers, -Dstress.messages, -Dstress.capacity y -Dstress.rounds via JAVA_OPTS
+
+echo "Compilando prueba de estrés..."
+echo "================================"
+
+# Ir al directorio base
+cd "$(dirname "$0")"
+
+mkdir -p build/stress
+javac -encoding UTF-8 -d build/stress Common/*.java Server/*.java Tools/*.java
+if [ $? -ne 0 ]; then
+    echo "[ERROR] Error al compilar la prueba de estrés"
+    exit 1
+fi
+
+echo "[INFO] Compilacion exitosa"
+echo ""
+echo "Ejecutando prueba de estrés..."
+echo "================================"
+
+java $JAVA_OPTS -cp build/stress MailboxStressTest